@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ua.cn.al.easycrypt.benchmarks;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.cn.al.easycrypt.AsymCryptorDH;
+import ua.cn.al.easycrypt.AsymKeysHolder;
+import ua.cn.al.easycrypt.CryptoConfig;
+import ua.cn.al.easycrypt.CryptoFactory;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.KeyGenerator;
+
+/**
+ * Key agreement of two parties with secp521r1 against X25519: full signed
+ * ECDHE handshake (ephemeral key generation, signature, verification and key
+ * agreement on both sides) and static ECDH of already known keys.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandshakeBenchmark {
+
+    @Param({"secp521r1", "X25519"})
+    public String curve;
+
+    private AsymCryptorDH alice;
+    private AsymCryptorDH bob;
+    private AsymCryptorDH aliceStatic;
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptoParams params = "X25519".equals(curve) ? CryptoConfig.createX25519() : CryptoConfig.createSecp521r1();
+        CryptoFactory factory = CryptoFactory.newInstance(params);
+        KeyGenerator kg = factory.getKeyGenerator();
+        KeyPair sa = kg.generateSignatureKeys();
+        KeyPair sb = kg.generateSignatureKeys();
+        alice = factory.getAsymCryptorDH();
+        alice.setKeys(new AsymKeysHolder(sa.getPublic(), sa.getPrivate(), sb.getPublic()));
+        bob = factory.getAsymCryptorDH();
+        bob.setKeys(new AsymKeysHolder(sb.getPublic(), sb.getPrivate(), sa.getPublic()));
+        KeyPair a = kg.generateKeys();
+        KeyPair b = kg.generateKeys();
+        aliceStatic = factory.getAsymCryptorDH();
+        aliceStatic.setKeys(new AsymKeysHolder(a.getPublic(), a.getPrivate(), b.getPublic()));
+    }
+
+    @Benchmark
+    public byte[] ecdheHandshake() throws Exception {
+        byte[] aliceSigned = alice.ecdheStep1();
+        byte[] bobSigned = bob.ecdheStep1();
+        bob.ecdheStep2(aliceSigned);
+        return alice.ecdheStep2(bobSigned);
+    }
+
+    @Benchmark
+    public byte[] staticKeyAgreement() throws Exception {
+        return aliceStatic.calculateSharedKey();
+    }
+}
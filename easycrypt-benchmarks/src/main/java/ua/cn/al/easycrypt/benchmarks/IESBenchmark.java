@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ua.cn.al.easycrypt.benchmarks;
+
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.cn.al.easycrypt.AsymCryptor;
+import ua.cn.al.easycrypt.AsymKeysHolder;
+import ua.cn.al.easycrypt.CryptoConfig;
+import ua.cn.al.easycrypt.CryptoFactory;
+import ua.cn.al.easycrypt.KeyGenerator;
+import ua.cn.al.easycrypt.dataformat.AEADPlain;
+
+/**
+ * Round trip (encryption and decryption) of IES on secp521r1 keys: default
+ * ECIES with AES-CBC and HMAC against ECIES-KEM with AES-GCM of AEAD methods.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IESBenchmark {
+
+    @Param({"256", "1048576"})
+    public int size;
+
+    private AsymCryptor alice;
+    private AsymCryptor bob;
+    private byte[] plain;
+    private final byte[] header = "header".getBytes();
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptoFactory factory = CryptoFactory.newInstance(CryptoConfig.createSecp521r1());
+        KeyGenerator kg = factory.getKeyGenerator();
+        KeyPair a = kg.generateKeys();
+        KeyPair b = kg.generateKeys();
+        alice = factory.getAsymCryptor();
+        alice.setKeys(new AsymKeysHolder(a.getPublic(), a.getPrivate(), b.getPublic()));
+        bob = factory.getAsymCryptor();
+        bob.setKeys(new AsymKeysHolder(b.getPublic(), b.getPrivate(), a.getPublic()));
+        plain = new byte[size];
+        new SecureRandom().nextBytes(plain);
+    }
+
+    @Benchmark
+    public byte[] eciesCbc() throws Exception {
+        return bob.decrypt(alice.encrypt(plain));
+    }
+
+    @Benchmark
+    public AEADPlain eciesKemGcm() throws Exception {
+        return bob.decryptWithAEAData(alice.encryptWithAEAData(plain, header).toBytes());
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ua.cn.al.easycrypt.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.cn.al.easycrypt.CryptoFactory;
+import ua.cn.al.easycrypt.KeyGenerator;
+import ua.cn.al.easycrypt.stream.ParallelFileEncryptor;
+
+/**
+ * Encryption of 256 MB file to segmented AEAD format by number of threads.
+ * threads=0 is sequential encryption in calling thread. Throughput in MB/s is
+ * score multiplied by 256.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelFileEncryptBenchmark {
+
+    public static final int FILE_SIZE = 256 * 1024 * 1024;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int threads;
+
+    private ParallelFileEncryptor encryptor;
+    private ForkJoinPool pool;
+    private Path in;
+    private Path out;
+    private byte[] iv;
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptoFactory factory = CryptoFactory.newInstance();
+        KeyGenerator kg = factory.getKeyGenerator();
+        encryptor = factory.getParallelFileEncryptor(kg.generateSymKey());
+        //the same IV for every run is fine for measurement only
+        iv = kg.generateIV();
+        pool = threads > 0 ? new ForkJoinPool(threads) : null;
+        in = Files.createTempFile("easycrypt-bench", ".plain");
+        out = Files.createTempFile("easycrypt-bench", ".enc");
+        byte[] block = new byte[1024 * 1024];
+        new SecureRandom().nextBytes(block);
+        try (var os = Files.newOutputStream(in)) {
+            for (int i = 0; i < FILE_SIZE / block.length; i++) {
+                os.write(block);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        Files.deleteIfExists(in);
+        Files.deleteIfExists(out);
+    }
+
+    @Benchmark
+    public long encryptFile() throws Exception {
+        return encryptor.encrypt(in, out, iv, pool);
+    }
+}
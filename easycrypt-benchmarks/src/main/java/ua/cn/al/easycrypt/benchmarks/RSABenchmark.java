@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ua.cn.al.easycrypt.benchmarks;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.cn.al.easycrypt.AsymCryptor;
+import ua.cn.al.easycrypt.AsymKeysHolder;
+import ua.cn.al.easycrypt.CryptoConfig;
+import ua.cn.al.easycrypt.CryptoFactory;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.CryptoSignature;
+
+/**
+ * RSA presets of CryptoConfig on 4096 bit keys: PKCS#1 v1.5, OAEP and PSS,
+ * OAEP and PSS with 3 and 4 prime keys. Decryption and signing use private
+ * key, encryption shows cost of public key operation.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RSABenchmark {
+
+    @Param({"pkcs1", "oaepPss", "multiPrime3", "multiPrime4"})
+    public String preset;
+
+    private AsymCryptor cryptor;
+    private CryptoSignature signer;
+    private final byte[] plain = "Red fox Jumps over Lazy Dog".getBytes();
+    private byte[] encrypted;
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptoParams params;
+        switch (preset) {
+            case "pkcs1":
+                params = CryptoConfig.createRSAn(4096);
+                break;
+            case "oaepPss":
+                params = CryptoConfig.createRSAOaepPss(4096);
+                break;
+            case "multiPrime3":
+                params = CryptoConfig.createRSAMultiPrime(4096, 3);
+                break;
+            default:
+                params = CryptoConfig.createRSAMultiPrime(4096, 4);
+        }
+        CryptoFactory factory = CryptoFactory.newInstance(params);
+        KeyPair kp = factory.getKeyGenerator().generateKeys();
+        AsymKeysHolder kh = new AsymKeysHolder(kp.getPublic(), kp.getPrivate(), kp.getPublic());
+        cryptor = factory.getAsymCryptor();
+        cryptor.setKeys(kh);
+        signer = factory.getCryptoSiganture();
+        signer.setKeys(kh);
+        encrypted = cryptor.encrypt(plain);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return cryptor.decrypt(encrypted);
+    }
+
+    @Benchmark
+    public byte[] sign() throws Exception {
+        return signer.sign(plain);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return cryptor.encrypt(plain);
+    }
+}
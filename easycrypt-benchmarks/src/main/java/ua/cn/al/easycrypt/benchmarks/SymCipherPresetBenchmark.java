@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ua.cn.al.easycrypt.benchmarks;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.cn.al.easycrypt.CryptoConfig;
+import ua.cn.al.easycrypt.CryptoFactory;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.SymCryptorSession;
+
+/**
+ * Symmetric encryption with AES-GCM, AES-GCM-SIV and ChaCha20-Poly1305
+ * presets. Results depend on AES hardware acceleration of the host.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SymCipherPresetBenchmark {
+
+    @Param({"AES-GCM", "AES-GCM-SIV", "ChaCha20-Poly1305"})
+    public String cipher;
+
+    @Param({"64", "16384"})
+    public int size;
+
+    private SymCryptorSession session;
+    private byte[] plain;
+    private byte[] encrypted;
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptoParams params = switch (cipher) {
+            case "AES-GCM-SIV" -> CryptoConfig.createPrime256v1AesGcmSiv();
+            case "ChaCha20-Poly1305" -> CryptoConfig.createPrime256v1ChaCha20Poly1305();
+            default -> CryptoConfig.createPrime256v1();
+        };
+        CryptoFactory factory = CryptoFactory.newInstance(params);
+        SecureRandom random = new SecureRandom();
+        byte[] salt = new byte[params.getAesGcmSaltLen()];
+        random.nextBytes(salt);
+        session = factory.getSymCryptorSession(factory.getKeyGenerator().generateSymKey(), salt);
+        plain = new byte[size];
+        random.nextBytes(plain);
+        encrypted = session.encrypt(plain);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return session.encrypt(plain);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return session.decrypt(encrypted);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ua.cn.al.easycrypt.benchmarks;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ua.cn.al.easycrypt.CryptoFactory;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.KeyGenerator;
+import ua.cn.al.easycrypt.SymCryptor;
+import ua.cn.al.easycrypt.dataformat.AEADCiphered;
+
+/**
+ * Small AEAD messages encryption: cipher reused by SymCryptor against
+ * Cipher.getInstance() and init for each message as it was done before.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SymCipherReuseBenchmark {
+
+    @Param({"64", "1024"})
+    public int size;
+
+    private final SecureRandom random = new SecureRandom();
+    private CryptoParams params;
+    private SymCryptor cryptor;
+    private SecretKeySpec key;
+    private byte[] iv;
+    private byte[] plain;
+    private byte[] aad;
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptoFactory factory = CryptoFactory.newInstance();
+        params = factory.getCryptoParams();
+        KeyGenerator kg = factory.getKeyGenerator();
+        byte[] keyBytes = kg.generateSymKey();
+        iv = kg.generateIV();
+        key = new SecretKeySpec(keyBytes, "AES");
+        cryptor = factory.getSymCryptor();
+        cryptor.setKey(keyBytes);
+        cryptor.setIV(iv);
+        plain = new byte[size];
+        random.nextBytes(plain);
+        aad = new byte[32];
+        random.nextBytes(aad);
+    }
+
+    @Benchmark
+    public AEADCiphered reusedCipher() throws Exception {
+        cryptor.setNonce(null);
+        return cryptor.encryptWithAEAData(plain, aad);
+    }
+
+    @Benchmark
+    public byte[] cipherPerMessage() throws Exception {
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(params.getSymCipher());
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(params.getGcmAuthTagLenBits(), iv));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(plain);
+    }
+}
@@ -15,6 +15,10 @@
  */
 package ua.cn.al.easycrypt;
 
+import java.security.PublicKey;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Crypto routines to "asymmetric" encryption using Diffie-Hellman key exchange.
  * In fact, symmetric AES encryption is used after common key is established.
@@ -49,8 +53,55 @@ public interface AsymCryptorDH extends AsymCryptor {
      * Calculate shared key usable by both ends of encryption by some Diffie-Hellman
      * procedure. In case of EC it is ECDH. If you have possibility to exchange temporal keys,
      * consider to use 2-step ECDHE procedure for more security.
-     * @return encoded shared key
+     * Incompatible change: earlier versions returned null on failure and did
+     * not declare checked exception, callers must handle it now.
+     * @return encoded shared key, never null
+     * @throws CryptoNotValidException if keys are not set or are not key agreement keys
+     */
+    byte[] calculateSharedKey() throws CryptoNotValidException;
+
+    /**
+     * Calculate shared keys of our key pair with many public keys at once, the
+     * same keys as setKeys() and calculateSharedKey() give for each public key.
+     * Large lists are processed in parallel in common ForkJoinPool.
+     *
+     * @param theirKeys public keys of other sides
+     * @return shared keys in input order
+     * @throws CryptoNotValidException if our keys are not set or any public key is not valid
+     */
+    List<byte[]> calculateSharedKeys(List<PublicKey> theirKeys) throws CryptoNotValidException;
+
+    /**
+     * Calculate shared keys of our key pair with many public keys, @see calculateSharedKeys(List)
+     *
+     * @param theirKeys public keys of other sides
+     * @param pool pool to run calculation in, null to run in calling thread
+     * @return shared keys in input order
+     * @throws CryptoNotValidException if our keys are not set or any public key is not valid
+     */
+    List<byte[]> calculateSharedKeys(List<PublicKey> theirKeys, ForkJoinPool pool) throws CryptoNotValidException;
+
+    /**
+     * Set pool of pre-generated ephemeral key pairs used by ecdheStep1, so
+     * key generation is out of handshake path
+     *
+     * @param pool pool of key pairs of the same curve or null to generate
+     * key pairs in ecdheStep1
+     * @throws IllegalArgumentException if curve of pool does not match
+     */
+    void setEphemeralKeyPool(EphemeralKeyPool pool);
+
+    /**
+     * Decrypt message produced by encrypt(byte[]) in place: plain text
+     * overwrites beginning of the message, no output buffer is allocated.
+     * Content of the buffer is not defined if decryption fails.
+     *
+     * @param buf buffer with encrypted message prefixed with IV
+     * @param off offset of encrypted message, plain text is written at the same offset
+     * @param len length of encrypted message
+     * @return length of plain text
+     * @throws CryptoNotValidException
      */
-    byte[] calculateSharedKey();
+    int decryptInPlace(byte[] buf, int off, int len) throws CryptoNotValidException;
     
 }
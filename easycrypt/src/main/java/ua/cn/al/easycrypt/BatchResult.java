@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Results of batch encryption or decryption in input order. All outputs are
+ * placed in one byte array (slab) one after another, each item has its offset
+ * and length in the slab. Failed items have zero length and error set, so
+ * one bad item does not fail entire batch.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class BatchResult {
+
+    private final byte[] data;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final CryptoNotValidException[] errors;
+
+    /**
+     * Allocates slab for all items
+     *
+     * @param lengths expected output length of each item
+     */
+    public BatchResult(int[] lengths) {
+        this.lengths = lengths.clone();
+        this.offsets = new int[lengths.length];
+        this.errors = new CryptoNotValidException[lengths.length];
+        long total = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            offsets[i] = (int) total;
+            total += lengths[i];
+            if (total > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Batch is too big for one buffer: " + total);
+            }
+        }
+        this.data = new byte[(int) total];
+    }
+
+    /**
+     * Number of items in batch
+     *
+     * @return number of items
+     */
+    public int size() {
+        return lengths.length;
+    }
+
+    /**
+     * Marks item as failed
+     *
+     * @param i index of item
+     * @param error cause of failure
+     */
+    public void setError(int i, CryptoNotValidException error) {
+        errors[i] = error;
+        lengths[i] = 0;
+    }
+
+    public boolean isOk(int i) {
+        return errors[i] == null;
+    }
+
+    public CryptoNotValidException getError(int i) {
+        return errors[i];
+    }
+
+    /**
+     * Number of failed items
+     *
+     * @return number of items with error
+     */
+    public int getFailedCount() {
+        int res = 0;
+        for (CryptoNotValidException e : errors) {
+            if (e != null) {
+                res++;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Slab with outputs of all items
+     *
+     * @return entire output buffer, not a copy
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
+    public int getLength(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * Copy of item output
+     *
+     * @param i index of item
+     * @return output bytes or null if item failed
+     */
+    public byte[] get(int i) {
+        if (!isOk(i)) {
+            return null;
+        }
+        byte[] res = new byte[lengths[i]];
+        System.arraycopy(data, offsets[i], res, 0, lengths[i]);
+        return res;
+    }
+
+    /**
+     * Read-only view of item output without copying
+     *
+     * @param i index of item
+     * @return buffer with item output between position and limit or null if
+     * item failed
+     */
+    public ByteBuffer getBuffer(int i) {
+        if (!isOk(i)) {
+            return null;
+        }
+        return ByteBuffer.wrap(data, offsets[i], lengths[i]).slice().asReadOnlyBuffer();
+    }
+}
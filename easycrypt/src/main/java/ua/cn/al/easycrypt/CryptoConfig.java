@@ -21,6 +21,7 @@ import org.slf4j.LoggerFactory;
 import java.security.Provider;
 import java.security.Security;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import ua.cn.al.easycrypt.impl.rsa.ParallelRSAKeyGenerator;
 
 /**
  * Configuration parameters for all EasyCrypt library
@@ -104,11 +105,42 @@ public class CryptoConfig {
                 .aesKeyLen(256 / 8) //32 bytes
                 .aesGcmSaltLen(4) //4 of 12 bytes
                 .aesGcmNonceLen(8) //8 of 12 bytes
+                .symNonceGenerator(CryptoParams.NONCE_RANDOM)
+                .symKeyUsageLimit(CryptoParams.DEFAULT_SYM_KEY_USAGE_LIMIT)
+                .aeadMaxMsgSize(CryptoParams.DEFAULT_AEAD_MAX_MSG_SIZE)
                 .keyAgreementDigester("SHA-256");
         return builder.build();
     }
 
     public static CryptoParams createRSAn(int keylen) {
+        return createRSA(keylen, "RSA/ECB/PKCS1Padding", "", 2);
+    }
+
+    /**
+     * RSA with OAEP encryption and PSS signatures, OAEP and MGF1 use SHA-256
+     * @param keylen key length, 2048 to 16384
+     * @return parameters or null if key length is not supported
+     */
+    public static CryptoParams createRSAOaepPss(int keylen) {
+        return createRSA(keylen, CryptoParams.RSA_OAEP_CIPHER, "/PSS", 2);
+    }
+
+    /**
+     * RSA with OAEP and PSS and multi-prime keys (RFC 8017), private key
+     * operations with k primes are about k^2/4 times faster
+     * @param keylen key length, 2048 to 16384
+     * @param primes number of primes, 3 to ParallelRSAKeyGenerator.maxPrimes(keylen)
+     * @return parameters or null if key length or number of primes is not supported
+     */
+    public static CryptoParams createRSAMultiPrime(int keylen, int primes) {
+        if (primes < 3 || primes > ParallelRSAKeyGenerator.maxPrimes(keylen)) {
+            log.error("Unsupported number of primes: {} for key length: {}", primes, keylen);
+            return null;
+        }
+        return createRSA(keylen, CryptoParams.RSA_OAEP_CIPHER, "/PSS", primes);
+    }
+
+    private static CryptoParams createRSA(int keylen, String iesCipher, String signaturePadding, int primes) {
         if (keylen < 2048 || keylen > 16384) {
             log.error("Unsupported key length: {}", keylen);
             return null;
@@ -118,7 +150,8 @@ public class CryptoConfig {
                 .defaultCurve("")
                 .symCipher("AES/GCM/NoPadding")
                 .asymCipher("AES/GCM/NoPadding")
-                .asymIesCipher("RSA/ECB/PKCS1Padding")
+                .asymIesCipher(iesCipher)
+                .rsaPrimes(primes)
                 .keyDerivationFn("PBKDF2WithHmacSHA256") //produces 256 bit key
                 .pbkdf2Iterations(16)
                 .gcmAuthTagLenBits(128)
@@ -127,15 +160,18 @@ public class CryptoConfig {
                 .aesKeyLen(256 / 8) //32 bytes
                 .aesGcmSaltLen(4) //4 of 12 bytes
                 .aesGcmNonceLen(8) //8 of 12 bytes
+                .symNonceGenerator(CryptoParams.NONCE_RANDOM)
+                .symKeyUsageLimit(CryptoParams.DEFAULT_SYM_KEY_USAGE_LIMIT)
+                .aeadMaxMsgSize(CryptoParams.DEFAULT_AEAD_MAX_MSG_SIZE)
                 .keyAgreementDigester("SHA-256");
         if (keylen == 2048) {
-            builder.baseKeyLen(2048).digester("SHA-256").signatureAlgorythm("SHA256withRSA");
+            builder.baseKeyLen(2048).digester("SHA-256").signatureAlgorythm("SHA256withRSA" + signaturePadding);
         } else if (keylen <= 4096) {
-            builder.baseKeyLen(4096).digester("SHA-384").signatureAlgorythm("SHA384withRSA");
+            builder.baseKeyLen(4096).digester("SHA-384").signatureAlgorythm("SHA384withRSA" + signaturePadding);
         } else if (keylen <= 8192) { // > 4K means 8K
-            builder.baseKeyLen(8192).digester("SHA-512").signatureAlgorythm("SHA512withRSA");
+            builder.baseKeyLen(8192).digester("SHA-512").signatureAlgorythm("SHA512withRSA" + signaturePadding);
         } else if (keylen <= 16384) { // > 8K means 16K
-            builder.baseKeyLen(16384).digester("SHA-512").signatureAlgorythm("SHA512withRSA");
+            builder.baseKeyLen(16384).digester("SHA-512").signatureAlgorythm("SHA512withRSA" + signaturePadding);
         }
         return builder.build();
     }
@@ -158,6 +194,9 @@ public class CryptoConfig {
                 .aesKeyLen(128 / 8) //16 bytes
                 .aesGcmSaltLen(4) //4 of 12 bytes
                 .aesGcmNonceLen(8) //8 of 12 bytes
+                .symNonceGenerator(CryptoParams.NONCE_RANDOM)
+                .symKeyUsageLimit(CryptoParams.DEFAULT_SYM_KEY_USAGE_LIMIT)
+                .aeadMaxMsgSize(CryptoParams.DEFAULT_AEAD_MAX_MSG_SIZE)
                 .keyAgreementDigester("SHA-256");
         return builder.build();
     }
@@ -180,6 +219,103 @@ public class CryptoConfig {
                 .aesKeyLen(128 / 8) //16 bytes
                 .aesGcmSaltLen(4) //4 of 12 bytes
                 .aesGcmNonceLen(8) //8 of 12 bytes
+                .symNonceGenerator(CryptoParams.NONCE_RANDOM)
+                .symKeyUsageLimit(CryptoParams.DEFAULT_SYM_KEY_USAGE_LIMIT)
+                .aeadMaxMsgSize(CryptoParams.DEFAULT_AEAD_MAX_MSG_SIZE)
+                .keyAgreementDigester("SHA-256");
+        return builder.build();
+    }
+
+    /**
+     * prime256v1 with ChaCha20-Poly1305 symmetric cipher, for hosts without
+     * AES hardware acceleration
+     *
+     * @return crypto parameters
+     */
+    public static CryptoParams createPrime256v1ChaCha20Poly1305() {
+        CryptoParams.CryptoParamsBuilder builder = new CryptoParams.CryptoParamsBuilder()
+                .signatureSchema("EC") //EC only for Oracle provider
+                .baseKeyLen(256)
+                .defaultCurve("prime256v1")
+                .symCipher(CryptoParams.SYM_CIPHER_CHACHA20_POLY1305)
+                .asymCipher("AES/GCM/NoPadding")
+                .asymIesCipher("ECIESwithAES-CBC")
+                .digester("SHA-256")
+                .signatureAlgorythm("SHA256withECDSA")
+                .keyDerivationFn("PBKDF2WithHmacSHA256") //produces 256 bit key
+                .pbkdf2Iterations(16)
+                .gcmAuthTagLenBits(128) //Poly1305 tag is always 128 bits
+                .aesIvLen(12) //12 bytes
+                .iesIvLen(16) //16 bytes
+                .aesKeyLen(256 / 8) //32 bytes, the only ChaCha20 key size
+                .aesGcmSaltLen(4) //4 of 12 bytes
+                .aesGcmNonceLen(8) //8 of 12 bytes
+                .symNonceGenerator(CryptoParams.NONCE_RANDOM)
+                .symKeyUsageLimit(CryptoParams.DEFAULT_SYM_KEY_USAGE_LIMIT)
+                .aeadMaxMsgSize(CryptoParams.DEFAULT_AEAD_MAX_MSG_SIZE)
+                .keyAgreementDigester("SHA-256");
+        return builder.build();
+    }
+
+    /**
+     * prime256v1 with AES-GCM-SIV symmetric cipher. Nonce misuse resistant, so
+     * cheap counter nonces are safe even if counter is repeated after restart.
+     *
+     * @return crypto parameters
+     */
+    public static CryptoParams createPrime256v1AesGcmSiv() {
+        CryptoParams.CryptoParamsBuilder builder = new CryptoParams.CryptoParamsBuilder()
+                .signatureSchema("EC") //EC only for Oracle provider
+                .baseKeyLen(256)
+                .defaultCurve("prime256v1")
+                .symCipher(CryptoParams.SYM_CIPHER_AES_GCM_SIV)
+                .asymCipher("AES/GCM/NoPadding")
+                .asymIesCipher("ECIESwithAES-CBC")
+                .digester("SHA-256")
+                .signatureAlgorythm("SHA256withECDSA")
+                .keyDerivationFn("PBKDF2WithHmacSHA256") //produces 256 bit key
+                .pbkdf2Iterations(16)
+                .gcmAuthTagLenBits(128)
+                .aesIvLen(12) //12 bytes
+                .iesIvLen(16) //16 bytes
+                .aesKeyLen(256 / 8) //32 bytes
+                .aesGcmSaltLen(4) //4 of 12 bytes
+                .aesGcmNonceLen(8) //8 of 12 bytes
+                .symNonceGenerator(CryptoParams.NONCE_COUNTER)
+                .symKeyUsageLimit(CryptoParams.DEFAULT_SYM_KEY_USAGE_LIMIT)
+                .aeadMaxMsgSize(CryptoParams.DEFAULT_AEAD_MAX_MSG_SIZE)
+                .keyAgreementDigester("SHA-256");
+        return builder.build();
+    }
+
+    /**
+     * X25519 key agreement with Ed25519 signatures of ephemeral keys, RFC 7748
+     * and RFC 8032. Key pairs of default curve are for key agreement only,
+     * signature keys are generated by KeyGenerator.generateSignatureKeys().
+     * IES is not supported for X25519 keys.
+     *
+     * @return crypto parameters
+     */
+    public static CryptoParams createX25519() {
+        CryptoParams.CryptoParamsBuilder builder = new CryptoParams.CryptoParamsBuilder()
+                .signatureSchema("EC")
+                .baseKeyLen(256)
+                .defaultCurve(CryptoParams.CURVE_X25519)
+                .symCipher("AES/GCM/NoPadding")
+                .asymCipher("AES/GCM/NoPadding")
+                .digester("SHA-256")
+                .signatureAlgorythm("Ed25519")
+                .keyDerivationFn("PBKDF2WithHmacSHA256") //produces 256 bit key
+                .pbkdf2Iterations(16)
+                .gcmAuthTagLenBits(128)
+                .aesIvLen(12) //12 bytes
+                .iesIvLen(16) //16 bytes
+                .aesKeyLen(256 / 8) //32 bytes
+                .aesGcmSaltLen(4) //4 of 12 bytes
+                .aesGcmNonceLen(8) //8 of 12 bytes
+                .symNonceGenerator(CryptoParams.NONCE_RANDOM)
+                .symKeyUsageLimit(CryptoParams.DEFAULT_SYM_KEY_USAGE_LIMIT)
+                .aeadMaxMsgSize(CryptoParams.DEFAULT_AEAD_MAX_MSG_SIZE)
                 .keyAgreementDigester("SHA-256");
         return builder.build();
     }
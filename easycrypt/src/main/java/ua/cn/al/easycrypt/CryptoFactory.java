@@ -16,29 +16,48 @@
 
 package ua.cn.al.easycrypt;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.time.Duration;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
 import javax.crypto.NoSuchPaddingException;
 import lombok.extern.slf4j.Slf4j;
 import ua.cn.al.easycrypt.csr.X509CertOperations;
+import ua.cn.al.easycrypt.dataformat.KemHeader;
+import ua.cn.al.easycrypt.dataformat.SegmentedAEADHeader;
 import ua.cn.al.easycrypt.impl.ecc.KeyGeneratorEC;
 import ua.cn.al.easycrypt.impl.rsa.KeyGeneratorRSA;
 import ua.cn.al.easycrypt.impl.CryptoSignatureImpl;
 import ua.cn.al.easycrypt.impl.ecc.AsymJCEECDHImpl;
+import ua.cn.al.easycrypt.impl.ecc.AsymJCEX25519Impl;
+import ua.cn.al.easycrypt.impl.ecc.ECDHKem;
+import ua.cn.al.easycrypt.impl.ecc.EnvelopeCryptorImpl;
 import ua.cn.al.easycrypt.impl.ecc.ElGamalCryptoImpl;
 import ua.cn.al.easycrypt.impl.ecc.AsymJCEIESImpl;
+import ua.cn.al.easycrypt.impl.AbstractNonceGenerator;
 import ua.cn.al.easycrypt.impl.JCEDigestImpl;
 import ua.cn.al.easycrypt.impl.KeyReaderImpl;
 import ua.cn.al.easycrypt.impl.KeyWriterImpl;
+import ua.cn.al.easycrypt.impl.SymRatchetImpl;
 import ua.cn.al.easycrypt.impl.csr.X509CertOperationsImpl;
 import ua.cn.al.easycrypt.impl.ecc.SymJCEImpl;
+import ua.cn.al.easycrypt.impl.ecc.SymJCESessionImpl;
 import ua.cn.al.easycrypt.impl.rsa.AsymCryptorRSAImpl;
+import ua.cn.al.easycrypt.impl.rsa.ParallelRSAKeyGenerator;
+import ua.cn.al.easycrypt.stream.ParallelFileEncryptor;
+import ua.cn.al.easycrypt.stream.RandomAccessDecryptor;
+import ua.cn.al.easycrypt.stream.SegmentCipher;
+import ua.cn.al.easycrypt.stream.SegmentedCipherInputStream;
+import ua.cn.al.easycrypt.stream.SegmentedCipherOutputStream;
 
 /**
  * Factory that creates configured implementations of Crypto interfaces. These
@@ -84,6 +103,95 @@ public class CryptoFactory {
         return new SymJCEImpl(params);
     }
 
+    /**
+     * Creates thread-safe symmetrical crypto session bound to the key and salt.
+     * One session could be shared by all threads that use the same key.
+     *
+     * @param key 128 or 256 bits key
+     * @param salt 4 bytes of fixed part of IV
+     * @return immutable symmetrical crypto session
+     */
+    public SymCryptorSession getSymCryptorSession(byte[] key, byte[] salt) {
+        return new SymJCESessionImpl(params, key, salt);
+    }
+
+    /**
+     * Thread-safe symmetrical crypto session with prepared key
+     *
+     * @param key key handle, @see getSymKeyHandle(byte[])
+     * @param salt 4 bytes of fixed part of IV
+     * @return immutable symmetrical crypto session
+     * @throws CryptoNotValidException if key is prepared for other cipher or
+     * is destroyed
+     */
+    public SymCryptorSession getSymCryptorSession(SymKeyHandle key, byte[] salt) throws CryptoNotValidException {
+        return new SymJCESessionImpl(params, key, salt, AbstractNonceGenerator.create(params));
+    }
+
+    /**
+     * Creates HKDF key ratchet on top of Diffie-Hellman shared key with
+     * default epoch limits, @see SymRatchet
+     *
+     * @param sharedKey shared key, e.g. from AsymCryptorDH.calculateSharedKey()
+     * or ecdheStep2()
+     * @param ourPublicKey our encoded public key of key agreement
+     * @param theirPublicKey their encoded public key of key agreement
+     * @return key ratchet at epoch 0
+     * @throws CryptoNotValidException
+     */
+    public SymRatchet getSymRatchet(byte[] sharedKey, byte[] ourPublicKey, byte[] theirPublicKey) throws CryptoNotValidException {
+        return getSymRatchet(sharedKey, ourPublicKey, theirPublicKey, SymRatchet.DEFAULT_MAX_MESSAGES, SymRatchet.DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * Creates HKDF key ratchet on top of Diffie-Hellman shared key. Public
+     * keys separate sending and receiving chains of sides.
+     *
+     * @param sharedKey shared key of both sides
+     * @param ourPublicKey our encoded public key of key agreement
+     * @param theirPublicKey their encoded public key of key agreement
+     * @param maxMessages number of messages encrypted with key of one epoch
+     * @param maxAge time after which encryption moves to next epoch
+     * @return key ratchet at epoch 0
+     * @throws CryptoNotValidException
+     */
+    public SymRatchet getSymRatchet(byte[] sharedKey, byte[] ourPublicKey, byte[] theirPublicKey, long maxMessages, Duration maxAge) throws CryptoNotValidException {
+        return new SymRatchetImpl(params, sharedKey, ourPublicKey, theirPublicKey, maxMessages, maxAge);
+    }
+
+    /**
+     * Validates and prepares symmetric key once, so it could be set to many
+     * cryptors and sessions in any threads without re-validation
+     *
+     * @param key raw key bytes, 128 or 256 bits, 256 bits only for ChaCha20
+     * @return immutable key handle, destroy it when the key is not needed
+     */
+    public SymKeyHandle getSymKeyHandle(byte[] key) {
+        return new SymKeyHandle(params, key);
+    }
+
+    /**
+     * Creates thread-safe symmetrical crypto session with explicit nonce generator
+     *
+     * @param key 128 or 256 bits key
+     * @param salt 4 bytes of fixed part of IV
+     * @param nonceGenerator generator of explicit nonce dedicated to this key
+     * @return immutable symmetrical crypto session
+     */
+    public SymCryptorSession getSymCryptorSession(byte[] key, byte[] salt, NonceGenerator nonceGenerator) {
+        return new SymJCESessionImpl(params, key, salt, nonceGenerator);
+    }
+
+    /**
+     * Creates new generator of explicit nonce for one symmetric key as defined
+     * by crypto parameters: random or counter based
+     *
+     * @return nonce generator
+     */
+    public NonceGenerator getNonceGenerator() {
+        return AbstractNonceGenerator.create(params);
+    }
+
     /**
      * Instantiates routines for data encryption data using Elliptic Curves
      * Diffie-Hellman key agreement and agreed AES-128 or AES-256 encryption. It
@@ -96,15 +204,56 @@ public class CryptoFactory {
      *
      */
     public AsymCryptorDH getAsymCryptorDH() {
+        if (params.isXdhCurve()) {
+            return new AsymJCEX25519Impl(params);
+        }
         return new AsymJCEECDHImpl(params);
     }
 
+    /**
+     * Instantiates routines for ECDH encryption that take shared secrets of
+     * static keys from cache, @see getAsymCryptorDH()
+     *
+     * @param sharedKeyCache cache of shared secrets that could be used by many
+     * cryptors
+     * @return instance of crypto routines with agreed parameters
+     */
+    public AsymCryptorDH getAsymCryptorDH(SharedKeyCache sharedKeyCache) {
+        if (params.isXdhCurve()) {
+            return new AsymJCEX25519Impl(params, sharedKeyCache);
+        }
+        return new AsymJCEECDHImpl(params, sharedKeyCache);
+    }
+
+    /**
+     * Instantiates routines for encryption of one message for many recipients:
+     * payload is encrypted once, data key is wrapped for each recipient by
+     * ECDH, @see EnvelopeCryptor
+     *
+     * @return instance of multi-recipient envelope routines
+     */
+    public EnvelopeCryptor getEnvelopeCryptor() {
+        return new EnvelopeCryptorImpl(params);
+    }
+
+    /**
+     * Creates pool of ephemeral key pairs for ECDHE that is refilled in
+     * background, @see AsymCryptorDH#setEphemeralKeyPool. Pool should be
+     * closed when it is not needed anymore.
+     *
+     * @param depth number of key pairs kept ready
+     * @return started pool
+     */
+    public EphemeralKeyPool getEphemeralKeyPool(int depth) {
+        return new EphemeralKeyPool(params, depth);
+    }
+
     /**
      * Creates instance of crypto routines for Integrated Encryption Scheme.
      * Some default ECC IES (see Boucny Caslte library) is used for ECC
      * cryptography. With ECC size of message is not limited. In case of RSA
-     * cryptography default RSA encryption scheme is used. Note, that size of
-     * message is very limited in that case.
+     * cryptography RSA padding of parameters is used, PKCS#1 v1.5 or OAEP.
+     * Note, that size of message is very limited in that case.
      *
      * @return
      */
@@ -168,6 +317,17 @@ public class CryptoFactory {
         return new KeyWriterImpl();
     }
 
+    /**
+     * Creates RSA key generator that searches for primes on all cores, with
+     * progress listener and cancellation, for key length and number of
+     * primes of parameters
+     *
+     * @return parallel RSA key generator
+     */
+    public ParallelRSAKeyGenerator getParallelRSAKeyGenerator() {
+        return new ParallelRSAKeyGenerator(params.getBaseKeyLen(), params.getRsaPrimes());
+    }
+
     /**
      * Creates instance of key generator.
      *
@@ -229,4 +389,121 @@ public class CryptoFactory {
         }
         return new CipherInputStream(source,c);
     }
+
+    /**
+     * Encrypting stream in segmented AEAD format with default segment size.
+     * Unlike CipherOutputStream with GCM, memory usage is bounded by segment
+     * size and each segment is authenticated separately.
+     *
+     * @param sink output stream
+     * @param IV 12 bytes of IV, must be unique for the key
+     * @param key 128 or 256 bits key
+     * @return encrypting stream, must be closed to write last segment
+     * @throws CryptoNotValidException if cipher is not available
+     */
+    public SegmentedCipherOutputStream getSegmentedCipherOutputStream(OutputStream sink, byte[] IV, byte[] key) throws CryptoNotValidException {
+        return getSegmentedCipherOutputStream(sink, IV, key, SegmentedAEADHeader.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Encrypting stream in segmented AEAD format
+     *
+     * @param sink output stream
+     * @param IV 12 bytes of IV, must be unique for the key
+     * @param key 128 or 256 bits key
+     * @param segmentSize size of plain text in one segment
+     * @return encrypting stream, must be closed to write last segment
+     * @throws CryptoNotValidException if cipher is not available
+     */
+    public SegmentedCipherOutputStream getSegmentedCipherOutputStream(OutputStream sink, byte[] IV, byte[] key, int segmentSize) throws CryptoNotValidException {
+        SegmentedAEADHeader header = new SegmentedAEADHeader(segmentSize, params.getGcmAuthTagLenBits() / 8, IV);
+        return new SegmentedCipherOutputStream(sink, new SegmentCipher(params, header, key));
+    }
+
+    /**
+     * Decrypting stream of segmented AEAD format. Header with IV and segment
+     * size is read from the source immediately.
+     *
+     * @param source input stream positioned at the beginning of encrypted stream
+     * @param key 128 or 256 bits key
+     * @return decrypting stream
+     * @throws CryptoNotValidException if cipher is not available
+     * @throws IOException if header can not be read or is not valid
+     */
+    public SegmentedCipherInputStream getSegmentedCipherInputStream(InputStream source, byte[] key) throws CryptoNotValidException, IOException {
+        SegmentedAEADHeader header = SegmentedAEADHeader.readFrom(source, params.getGcmAuthTagLenBits() / 8);
+        return new SegmentedCipherInputStream(source, new SegmentCipher(params, header, key));
+    }
+
+    /**
+     * Public key encrypting stream, KEM-DEM: one ephemeral ECDH derives
+     * content key, then data is encrypted in segmented AEAD format in
+     * constant memory, @see KemHeader
+     *
+     * @param sink output stream
+     * @param recipient public key agreement key of recipient
+     * @return encrypting stream, must be closed to write last segment
+     * @throws CryptoNotValidException if key of recipient is not valid
+     * @throws IOException if header can not be written
+     */
+    public SegmentedCipherOutputStream getKemCipherOutputStream(OutputStream sink, PublicKey recipient) throws CryptoNotValidException, IOException {
+        ECDHKem.Encapsulated enc = new ECDHKem(params).encapsulate(recipient);
+        try {
+            sink.write(enc.getHeader().toBytes());
+            return getSegmentedCipherOutputStream(sink, enc.getIV(), enc.getKey());
+        } finally {
+            enc.zero();
+        }
+    }
+
+    /**
+     * Decrypting stream of public key encrypted stream, @see
+     * getKemCipherOutputStream. Headers are read from the source immediately,
+     * IV of stream must be the one derived from key agreement.
+     *
+     * @param source input stream positioned at the beginning of encrypted stream
+     * @param ourPub our public key
+     * @param ourPriv our private key
+     * @return decrypting stream
+     * @throws CryptoNotValidException if ephemeral key is not valid or stream
+     * IV does not match derived IV
+     * @throws IOException if headers can not be read or are not valid
+     */
+    public SegmentedCipherInputStream getKemCipherInputStream(InputStream source, PublicKey ourPub, PrivateKey ourPriv) throws CryptoNotValidException, IOException {
+        ECDHKem.Encapsulated enc = new ECDHKem(params).decapsulate(KemHeader.readFrom(source), ourPub, ourPriv);
+        try {
+            SegmentedAEADHeader header = SegmentedAEADHeader.readFrom(source, params.getGcmAuthTagLenBits() / 8);
+            if (!MessageDigest.isEqual(enc.getIV(), header.getIV())) {
+                throw new CryptoNotValidException("Stream IV does not match IV derived from key agreement");
+            }
+            return new SegmentedCipherInputStream(source, new SegmentCipher(params, header, enc.getKey()));
+        } finally {
+            enc.zero();
+        }
+    }
+
+    /**
+     * Random access decryptor of file in segmented AEAD format, written by
+     * SegmentedCipherOutputStream with the same key
+     *
+     * @param file encrypted file
+     * @param key 128 or 256 bits key
+     * @return random access decryptor, must be closed
+     * @throws CryptoNotValidException if cipher is not available
+     * @throws IOException if file can not be read or is not valid
+     */
+    public RandomAccessDecryptor getRandomAccessDecryptor(Path file, byte[] key) throws CryptoNotValidException, IOException {
+        return new RandomAccessDecryptor(params, file, key, RandomAccessDecryptor.DEFAULT_CACHE_SEGMENTS);
+    }
+
+    /**
+     * Multi-core encryptor of files to segmented AEAD format with default
+     * segment size
+     *
+     * @param key 128 or 256 bits key
+     * @return parallel file encryptor
+     */
+    public ParallelFileEncryptor getParallelFileEncryptor(byte[] key) {
+        return new ParallelFileEncryptor(params, key, SegmentedAEADHeader.DEFAULT_SEGMENT_SIZE);
+    }
 }
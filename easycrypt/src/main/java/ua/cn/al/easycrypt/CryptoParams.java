@@ -15,6 +15,10 @@
  */
 package ua.cn.al.easycrypt;
 
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
 /**
  * Configuration parameters for all EasyCrypt library
  *
@@ -27,6 +31,49 @@ public class CryptoParams {
 
     public static final int GCM_AUTH_TAG_LEN_BITS = 128; //128 bits
     public static final int AES_IV_LEN = 12; //12 bytes
+    /**
+     * Random explicit nonce for symmetric encryption
+     */
+    public static final String NONCE_RANDOM = "random";
+    /**
+     * Counter based explicit nonce for symmetric encryption, RFC 5116
+     */
+    public static final String NONCE_COUNTER = "counter";
+    /**
+     * Default maximal number of messages encrypted with one symmetric key, 2^32
+     */
+    public static final long DEFAULT_SYM_KEY_USAGE_LIMIT = 1L << 32;
+    /**
+     * Default maximal size of plain and encrypted parts of version 1 AEAD
+     * message, 16 MiB
+     */
+    public static final int DEFAULT_AEAD_MAX_MSG_SIZE = 16 * 1024 * 1024;
+    /**
+     * Montgomery curve for key agreement only, RFC 7748
+     */
+    public static final String CURVE_X25519 = "X25519";
+    /**
+     * Montgomery curve for key agreement only, RFC 7748
+     */
+    public static final String CURVE_X448 = "X448";
+    /**
+     * AES in GCM mode, default symmetric cipher
+     */
+    public static final String SYM_CIPHER_AES_GCM = "AES/GCM/NoPadding";
+    /**
+     * AES in GCM-SIV mode, RFC 8452. Nonce reuse does not break confidentiality
+     * except of revealing equal messages. Provided by BouncyCastle.
+     */
+    public static final String SYM_CIPHER_AES_GCM_SIV = "AES/GCM-SIV/NoPadding";
+    /**
+     * ChaCha20-Poly1305, RFC 8439. Fast without AES hardware acceleration,
+     * 256 bits key only, tag is always 128 bits.
+     */
+    public static final String SYM_CIPHER_CHACHA20_POLY1305 = "ChaCha20-Poly1305";
+    /**
+     * RSA with OAEP padding, RFC 8017. MGF1 uses SHA-256 as well.
+     */
+    public static final String RSA_OAEP_CIPHER = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
 
     protected int baseKeyLen;
     protected String signatureSchema;
@@ -46,11 +93,21 @@ public class CryptoParams {
     protected int symGcmSaltLen;
     protected int symGcmNonceLen;
     protected String keyAgreementDigester;
+    protected String symNonceGenerator;
+    protected long symKeyUsageLimit;
+    protected int aeadMaxMsgSize;
+    protected int rsaPrimes;
 
     protected CryptoParams() {
     }
 
     public CryptoParams(int baseKeyLen, String signatureSchema, String defaultCurve, String symCipher, String asymCipher, String asymIesCipher, String digester, String signatureAlgorythm, String keyDerivationFn, int pbkdf2Iterations, int gcmAuthTagLenBits, int aesIvLen, int iesIvLen, int aesKeyLen, int aesGcmSaltLen, int aesGcmNonceLen, String keyAgreementDigester) {
+        this(baseKeyLen, signatureSchema, defaultCurve, symCipher, asymCipher, asymIesCipher, digester, signatureAlgorythm,
+                keyDerivationFn, pbkdf2Iterations, gcmAuthTagLenBits, aesIvLen, iesIvLen, aesKeyLen, aesGcmSaltLen,
+                aesGcmNonceLen, keyAgreementDigester, NONCE_RANDOM, DEFAULT_SYM_KEY_USAGE_LIMIT);
+    }
+
+    public CryptoParams(int baseKeyLen, String signatureSchema, String defaultCurve, String symCipher, String asymCipher, String asymIesCipher, String digester, String signatureAlgorythm, String keyDerivationFn, int pbkdf2Iterations, int gcmAuthTagLenBits, int aesIvLen, int iesIvLen, int aesKeyLen, int aesGcmSaltLen, int aesGcmNonceLen, String keyAgreementDigester, String symNonceGenerator, long symKeyUsageLimit) {
         this.baseKeyLen = baseKeyLen;
         this.signatureSchema = signatureSchema;
         this.defaultCurve = defaultCurve;
@@ -68,6 +125,8 @@ public class CryptoParams {
         this.symGcmSaltLen = aesGcmSaltLen;
         this.symGcmNonceLen = aesGcmNonceLen;
         this.keyAgreementDigester = keyAgreementDigester;
+        this.symNonceGenerator = symNonceGenerator;
+        this.symKeyUsageLimit = symKeyUsageLimit;
     }
 
     public String getSignatureSchema() {
@@ -82,6 +141,59 @@ public class CryptoParams {
         return symCipher;
     }
 
+    /**
+     * Key algorithm name for symmetric cipher
+     *
+     * @return "ChaCha20" for ChaCha20-Poly1305, "AES" otherwise
+     */
+    public String getSymKeyAlgorithm() {
+        return isChaCha20() ? "ChaCha20" : "AES";
+    }
+
+    /**
+     * Algorithm parameters of symmetric cipher for one message
+     *
+     * @param iv 12 bytes of IV (nonce)
+     * @return parameter spec to init symmetric cipher
+     */
+    public AlgorithmParameterSpec getSymParameterSpec(byte[] iv) {
+        if (isChaCha20()) {
+            return new IvParameterSpec(iv);
+        }
+        return new GCMParameterSpec(gcmAuthTagLenBits, iv);
+    }
+
+    /**
+     * Checks symmetric key length for symmetric cipher
+     *
+     * @param key symmetric key
+     * @throws IllegalArgumentException if key length is not supported
+     */
+    public void checkSymKey(byte[] key) {
+        if (isChaCha20()) {
+            if (key.length != 256 / 8) {
+                throw new IllegalArgumentException("Key length must be exactly 32 bytes long for " + symCipher);
+            }
+        } else if (!((key.length == 128 / 8) || (key.length == 256 / 8))) {
+            throw new IllegalArgumentException("Key length must be exactly 16 or 32 or bytes long");
+        }
+    }
+
+    /**
+     * Default curve is Montgomery curve used by X25519 or X448 key agreement.
+     * Keys of such curves can not sign, Ed25519 or Ed448 keys are used for
+     * signatures.
+     *
+     * @return true for X25519 and X448
+     */
+    public boolean isXdhCurve() {
+        return CURVE_X25519.equals(defaultCurve) || CURVE_X448.equals(defaultCurve);
+    }
+
+    private boolean isChaCha20() {
+        return symCipher != null && symCipher.startsWith("ChaCha20");
+    }
+
     public String getAsymCipher() {
         return asymCipher;
     }
@@ -137,6 +249,40 @@ public class CryptoParams {
     public int getBaseKeyLen(){
         return baseKeyLen;
     }
+
+    /**
+     * Explicit nonce generation method for symmetric encryption
+     * @return NONCE_RANDOM or NONCE_COUNTER, NONCE_RANDOM if not set
+     */
+    public String getSymNonceGenerator() {
+        return symNonceGenerator == null ? NONCE_RANDOM : symNonceGenerator;
+    }
+
+    /**
+     * Maximal number of messages encrypted with one symmetric key
+     * @return usage limit of symmetric key, DEFAULT_SYM_KEY_USAGE_LIMIT if not set
+     */
+    public long getSymKeyUsageLimit() {
+        return symKeyUsageLimit <= 0 ? DEFAULT_SYM_KEY_USAGE_LIMIT : symKeyUsageLimit;
+    }
+
+    /**
+     * Maximal size of plain and encrypted parts of version 1 AEAD message,
+     * protects receiver from DoS by huge declared sizes
+     * @return maximal message size, DEFAULT_AEAD_MAX_MSG_SIZE if not set
+     */
+    public int getAeadMaxMsgSize() {
+        return aeadMaxMsgSize <= 0 ? DEFAULT_AEAD_MAX_MSG_SIZE : aeadMaxMsgSize;
+    }
+
+    /**
+     * Number of primes of generated RSA keys, multi-prime keys (RFC 8017)
+     * make private key operations faster
+     * @return number of RSA primes, 2 if not set
+     */
+    public int getRsaPrimes() {
+        return rsaPrimes < 2 ? 2 : rsaPrimes;
+    }
     
     @Override
     public String toString() {
@@ -157,7 +303,11 @@ public class CryptoParams {
                 "symKeyLen: "+symKeyLen+"\n"+
                 "symGcmSaltLen: "+symGcmSaltLen+"\n"+
                 "symGcmNonceLen: "+symGcmNonceLen+"\n"+
-                "keyAgreementDigester: "+keyAgreementDigester;
+                "keyAgreementDigester: "+keyAgreementDigester+"\n"+
+                "symNonceGenerator: "+getSymNonceGenerator()+"\n"+
+                "symKeyUsageLimit: "+getSymKeyUsageLimit()+"\n"+
+                "aeadMaxMsgSize: "+getAeadMaxMsgSize()+"\n"+
+                "rsaPrimes: "+getRsaPrimes();
         return res;
     }
     
@@ -179,6 +329,10 @@ public class CryptoParams {
         private int aesGcmSaltLen;
         private int aesGcmNonceLen;
         private String keyAgreementDigester;
+        private String symNonceGenerator;
+        private long symKeyUsageLimit;
+        private int aeadMaxMsgSize;
+        private int rsaPrimes;
 
         public CryptoParamsBuilder baseKeyLen(int baseKeyLen) {
             this.baseKeyLen = baseKeyLen;
@@ -265,10 +419,34 @@ public class CryptoParams {
             return this;
         }
 
+        public CryptoParamsBuilder symNonceGenerator(String symNonceGenerator) {
+            this.symNonceGenerator = symNonceGenerator;
+            return this;
+        }
+
+        public CryptoParamsBuilder symKeyUsageLimit(long symKeyUsageLimit) {
+            this.symKeyUsageLimit = symKeyUsageLimit;
+            return this;
+        }
+
+        public CryptoParamsBuilder aeadMaxMsgSize(int aeadMaxMsgSize) {
+            this.aeadMaxMsgSize = aeadMaxMsgSize;
+            return this;
+        }
+
+        public CryptoParamsBuilder rsaPrimes(int rsaPrimes) {
+            this.rsaPrimes = rsaPrimes;
+            return this;
+        }
+
         public CryptoParams build() {
-            return new CryptoParams(baseKeyLen, signatureSchema, defaultCurve, symCipher, asymCipher, asymIesCipher,
+            CryptoParams res = new CryptoParams(baseKeyLen, signatureSchema, defaultCurve, symCipher, asymCipher, asymIesCipher,
                     digester, signatureAlgorythm, keyDerivationFn, pbkdf2Iterations, gcmAuthTagLenBits,
-                    aesIvLen, iesIvLen, aesKeyLen, aesGcmSaltLen, aesGcmNonceLen, keyAgreementDigester);
+                    aesIvLen, iesIvLen, aesKeyLen, aesGcmSaltLen, aesGcmNonceLen, keyAgreementDigester,
+                    symNonceGenerator, symKeyUsageLimit);
+            res.aeadMaxMsgSize = aeadMaxMsgSize;
+            res.rsaPrimes = rsaPrimes;
+            return res;
         }
     }
 
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.List;
+
+/**
+ * Hybrid encryption of one message for many recipients. Payload is encrypted
+ * once by random data key with AEAD symmetric cipher, then only data key is
+ * wrapped for each recipient using ECDH of one ephemeral key with public key
+ * of recipient. So cost of encryption grows with number of recipients by one
+ * key agreement per recipient, not by size of payload. Envelope format is
+ * AEAD message with envelope header as AAD, @see
+ * ua.cn.al.easycrypt.dataformat.EnvelopeHeader. So payload and header
+ * together are limited by CryptoParams#getAeadMaxMsgSize(), 16 MiB by
+ * default, and bigger payload leaves room for less recipients.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public interface EnvelopeCryptor {
+
+    /**
+     * Encrypts message for all recipients
+     *
+     * @param plain plain text
+     * @param recipients public key agreement keys of recipients
+     * @return envelope
+     * @throws CryptoNotValidException if list of recipients is empty, some
+     * key is not valid or envelope would exceed maximal AEAD message size
+     */
+    byte[] encrypt(byte[] plain, List<PublicKey> recipients) throws CryptoNotValidException;
+
+    /**
+     * Decrypts envelope by one of recipients
+     *
+     * @param envelope envelope
+     * @param ourPub our public key, used to find our entry by key ID
+     * @param ourPriv our private key
+     * @return plain text
+     * @throws CryptoNotValidException if envelope is not for this key, is
+     * damaged or modified
+     */
+    byte[] decrypt(byte[] envelope, PublicKey ourPub, PrivateKey ourPriv) throws CryptoNotValidException;
+
+    /**
+     * Key IDs of all recipients of envelope, envelope is not decrypted
+     *
+     * @param envelope envelope
+     * @return key IDs in order of entries
+     * @throws CryptoNotValidException if envelope format is not valid
+     */
+    List<byte[]> getRecipientIds(byte[] envelope) throws CryptoNotValidException;
+
+    /**
+     * Key ID of public key: first bytes of SHA-256 of encoded key
+     *
+     * @param key public key
+     * @return 8 bytes of key ID
+     */
+    byte[] getKeyId(PublicKey key);
+}
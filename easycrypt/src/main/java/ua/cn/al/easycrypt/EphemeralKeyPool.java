@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt;
+
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ua.cn.al.easycrypt.impl.ecc.KeyGeneratorEC;
+
+/**
+ * Pool of pre-generated ephemeral EC key pairs for ECDHE. Background virtual
+ * thread keeps pool topped up to configured depth, so handshake only takes a
+ * ready key pair. If pool is empty key pair is generated in the calling
+ * thread. Each key pair is given out only once. Pool is thread-safe and could
+ * be shared by any number of cryptors of the same curve.
+ * Metrics: hits and misses of take() and refill lag, time from the moment
+ * pool falls below its depth until it is full again. Mark of pool below
+ * depth and full state are changed under one lock with taking and
+ * counting of key pairs, so they are consistent with the queue.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public final class EphemeralKeyPool implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EphemeralKeyPool.class);
+    public static final int DEFAULT_DEPTH = 32;
+    private static final long ERROR_BACKOFF_MS = 1000;
+
+    private final String curve;
+    private final KeyGeneratorEC generator;
+    private final BlockingQueue<KeyPair> keys;
+    private final Thread refiller;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Object lock = new Object();
+    private long belowDepthSince;
+    private boolean full = false;
+    private final AtomicLong lastRefillLag = new AtomicLong();
+    private final AtomicLong maxRefillLag = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * Creates pool and starts refilling thread
+     *
+     * @param params crypto parameters that define curve of key pairs
+     * @param depth number of key pairs kept ready
+     */
+    public EphemeralKeyPool(CryptoParams params, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Pool depth must be positive: " + depth);
+        }
+        this.curve = params.getDefaultCurve();
+        this.generator = new KeyGeneratorEC(params);
+        this.keys = new ArrayBlockingQueue<>(depth);
+        belowDepthSince = System.nanoTime();
+        this.refiller = Thread.ofVirtual().name("ephemeral-key-pool-" + curve).start(this::refill);
+    }
+
+    /**
+     * Takes ready key pair or generates new one if pool is empty
+     *
+     * @return key pair that is not given to anybody else
+     * @throws IllegalStateException if pool is closed
+     */
+    public KeyPair take() {
+        if (closed) {
+            throw new IllegalStateException("Ephemeral key pool is closed");
+        }
+        KeyPair kp;
+        synchronized (lock) {
+            kp = keys.poll();
+            if (belowDepthSince == 0) {
+                belowDepthSince = System.nanoTime();
+            }
+            full = false;
+        }
+        if (kp != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            kp = generator.generateKeys();
+        }
+        return kp;
+    }
+
+    private void refill() {
+        while (!closed) {
+            try {
+                KeyPair kp = generator.generateKeys();
+                if (kp == null) {
+                    log.error("Can not generate ephemeral key pair for curve {}", curve);
+                    Thread.sleep(ERROR_BACKOFF_MS);
+                    continue;
+                }
+                keys.put(kp);
+                synchronized (lock) {
+                    //take() polls under the same lock, so queue is really full
+                    if (keys.remainingCapacity() == 0 && !full) {
+                        if (belowDepthSince != 0) {
+                            long lag = System.nanoTime() - belowDepthSince;
+                            lastRefillLag.set(lag);
+                            maxRefillLag.accumulateAndGet(lag, Math::max);
+                            belowDepthSince = 0;
+                        }
+                        full = true;
+                        lock.notifyAll();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops refilling thread and drops ready key pairs
+     */
+    @Override
+    public void close() {
+        closed = true;
+        refiller.interrupt();
+        synchronized (lock) {
+            keys.clear();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until pool is full and its refill metrics are updated, mostly for
+     * warm-up and tests
+     *
+     * @param timeout maximal time to wait
+     * @param unit time unit
+     * @return true if pool is full
+     * @throws InterruptedException
+     */
+    public boolean awaitFull(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (!full) {
+                long left = deadline - System.nanoTime();
+                if (closed || left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, left);
+            }
+            return true;
+        }
+    }
+
+    public String getCurve() {
+        return curve;
+    }
+
+    public int getAvailable() {
+        return keys.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Refill lag of the last refill cycle
+     *
+     * @return time from the moment pool fell below its depth until it was full
+     * again, in nanoseconds; 0 if pool was never refilled
+     */
+    public long getLastRefillLagNanos() {
+        return lastRefillLag.get();
+    }
+
+    /**
+     * Maximal refill lag since pool creation, @see getLastRefillLagNanos()
+     *
+     * @return maximal refill lag in nanoseconds
+     */
+    public long getMaxRefillLagNanos() {
+        return maxRefillLag.get();
+    }
+
+    /**
+     * Current refill lag
+     *
+     * @return time pool is below its depth now, in nanoseconds; 0 if pool is full
+     */
+    public long getCurrentRefillLagNanos() {
+        synchronized (lock) {
+            return belowDepthSince == 0 ? 0 : System.nanoTime() - belowDepthSince;
+        }
+    }
+}
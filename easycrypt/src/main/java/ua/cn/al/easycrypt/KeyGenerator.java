@@ -68,6 +68,16 @@ public interface KeyGenerator {
      * @throws ua.cn.al.easycrypt.CryptoNotValidException
      */
     KeyPair generateKeys(String secretPhrase, byte[] salt) throws CryptoNotValidException;
+
+    /**
+     * Generate key pair for signatures. It is the same as generateKeys() except
+     * of X25519 and X448 curves that can not sign, Ed25519 or Ed448 key pair
+     * is generated for them.
+     *
+     * @return Generated random key pair
+     */
+    KeyPair generateSignatureKeys();
+
     /**
      * Generate symmetric key of required lenght usinh secure random 
      * @return symmetric key
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt;
+
+/**
+ * Generator of explicit nonce (variable part of GCM IV) for messages encrypted
+ * with one key. Generator counts invocations and refuses to produce nonce
+ * when usage limit for the key is reached, so key must be rotated.
+ * Implementations are thread-safe.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ * REFERENCES: [1] https://tools.ietf.org/html/rfc5116 An Interface and
+ * Algorithms for Authenticated Encryption, section 3.2 Recommended Nonce
+ * Formation [2] NIST SP 800-38D, section 8 Uniqueness Requirement on IVs and Keys
+ */
+public interface NonceGenerator {
+
+    /**
+     * Writes next explicit nonce into buffer
+     *
+     * @param buf buffer, usually IV with salt in first 4 bytes
+     * @param offset offset of explicit nonce in buffer
+     * @throws CryptoNotValidException if usage limit of the key is reached
+     */
+    void nextNonce(byte[] buf, int offset) throws CryptoNotValidException;
+
+    /**
+     * Generates next explicit nonce
+     *
+     * @return 8 bytes of explicit nonce
+     * @throws CryptoNotValidException if usage limit of the key is reached
+     */
+    byte[] nextNonce() throws CryptoNotValidException;
+
+    /**
+     * Number of nonces generated since creation or last reset
+     *
+     * @return number of nonces generated for current key
+     */
+    long getUsageCount();
+
+    /**
+     * Maximal number of nonces that could be generated for one key
+     *
+     * @return usage limit
+     */
+    long getUsageLimit();
+
+    /**
+     * Tells that key is close to its usage limit and should be rotated
+     *
+     * @return true if 3/4 of usage limit is consumed
+     */
+    boolean isRotationRequired();
+
+    /**
+     * Starts new sequence of nonces. Should be called when key changes
+     */
+    void reset();
+}
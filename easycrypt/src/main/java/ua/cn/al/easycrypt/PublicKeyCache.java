@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of decoded public keys. Decoding of X509 encoded EC key
+ * includes point decompression and on-curve validation, so keys of peers that
+ * come again and again are decoded once. Entry is keyed by hash of key
+ * algorithm and encoded key, only successfully decoded and validated keys are
+ * cached. Entries are evicted in LRU order when cache is full. Cache is
+ * thread-safe, default instance is shared by key reader, key generator and DH
+ * cryptors.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public final class PublicKeyCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static final String FINGERPRINT_DIGEST = "SHA-256";
+    private static final PublicKeyCache DEFAULT = new PublicKeyCache(DEFAULT_MAX_ENTRIES);
+
+    private final int maxEntries;
+    private final LinkedHashMap<ByteBuffer, PublicKey> entries;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Creates cache
+     *
+     * @param maxEntries maximal number of cached keys
+     */
+    public PublicKeyCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, PublicKey> eldest) {
+                return size() > PublicKeyCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Shared cache used by library
+     *
+     * @return default cache instance
+     */
+    public static PublicKeyCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns cached public key or decodes and caches it. Decoding is done
+     * outside of lock.
+     *
+     * @param algorithm KeyFactory algorithm, e.g. "ECDSA" or "X25519"
+     * @param encoded X509 encoded public key
+     * @return decoded public key
+     * @throws NoSuchAlgorithmException if algorithm is not supported
+     * @throws InvalidKeySpecException if key is not valid, e.g. point is not
+     * on curve
+     */
+    public PublicKey getPublicKey(String algorithm, byte[] encoded) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        ByteBuffer fp = fingerprint(algorithm, encoded);
+        synchronized (this) {
+            PublicKey key = entries.get(fp);
+            if (key != null) {
+                hits++;
+                return key;
+            }
+            misses++;
+        }
+        KeyFactory kf = KeyFactory.getInstance(algorithm, CryptoConfig.getProvider());
+        PublicKey key = kf.generatePublic(new X509EncodedKeySpec(encoded));
+        synchronized (this) {
+            entries.put(fp, key);
+        }
+        return key;
+    }
+
+    /**
+     * Removes all entries, statistics is kept
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Share of lookups served from cache
+     *
+     * @return hit rate from 0 to 1, 0 if there were no lookups
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    private static ByteBuffer fingerprint(String algorithm, byte[] encoded) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance(FINGERPRINT_DIGEST);
+        byte[] alg = algorithm.getBytes(StandardCharsets.UTF_8);
+        md.update(ByteBuffer.allocate(Integer.BYTES).putInt(alg.length).array());
+        md.update(alg);
+        md.update(encoded);
+        return ByteBuffer.wrap(md.digest());
+    }
+}
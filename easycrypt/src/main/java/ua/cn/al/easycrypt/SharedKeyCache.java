@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of Diffie-Hellman shared secrets, opt-in for DH cryptors that
+ * are created again and again for the same pair of keys. Entry is keyed by
+ * fingerprint of our key pair and their public key, so secret could not be
+ * taken from cache without our private key. Fingerprint of our key pair is
+ * calculated once per cryptor, see {@link #fingerprint}. Cache is split into
+ * stripes locked separately, entries are evicted in LRU order of their stripe
+ * when stripe is full and when time to live is over, secret bytes are zeroed
+ * on eviction. Cache is thread-safe and could be shared by any number of
+ * cryptors.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public final class SharedKeyCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+    private static final String FINGERPRINT_DIGEST = "SHA-256";
+    private static final int MAX_STRIPES = 16;
+
+    /**
+     * Calculation of shared secret on cache miss
+     */
+    @FunctionalInterface
+    public interface SecretCalculator {
+
+        byte[] calculate() throws NoSuchAlgorithmException, InvalidKeyException;
+    }
+
+    private final long ttlNanos;
+    private final Stripe[] stripes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates cache with default size and time to live
+     */
+    public SharedKeyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+    }
+
+    /**
+     * Creates cache
+     *
+     * @param maxEntries maximal number of cached secrets
+     * @param ttl time to live of cached secret
+     */
+    public SharedKeyCache(int maxEntries, Duration ttl) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxEntries);
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Time to live must be positive: " + ttl);
+        }
+        this.ttlNanos = ttl.toNanos();
+        //power of 2 not above maxEntries, so stripes never hold more than maxEntries
+        int n = Integer.highestOneBit(Math.min(maxEntries, MAX_STRIPES));
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe(maxEntries / n);
+        }
+    }
+
+    /**
+     * Fingerprint of our key pair, calculate it once and pass to
+     * {@link #getOrCalculate(byte[], PublicKey, SecretCalculator)}
+     *
+     * @param scheme name of key agreement scheme, secrets of different schemes
+     * are cached separately
+     * @param ourPriv our private key
+     * @param ourPub our public key
+     * @return fingerprint or null if private key has no encoded form (e.g.
+     * key kept in hardware), such keys are never cached
+     * @throws NoSuchAlgorithmException
+     */
+    public static byte[] fingerprint(String scheme, PrivateKey ourPriv, PublicKey ourPub) throws NoSuchAlgorithmException {
+        byte[] priv = ourPriv.getEncoded();
+        if (priv == null) {
+            return null;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance(FINGERPRINT_DIGEST);
+            update(md, scheme.getBytes(StandardCharsets.UTF_8));
+            update(md, priv);
+            update(md, ourPub.getEncoded());
+            return md.digest();
+        } finally {
+            Arrays.fill(priv, (byte) 0);
+        }
+    }
+
+    /**
+     * Returns cached shared secret or calculates and caches it. Fingerprint
+     * of our keys is calculated on each call, use
+     * {@link #getOrCalculate(byte[], PublicKey, SecretCalculator)} when keys
+     * are used many times.
+     *
+     * @param scheme name of key agreement scheme, secrets of different schemes
+     * are cached separately
+     * @param ourPriv our private key
+     * @param ourPub our public key
+     * @param theirPub their public key
+     * @param calculator calculates secret on cache miss
+     * @return copy of shared secret
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeyException
+     */
+    public byte[] getOrCalculate(String scheme, PrivateKey ourPriv, PublicKey ourPub, PublicKey theirPub,
+            SecretCalculator calculator) throws NoSuchAlgorithmException, InvalidKeyException {
+        return getOrCalculate(fingerprint(scheme, ourPriv, ourPub), theirPub, calculator);
+    }
+
+    /**
+     * Returns cached shared secret or calculates and caches it. Calculation
+     * is done outside of lock.
+     *
+     * @param ourFingerprint fingerprint of our keys from {@link #fingerprint},
+     * null disables caching
+     * @param theirPub their public key
+     * @param calculator calculates secret on cache miss
+     * @return copy of shared secret
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeyException
+     */
+    public byte[] getOrCalculate(byte[] ourFingerprint, PublicKey theirPub, SecretCalculator calculator)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        byte[] theirEncoded = ourFingerprint == null ? null : theirPub.getEncoded();
+        if (theirEncoded == null) {
+            return calculator.calculate();
+        }
+        Key key = new Key(ourFingerprint, theirEncoded);
+        Stripe stripe = stripes[key.hash & (stripes.length - 1)];
+        long now = System.nanoTime();
+        synchronized (stripe) {
+            Entry e = stripe.get(key);
+            if (e != null && now - e.created < ttlNanos) {
+                hits.increment();
+                return e.secret.clone();
+            }
+            if (e != null) {
+                stripe.remove(key);
+                e.zero();
+            }
+        }
+        misses.increment();
+        byte[] secret = calculator.calculate();
+        synchronized (stripe) {
+            Entry old = stripe.put(key, new Entry(secret.clone(), now));
+            if (old != null) {
+                old.zero();
+            }
+        }
+        return secret;
+    }
+
+    /**
+     * Removes and zeroes entries with expired time to live. Expired entries
+     * are also removed on access, so this method is only needed to free memory
+     * of entries that are not accessed anymore.
+     *
+     * @return number of removed entries
+     */
+    public int purgeExpired() {
+        long now = System.nanoTime();
+        int n = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Iterator<Entry> it = stripe.values().iterator(); it.hasNext();) {
+                    Entry e = it.next();
+                    if (now - e.created >= ttlNanos) {
+                        e.zero();
+                        it.remove();
+                        n++;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Removes and zeroes all entries
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Entry e : stripe.values()) {
+                    e.zero();
+                }
+                stripe.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int n = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                n += stripe.size();
+            }
+        }
+        return n;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static void update(MessageDigest md, byte[] data) {
+        md.update(ByteBuffer.allocate(Integer.BYTES).putInt(data.length).array());
+        md.update(data);
+    }
+
+    /**
+     * LRU map of one stripe, guarded by its own monitor
+     */
+    private static final class Stripe extends LinkedHashMap<Key, Entry> {
+
+        private final int maxEntries;
+
+        Stripe(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() > maxEntries) {
+                eldest.getValue().zero();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class Key {
+
+        private final byte[] ourFingerprint;
+        private final byte[] theirEncoded;
+        private final int hash;
+
+        Key(byte[] ourFingerprint, byte[] theirEncoded) {
+            this.ourFingerprint = ourFingerprint;
+            this.theirEncoded = theirEncoded;
+            int h = 31 * Arrays.hashCode(ourFingerprint) + Arrays.hashCode(theirEncoded);
+            this.hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && hash == k.hash
+                    && Arrays.equals(ourFingerprint, k.ourFingerprint)
+                    && Arrays.equals(theirEncoded, k.theirEncoded);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+
+        private final byte[] secret;
+        private final long created;
+
+        Entry(byte[] secret, long created) {
+            this.secret = secret;
+            this.created = created;
+        }
+
+        void zero() {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+}
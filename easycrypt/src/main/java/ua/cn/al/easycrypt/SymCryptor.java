@@ -16,7 +16,10 @@
 
 package ua.cn.al.easycrypt;
 
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
 
@@ -60,6 +63,18 @@ public interface SymCryptor extends Cryptor {
      */
     void setIV(byte[] IV);
 
+    /**
+     * Set prepared key for symmetric cipher. Handle is not copied, so the same
+     * handle could be set to many cryptors. Destroying of handle makes this
+     * cryptor fail on next message.
+     *
+     * @param key key handle prepared for the same symmetric cipher, @see
+     * CryptoFactory#getSymKeyHandle(byte[])
+     * @throws CryptoNotValidException if key is prepared for other cipher or
+     * is destroyed
+     */
+    void setKey(SymKeyHandle key) throws CryptoNotValidException;
+
     /**
      * 12 bytes of salt + nounce
      *
@@ -78,11 +93,27 @@ public interface SymCryptor extends Cryptor {
      * set 8 bits of variable part of GCM IV
      *
      * @param explicit_nonce 8 bit array of nounce if explicit_nounce is null
-     * random value is generated
-     * @throws ua.cn.al.easycrypt.CryptoNotValidException
+     * next value is taken from nonce generator, @see setNonceGenerator
+     * @throws ua.cn.al.easycrypt.CryptoNotValidException if nonce is reused or
+     * usage limit of the key is reached
      */
     void setNonce(byte[] explicit_nonce) throws CryptoNotValidException;
 
+    /**
+     * Set generator of explicit nonce used by setNonce(null). By default generator
+     * is defined by CryptoParams. Generator is reset when key changes.
+     *
+     * @param generator nonce generator
+     */
+    void setNonceGenerator(NonceGenerator generator);
+
+    /**
+     * Nonce generator in use, could be used to check if key should be rotated
+     *
+     * @return nonce generator
+     */
+    NonceGenerator getNonceGenerator();
+
     /**
      * get 8 bytes of variable part of GCM IV
      *
@@ -110,4 +141,165 @@ public interface SymCryptor extends Cryptor {
      * @return ready to use cipher
      */
     public Cipher getCipher(int mode)throws NoSuchAlgorithmException, NoSuchPaddingException;
+
+    /**
+     * Size of encrypted message produced by encrypt methods for given plain text
+     * length: IV prefix, encrypted data and authentication tag
+     *
+     * @param plainLen length of plain text in bytes
+     * @return size of output buffer required by encrypt
+     */
+    int getEncryptedSize(int plainLen);
+
+    /**
+     * Size of plain text that decrypt methods produce from encrypted message of given length
+     *
+     * @param cipheredLen length of encrypted message including IV prefix and authentication tag
+     * @return size of output buffer required by decrypt
+     */
+    int getDecryptedSize(int cipheredLen);
+
+    /**
+     * Encrypt message writing IV prefix and encrypted data directly into
+     * destination buffer, same format as encrypt(byte[]) produces. Direct buffers
+     * are supported.
+     *
+     * @param src plain text between position and limit, position is moved to limit
+     * @param dst destination buffer with at least getEncryptedSize(src.remaining())
+     * bytes remaining, position is moved past written data
+     * @return number of bytes written to dst
+     * @throws CryptoNotValidException
+     */
+    int encrypt(ByteBuffer src, ByteBuffer dst) throws CryptoNotValidException;
+
+    /**
+     * Decrypt message in format produced by encrypt methods writing plain text
+     * directly into destination buffer. Direct buffers are supported.
+     *
+     * @param src encrypted message prefixed with 12 bytes of IV between position and limit
+     * @param dst destination buffer with at least getDecryptedSize(src.remaining())
+     * bytes remaining, position is moved past written data
+     * @return number of bytes written to dst
+     * @throws CryptoNotValidException
+     */
+    int decrypt(ByteBuffer src, ByteBuffer dst) throws CryptoNotValidException;
+
+    /**
+     * Encrypt part of array into part of output array, @see encrypt(ByteBuffer, ByteBuffer)
+     *
+     * @param in input array
+     * @param off offset of plain text in input
+     * @param len length of plain text
+     * @param out output array with at least getEncryptedSize(len) bytes after outOff
+     * @param outOff offset in output
+     * @return number of bytes written to output
+     * @throws CryptoNotValidException
+     */
+    int encrypt(byte[] in, int off, int len, byte[] out, int outOff) throws CryptoNotValidException;
+
+    /**
+     * Decrypt part of array into part of output array, @see decrypt(ByteBuffer, ByteBuffer)
+     *
+     * @param in input array
+     * @param off offset of encrypted message in input
+     * @param len length of encrypted message
+     * @param out output array with at least getDecryptedSize(len) bytes after outOff
+     * @param outOff offset in output
+     * @return number of bytes written to output
+     * @throws CryptoNotValidException
+     */
+    int decrypt(byte[] in, int off, int len, byte[] out, int outOff) throws CryptoNotValidException;
+
+    /**
+     * Decrypt message in place: plain text overwrites beginning of the encrypted
+     * message, so no output buffer is allocated. Plain text is always shorter
+     * than encrypted message because of IV prefix and authentication tag.
+     * Content of the buffer is not defined if decryption fails.
+     *
+     * @param buf buffer with encrypted message prefixed with 12 bytes of IV
+     * @param off offset of encrypted message, plain text is written at the same offset
+     * @param len length of encrypted message
+     * @return length of plain text
+     * @throws CryptoNotValidException
+     */
+    int decryptInPlace(byte[] buf, int off, int len) throws CryptoNotValidException;
+
+    /**
+     * Size of message in AEADCiphered format produced by encryptWithAEAData
+     *
+     * @param plainLen length of plain text
+     * @param aadLen length of authenticated open data
+     * @return size of output buffer required by encryptWithAEAData
+     */
+    int getAEADEncryptedSize(int plainLen, int aadLen);
+
+    /**
+     * Encrypt plain text gathered from several buffers with AAD gathered from
+     * several buffers, so parts of message need not be concatenated first.
+     * Output is in AEADCiphered format, the same as encryptWithAEAData(byte[], byte[])
+     * produces, and is written directly to destination buffer.
+     *
+     * @param plain parts of plain text between position and limit, positions are moved to limits
+     * @param aad parts of authenticated open data or null, positions are moved to limits
+     * @param dst destination buffer with at least getAEADEncryptedSize bytes
+     * remaining, must not overlap input, position is moved past written data
+     * @return number of bytes written to dst
+     * @throws CryptoNotValidException
+     */
+    int encryptWithAEAData(ByteBuffer[] plain, ByteBuffer[] aad, ByteBuffer dst) throws CryptoNotValidException;
+
+    /**
+     * Decrypt message in AEADCiphered format scattering plain text to several
+     * buffers in order. AAD could be read without copying with AEADCipheredView.
+     *
+     * @param message encrypted message starting at position, position is moved past message
+     * @param dst destination buffers, each is filled up to its limit before next one is used
+     * @return length of plain text
+     * @throws CryptoNotValidException
+     */
+    int decryptWithAEAData(ByteBuffer message, ByteBuffer[] dst) throws CryptoNotValidException;
+
+    /**
+     * Encrypt many independent messages with AAD using current key and salt.
+     * Each message gets its own nonce from nonce generator. Output of each item
+     * is in AEADCiphered format. Large batches are processed in parallel in
+     * common ForkJoinPool.
+     *
+     * @param plains plain texts, null elements are reported as item errors
+     * @param aads authenticated open data for each plain text, list or its
+     * elements could be null
+     * @return encrypted messages in input order with per-item errors
+     */
+    BatchResult encryptBatch(List<byte[]> plains, List<byte[]> aads);
+
+    /**
+     * Encrypt many independent messages, @see encryptBatch(List, List)
+     *
+     * @param plains plain texts
+     * @param aads authenticated open data for each plain text or null
+     * @param pool pool for parallel processing or null for processing in
+     * calling thread
+     * @return encrypted messages in input order with per-item errors
+     */
+    BatchResult encryptBatch(List<byte[]> plains, List<byte[]> aads, ForkJoinPool pool);
+
+    /**
+     * Decrypt many AEADCiphered messages encrypted with current key and salt.
+     * Large batches are processed in parallel in common ForkJoinPool.
+     *
+     * @param messages messages in AEADCiphered format, null elements are
+     * reported as item errors
+     * @return decrypted data in input order with per-item errors
+     */
+    BatchResult decryptBatch(List<byte[]> messages);
+
+    /**
+     * Decrypt many AEADCiphered messages, @see decryptBatch(List)
+     *
+     * @param messages messages in AEADCiphered format
+     * @param pool pool for parallel processing or null for processing in
+     * calling thread
+     * @return decrypted data in input order with per-item errors
+     */
+    BatchResult decryptBatch(List<byte[]> messages, ForkJoinPool pool);
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Immutable symmetric encryption session bound to one key and salt (fixed part
+ * of GCM IV). Unlike SymCryptor it has no mutable IV state: explicit nonce is
+ * generated for each message and travels with the message. So one session can
+ * be shared by any number of threads, including virtual threads.
+ * Messages are compatible with SymCryptor that has the same key and salt and
+ * does not put salt in message.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public interface SymCryptorSession extends Cryptor {
+
+    /**
+     * get 4 bytes of salt (fixed part of IV) of this session
+     *
+     * @return copy of salt bytes
+     */
+    byte[] getSalt();
+
+    /**
+     * Nonce generator of this session, could be used to check if key should
+     * be rotated. When usage limit is reached, encryption fails.
+     *
+     * @return nonce generator
+     */
+    NonceGenerator getNonceGenerator();
+
+    /**
+     * Size of encrypted message for given plain text length
+     *
+     * @param plainLen length of plain text in bytes
+     * @return size of output buffer required by encrypt
+     */
+    int getEncryptedSize(int plainLen);
+
+    /**
+     * Size of plain text for encrypted message of given length
+     *
+     * @param cipheredLen length of encrypted message including IV prefix and authentication tag
+     * @return size of output buffer required by decrypt
+     */
+    int getDecryptedSize(int cipheredLen);
+
+    /**
+     * Encrypt message directly into destination buffer, @see SymCryptor#encrypt(ByteBuffer, ByteBuffer)
+     *
+     * @param src plain text between position and limit
+     * @param dst destination buffer with at least getEncryptedSize(src.remaining()) bytes remaining
+     * @return number of bytes written to dst
+     * @throws CryptoNotValidException
+     */
+    int encrypt(ByteBuffer src, ByteBuffer dst) throws CryptoNotValidException;
+
+    /**
+     * Decrypt message directly into destination buffer, @see SymCryptor#decrypt(ByteBuffer, ByteBuffer)
+     *
+     * @param src encrypted message prefixed with 12 bytes of IV between position and limit
+     * @param dst destination buffer with at least getDecryptedSize(src.remaining()) bytes remaining
+     * @return number of bytes written to dst
+     * @throws CryptoNotValidException
+     */
+    int decrypt(ByteBuffer src, ByteBuffer dst) throws CryptoNotValidException;
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import javax.crypto.SecretKey;
+import javax.security.auth.Destroyable;
+
+/**
+ * Validated symmetric key prepared once for symmetric cipher of CryptoParams.
+ * Handle is immutable and thread-safe, so it could be passed to any number of
+ * SymCryptor and SymCryptorSession instances without validation and wrapping
+ * of raw key bytes again. Key bytes are kept in one place only and are zeroed
+ * by destroy(), after that handle can not be used.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public final class SymKeyHandle implements Destroyable {
+
+    private final String symCipher;
+    private final HandleKey secretKey;
+
+    /**
+     * Validates and prepares key, use CryptoFactory.getSymKeyHandle()
+     *
+     * @param params crypto parameters that define symmetric cipher
+     * @param key raw key bytes, copied
+     * @throws IllegalArgumentException if key length is not supported by cipher
+     */
+    public SymKeyHandle(CryptoParams params, byte[] key) {
+        params.checkSymKey(key);
+        this.symCipher = params.getSymCipher();
+        this.secretKey = new HandleKey(params.getSymKeyAlgorithm(), key.clone());
+    }
+
+    /**
+     * Key for JCE cipher init. The same instance is returned each time.
+     *
+     * @return secret key
+     * @throws IllegalStateException if handle is destroyed
+     */
+    public SecretKey getSecretKey() {
+        if (secretKey.isDestroyed()) {
+            throw new IllegalStateException("Symmetric key is destroyed");
+        }
+        return secretKey;
+    }
+
+    /**
+     * Symmetric cipher this key is validated for
+     *
+     * @return cipher transformation name
+     */
+    public String getSymCipher() {
+        return symCipher;
+    }
+
+    /**
+     * Key length
+     *
+     * @return key length in bytes
+     */
+    public int getLength() {
+        return secretKey.key.length;
+    }
+
+    /**
+     * Constant time comparison of keys without copying key bytes
+     *
+     * @param other other key handle
+     * @return true if both handles hold the same key
+     */
+    public boolean sameKey(SymKeyHandle other) {
+        return this == other || MessageDigest.isEqual(secretKey.key, other.secretKey.key);
+    }
+
+    /**
+     * Zeroes key bytes. Cryptors that use this handle fail on next message.
+     */
+    @Override
+    public void destroy() {
+        secretKey.destroy();
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return secretKey.isDestroyed();
+    }
+
+    /**
+     * Raw secret key that can be zeroed, unlike SecretKeySpec. SecretKey is
+     * Serializable, but raw key must not leave the handle this way.
+     */
+    private static final class HandleKey implements SecretKey {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String algorithm;
+        private final byte[] key;
+        private volatile boolean destroyed = false;
+
+        HandleKey(String algorithm, byte[] key) {
+            this.algorithm = algorithm;
+            this.key = key;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            if (destroyed) {
+                throw new IllegalStateException("Symmetric key is destroyed");
+            }
+            return key.clone();
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+            Arrays.fill(key, (byte) 0);
+        }
+
+        @Override
+        public boolean isDestroyed() {
+            return destroyed;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            throw new NotSerializableException("Symmetric key handle can not be serialized");
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException {
+            throw new NotSerializableException("Symmetric key handle can not be serialized");
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt;
+
+import java.time.Duration;
+import javax.security.auth.Destroyable;
+
+/**
+ * Symmetric key ratchet on top of Diffie-Hellman shared key. Chain key is
+ * advanced by HKDF after configured number of messages or time, and each
+ * epoch of chain gives new symmetric key, so re-keying costs a few hashes
+ * instead of new ECDHE. Previous chain keys are erased, keys of messages
+ * that are already sent could not be derived from current state.
+ * Each direction has its own chain, sides are distinguished by their public
+ * keys, so message reflected back to its sender is rejected.
+ * Message is prefixed by 4 bytes of epoch number, both sides follow the
+ * greatest epoch they have seen. Messages of a few previous epochs are still
+ * accepted, so messages in flight survive re-keying.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ * REFERENCES: [1] https://tools.ietf.org/html/rfc5869 HMAC-based
+ * Extract-and-Expand Key Derivation Function (HKDF) [2]
+ * https://signal.org/docs/specifications/doubleratchet/ symmetric-key ratchet
+ */
+public interface SymRatchet extends Cryptor, Destroyable {
+
+    long DEFAULT_MAX_MESSAGES = 1L << 20;
+    Duration DEFAULT_MAX_AGE = Duration.ofHours(1);
+    /**
+     * Number of epochs before current one that are accepted by decryption
+     */
+    int RETAINED_EPOCHS = 2;
+    /**
+     * Maximal number of epochs decryption could advance at once
+     */
+    int MAX_EPOCH_SKIP = 1024;
+    int EPOCH_HEADER_LEN = Integer.BYTES;
+
+    /**
+     * Current epoch
+     *
+     * @return epoch number, starts with 0
+     */
+    int getEpoch();
+
+    /**
+     * Advance to next epoch now, regardless of message count and time
+     *
+     * @throws CryptoNotValidException if epoch counter is exhausted
+     */
+    void advance() throws CryptoNotValidException;
+}
@@ -16,6 +16,7 @@
 
 package ua.cn.al.easycrypt.dataformat;
 
+import ua.cn.al.easycrypt.CryptoNotValidException;
 import ua.cn.al.easycrypt.CryptoParams;
 
 import java.nio.ByteBuffer;
@@ -31,6 +32,14 @@ import java.util.Arrays;
  *    unencrypted data (variable len), 
  *    encrypted data in the rest of message including
  *    last 16 bytes (128 bits) of hmac 
+ * Version 1 format for large messages:
+ *    IV  (12 bytes),
+ *    marker 0xFF (1 byte), never set in version 0 where it is high byte of length,
+ *    version (1 byte),
+ *    unencryped data lenght (varint, 1-5 bytes),
+ *    ecnrypted data lenght (varint, 1-5 bytes),
+ *    unencrypted data, encrypted data as in version 0.
+ * Version 1 is limited by configurable maximal message size only.
  * @author Oleksiy Lukin alukin@gmail.com
  */
 public class AEADCiphered {
@@ -38,6 +47,19 @@ public class AEADCiphered {
      * Maximal size of plain and encrypted parts in sum to prevent DoS attacks
      */
     public static final int MAX_MSG_SIZE = 65536;
+    /**
+     * Fixed 4 bytes lengths, limited by MAX_MSG_SIZE
+     */
+    public static final int VERSION_0 = 0;
+    /**
+     * Varint lengths, limited by CryptoParams.getAeadMaxMsgSize()
+     */
+    public static final int VERSION_1 = 1;
+    public static final byte VERSIONED_MARKER = (byte) 0xFF;
+    /**
+     * Version 0 if message fits MAX_MSG_SIZE, version 1 otherwise
+     */
+    public static final int VERSION_AUTO = -1;
 
     public byte[] aatext = new byte[0];
     public byte[] encrypted;
@@ -46,6 +68,7 @@ public class AEADCiphered {
     private final byte[] iv; //12 bytes = 4 of salt + 8 of nonce
 
     private final CryptoParams cryptoParams;
+    private int version = VERSION_AUTO;
 
     public AEADCiphered(CryptoParams cryptoParams) {
         this.cryptoParams = cryptoParams;
@@ -85,16 +108,116 @@ public class AEADCiphered {
       return Arrays.copyOfRange(encrypted, encrypted.length - hmacSize -1,encrypted.length-1);
     }
     
+    /**
+     * Format version used by toBytes() and writeTo()
+     * @param version VERSION_0, VERSION_1 or VERSION_AUTO
+     */
+    public void setVersion(int version){
+        if(version != VERSION_0 && version != VERSION_1 && version != VERSION_AUTO){
+            throw new IllegalArgumentException("Unsupported version: " + version);
+        }
+        this.version = version;
+    }
+
+    /**
+     * Format version of serialized message
+     * @return VERSION_0 or VERSION_1
+     */
+    public int getVersion(){
+        if(version != VERSION_AUTO){
+            return version;
+        }
+        return autoVersion(aatext.length, encrypted.length);
+    }
+
+    /**
+     * Version for message with given sizes: 0 if it fits MAX_MSG_SIZE, 1 otherwise
+     * @param txtlen unencrypted data length
+     * @param enclen encrypted data length
+     * @return VERSION_0 or VERSION_1
+     */
+    public static int autoVersion(int txtlen, int enclen){
+        return (long) txtlen + enclen > MAX_MSG_SIZE ? VERSION_1 : VERSION_0;
+    }
+
+    /**
+     * Checks that message of given sizes is not bigger than receiver with the
+     * same crypto parameters accepts, @see CryptoParams#getAeadMaxMsgSize()
+     * @param txtlen unencrypted data length
+     * @param enclen encrypted data length
+     * @param cryptoParams crypto parameters
+     * @throws CryptoNotValidException if message is too big
+     */
+    public static void checkSize(long txtlen, long enclen, CryptoParams cryptoParams) throws CryptoNotValidException {
+        long size = txtlen + enclen;
+        //version 0 messages are accepted up to MAX_MSG_SIZE anyway
+        if(size > MAX_MSG_SIZE && size > cryptoParams.getAeadMaxMsgSize()){
+            throw new CryptoNotValidException("Message is too big: " + size + ", maximal size is " + cryptoParams.getAeadMaxMsgSize());
+        }
+    }
+
+    /**
+     * Size of header part that follows IV
+     * @param version VERSION_0 or VERSION_1
+     * @param txtlen unencrypted data length
+     * @param enclen encrypted data length
+     * @return size in bytes
+     */
+    public static int lengthsSize(int version, int txtlen, int enclen){
+        return version == VERSION_1 ? 2 + VarInt.size(txtlen) + VarInt.size(enclen) : 4 + 4;
+    }
+
+    /**
+     * Writes header part that follows IV
+     * @param dst destination buffer positioned right after IV
+     * @param version VERSION_0 or VERSION_1
+     * @param txtlen unencrypted data length
+     * @param enclen encrypted data length
+     */
+    public static void writeLengths(ByteBuffer dst, int version, int txtlen, int enclen){
+        if(version == VERSION_1){
+            dst.put(VERSIONED_MARKER);
+            dst.put((byte) VERSION_1);
+            VarInt.write(dst, txtlen);
+            VarInt.write(dst, enclen);
+        }else{
+            if(autoVersion(txtlen, enclen) != VERSION_0){
+                throw new IllegalArgumentException("Message is too big for version 0: " + ((long) txtlen + enclen));
+            }
+            dst.putInt(txtlen);
+            dst.putInt(enclen);
+        }
+    }
+
+    /**
+     * Parses message of any version with maximal message size from crypto parameters
+     * @param message serialized message
+     * @param cryptoParams crypto parameters
+     * @return parsed message
+     */
     public static AEADCiphered fromBytes(byte[] message, CryptoParams cryptoParams){
+        return fromBytes(message, cryptoParams, cryptoParams.getAeadMaxMsgSize());
+    }
+
+    /**
+     * Parses message of any version, version is detected by marker after IV
+     * @param message serialized message
+     * @param cryptoParams crypto parameters
+     * @param maxSize maximal size of plain and encrypted parts of version 1 message
+     * @return parsed message
+     */
+    public static AEADCiphered fromBytes(byte[] message, CryptoParams cryptoParams, int maxSize){
         AEADCiphered res = new AEADCiphered(cryptoParams);
         ByteBuffer bb = ByteBuffer.wrap(message);
-        bb.get(res.iv);
-        int txtlen = bb.getInt();
-        int enclen = bb.getInt();
-        //prevent overflow attack
-        if(txtlen+enclen > MAX_MSG_SIZE){
-            throw new IllegalArgumentException("Declared message size is too big: " + (txtlen + enclen));
+        int[] header = parseHeader(bb, res.iv.length, maxSize);
+        if(header == null || message.length < (long) header[0] + header[1] + header[2]){
+            throw new IllegalArgumentException("Message is truncated: " + message.length);
         }
+        bb.get(res.iv);
+        bb.position(header[0]);
+        int txtlen = header[1];
+        int enclen = header[2];
+        res.version = header[3];
         res.aatext = new byte[txtlen];
         res.encrypted = new byte[enclen];
         bb.get(res.aatext);
@@ -103,18 +226,99 @@ public class AEADCiphered {
     }
     
     public byte[] toBytes(){
-        int capacity = calcBytesSize();
-        ByteBuffer bb = ByteBuffer.allocate(capacity);
-        bb.put(iv);
-        bb.putInt(aatext.length);
-        bb.putInt(encrypted.length);
-        bb.put(aatext);
-        bb.put(encrypted); //hmac is 16 bytes tail of encrypted
+        ByteBuffer bb = ByteBuffer.allocate(calcBytesSize());
+        writeTo(bb);
         return bb.array();
     }
 
+    /**
+     * Writes message to buffer without intermediate copies
+     * @param dst buffer with at least calcBytesSize() bytes remaining
+     * @return number of bytes written
+     */
+    public int writeTo(ByteBuffer dst){
+        int size = calcBytesSize();
+        if(dst.remaining() < size){
+            throw new IllegalArgumentException("Buffer is too short, required: " + size);
+        }
+        dst.put(iv);
+        writeLengths(dst, getVersion(), aatext.length, encrypted.length);
+        dst.put(aatext);
+        dst.put(encrypted); //hmac is 16 bytes tail of encrypted
+        return size;
+    }
+
     public int calcBytesSize() {
-        return iv.length + 4 + 4 + aatext.length + encrypted.length;
+        return iv.length + lengthsSize(getVersion(), aatext.length, encrypted.length) + aatext.length + encrypted.length;
+    }
+
+    /**
+     * Maximal size of message header of any version, enough to call messageSize()
+     * @param cryptoParams crypto parameters
+     * @return maximal header size in bytes
+     */
+    public static int maxHeaderSize(CryptoParams cryptoParams){
+        return cryptoParams.getAesIvLen() + 2 + 2 * VarInt.MAX_SIZE;
+    }
+
+    /**
+     * Size of entire message by its header, so receiver could allocate buffer
+     * of exact size before reading the rest of message, e.g. from socket
+     * @param header beginning of message between position and limit, position is not changed
+     * @param cryptoParams crypto parameters
+     * @return size of entire message or -1 if more header bytes are required
+     * @throws IllegalArgumentException if header is malformed or size exceeds
+     * maximal message size
+     */
+    public static int messageSize(ByteBuffer header, CryptoParams cryptoParams){
+        int[] h = parseHeader(header, cryptoParams.getAesIvLen(), cryptoParams.getAeadMaxMsgSize());
+        if(h == null){
+            return -1;
+        }
+        long size = (long) h[0] + h[1] + h[2];
+        if(size > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Declared message size is too big: " + size);
+        }
+        return (int) size;
+    }
+
+    /**
+     * Parses header at buffer position without moving it
+     * @return header length, unencrypted data length, encrypted data length
+     * and version or null if buffer ends before end of header
+     */
+    static int[] parseHeader(ByteBuffer msg, int ivLen, int maxSize){
+        int start = msg.position();
+        if(msg.remaining() < ivLen + 2){
+            return null;
+        }
+        if(msg.get(start + ivLen) == VERSIONED_MARKER){
+            int ver = msg.get(start + ivLen + 1);
+            if(ver != VERSION_1){
+                throw new IllegalArgumentException("Unsupported AEAD message version: " + ver);
+            }
+            ByteBuffer bb = msg.duplicate().position(start + ivLen + 2);
+            int txtlen = VarInt.read(bb);
+            int enclen = txtlen < 0 ? -1 : VarInt.read(bb);
+            if(enclen < 0){
+                return null;
+            }
+            //prevent overflow and DoS attack
+            if((long) txtlen + enclen > maxSize){
+                throw new IllegalArgumentException("Declared message size is too big: " + ((long) txtlen + enclen));
+            }
+            return new int[]{bb.position() - start, txtlen, enclen, VERSION_1};
+        }
+        if(msg.remaining() < ivLen + 8){
+            return null;
+        }
+        int txtlen = msg.getInt(start + ivLen);
+        int enclen = msg.getInt(start + ivLen + 4);
+        //prevent overflow attack
+        if(txtlen < 0 || enclen < 0 || (long) txtlen + enclen > MAX_MSG_SIZE){
+            throw new IllegalArgumentException("Declared message size is wrong or too big: " + ((long) txtlen + enclen));
+        }
+        return new int[]{ivLen + 8, txtlen, enclen, VERSION_0};
     }
 
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.dataformat;
+
+import java.nio.ByteBuffer;
+import ua.cn.al.easycrypt.CryptoParams;
+
+/**
+ * Zero-copy view of message in AEADCiphered format. IV, unencrypted data and
+ * encrypted data are exposed as slices of the message buffer, nothing is
+ * copied. Slices share content with message buffer, so buffer must not be
+ * modified while view is in use.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class AEADCipheredView {
+
+    private final ByteBuffer iv;
+    private final ByteBuffer aatext;
+    private final ByteBuffer encrypted;
+    private final int size;
+
+    private AEADCipheredView(ByteBuffer iv, ByteBuffer aatext, ByteBuffer encrypted, int size) {
+        this.iv = iv;
+        this.aatext = aatext;
+        this.encrypted = encrypted;
+        this.size = size;
+    }
+
+    /**
+     * Parses message header of any version and creates view, @see
+     * AEADCiphered#fromBytes
+     *
+     * @param message buffer with message starting at position, position and
+     * limit of buffer are not changed
+     * @param cryptoParams crypto parameters
+     * @return view of message
+     * @throws IllegalArgumentException if declared sizes are wrong or too big
+     */
+    public static AEADCipheredView wrap(ByteBuffer message, CryptoParams cryptoParams) {
+        return wrap(message, cryptoParams, cryptoParams.getAeadMaxMsgSize());
+    }
+
+    /**
+     * Parses message header of any version and creates view
+     *
+     * @param message buffer with message starting at position, position and
+     * limit of buffer are not changed
+     * @param cryptoParams crypto parameters
+     * @param maxSize maximal size of plain and encrypted parts of version 1
+     * message
+     * @return view of message
+     * @throws IllegalArgumentException if declared sizes are wrong or too big
+     */
+    public static AEADCipheredView wrap(ByteBuffer message, CryptoParams cryptoParams, int maxSize) {
+        int ivLen = cryptoParams.getAesIvLen();
+        int start = message.position();
+        int[] header = AEADCiphered.parseHeader(message, ivLen, maxSize);
+        if (header == null) {
+            throw new IllegalArgumentException("Message is too short: " + message.remaining());
+        }
+        int headerLen = header[0];
+        int txtlen = header[1];
+        int enclen = header[2];
+        if (message.remaining() < (long) headerLen + txtlen + enclen) {
+            throw new IllegalArgumentException("Message is truncated: " + message.remaining());
+        }
+        return new AEADCipheredView(
+                message.slice(start, ivLen),
+                message.slice(start + headerLen, txtlen),
+                message.slice(start + headerLen + txtlen, enclen),
+                headerLen + txtlen + enclen);
+    }
+
+    /**
+     * IV (salt + explicit nonce) of message
+     *
+     * @return new slice of message buffer on each call
+     */
+    public ByteBuffer getIV() {
+        return iv.duplicate();
+    }
+
+    /**
+     * Unencrypted authenticated data of message
+     *
+     * @return new slice of message buffer on each call
+     */
+    public ByteBuffer getAAD() {
+        return aatext.duplicate();
+    }
+
+    /**
+     * Encrypted data including authentication tag
+     *
+     * @return new slice of message buffer on each call
+     */
+    public ByteBuffer getEncrypted() {
+        return encrypted.duplicate();
+    }
+
+    public int getAADLength() {
+        return aatext.capacity();
+    }
+
+    public int getEncryptedLength() {
+        return encrypted.capacity();
+    }
+
+    /**
+     * Size of entire message, next message in buffer starts after it
+     *
+     * @return message size in bytes
+     */
+    public int size() {
+        return size;
+    }
+}
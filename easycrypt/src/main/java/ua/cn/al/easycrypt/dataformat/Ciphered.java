@@ -46,6 +46,7 @@ public class Ciphered {
      * Maximal size of plain and encrypted parts in sum to prevent DoS attacks
      */
     public static final int MAX_MSG_SIZE = 65536;
+    public static final int IV_LEN = 12;
 
     public byte[] encrypted;
 
@@ -93,12 +94,29 @@ public class Ciphered {
     }
     
     public byte[] toBytes(){
-        int capacity = iv.length+encrypted.length;
-        ByteBuffer bb = ByteBuffer.allocate(capacity);
-        bb.put(iv);
-        bb.put(encrypted); 
+        ByteBuffer bb = ByteBuffer.allocate(calcBytesSize());
+        writeTo(bb);
         return bb.array();
     }
 
+    /**
+     * Writes message to buffer without intermediate copies
+     * @param dst buffer with at least calcBytesSize() bytes remaining
+     * @return number of bytes written
+     */
+    public int writeTo(ByteBuffer dst){
+        int size = calcBytesSize();
+        if(dst.remaining() < size){
+            throw new IllegalArgumentException("Buffer is too short, required: " + size);
+        }
+        dst.put(iv);
+        dst.put(encrypted);
+        return size;
+    }
+
+    public int calcBytesSize() {
+        return iv.length + encrypted.length;
+    }
+
 
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.dataformat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Zero-copy view of message in Ciphered format: IV and encrypted data are
+ * exposed as slices of the message buffer, nothing is copied.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class CipheredView {
+
+    private final ByteBuffer iv;
+    private final ByteBuffer encrypted;
+
+    private CipheredView(ByteBuffer iv, ByteBuffer encrypted) {
+        this.iv = iv;
+        this.encrypted = encrypted;
+    }
+
+    /**
+     * Creates view of entire remaining buffer, @see Ciphered#fromBytes
+     *
+     * @param message buffer with message between position and limit, position
+     * and limit of buffer are not changed
+     * @return view of message
+     * @throws IllegalArgumentException if message is shorter than IV
+     */
+    public static CipheredView wrap(ByteBuffer message) {
+        int ivLen = Ciphered.IV_LEN;
+        if (message.remaining() < ivLen) {
+            throw new IllegalArgumentException("Message is too short: " + message.remaining());
+        }
+        int start = message.position();
+        return new CipheredView(message.slice(start, ivLen), message.slice(start + ivLen, message.remaining() - ivLen));
+    }
+
+    /**
+     * IV (salt + explicit nonce) of message
+     *
+     * @return new slice of message buffer on each call
+     */
+    public ByteBuffer getIV() {
+        return iv.duplicate();
+    }
+
+    /**
+     * Encrypted data including authentication tag
+     *
+     * @return new slice of message buffer on each call
+     */
+    public ByteBuffer getEncrypted() {
+        return encrypted.duplicate();
+    }
+
+    public int getEncryptedLength() {
+        return encrypted.capacity();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.dataformat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Header of multi-recipient envelope, list of data key copies wrapped for
+ * each recipient. Header is AAD of AEAD message that carries payload
+ * encrypted once by data key, so list of recipients is authenticated.
+ * Format:
+ *    magic (4 bytes) "ECMR",
+ *    version (4 bytes),
+ *    length of ephemeral public key (2 bytes),
+ *    ephemeral public key, X509 encoded,
+ *    length of wrapped key (2 bytes), the same for all recipients,
+ *    number of recipients (4 bytes),
+ *    recipients: key ID (8 bytes) followed by wrapped data key.
+ * Because entries have fixed size, recipient finds own entry by key ID
+ * without processing entries of other recipients.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class EnvelopeHeader {
+
+    public static final byte[] MAGIC = {'E', 'C', 'M', 'R'};
+    public static final int VERSION = 1;
+    public static final int KEY_ID_LEN = 8;
+    /**
+     * Upper bound of format, actual number of recipients is limited by
+     * maximal AEAD message size, @see maxRecipients()
+     */
+    public static final int MAX_RECIPIENTS = 1 << 20;
+
+    /**
+     * Data key wrapped for one recipient
+     */
+    public static class Recipient {
+
+        private final byte[] keyId;
+        private final byte[] wrappedKey;
+
+        public Recipient(byte[] keyId, byte[] wrappedKey) {
+            if (keyId.length != KEY_ID_LEN) {
+                throw new IllegalArgumentException("Key ID size must be exactly " + KEY_ID_LEN + " bytes");
+            }
+            this.keyId = keyId.clone();
+            this.wrappedKey = wrappedKey.clone();
+        }
+
+        public byte[] getKeyId() {
+            return keyId.clone();
+        }
+
+        public byte[] getWrappedKey() {
+            return wrappedKey.clone();
+        }
+    }
+
+    private final byte[] ephemeralKey;
+    private final List<Recipient> recipients;
+
+    /**
+     * Creates header of new envelope
+     *
+     * @param ephemeralKey X509 encoded ephemeral public key of sender
+     * @param recipients wrapped keys, all of the same size
+     */
+    public EnvelopeHeader(byte[] ephemeralKey, List<Recipient> recipients) {
+        if (ephemeralKey.length > 0xFFFF) {
+            throw new IllegalArgumentException("Ephemeral key is too long: " + ephemeralKey.length);
+        }
+        if (recipients.isEmpty() || recipients.size() > MAX_RECIPIENTS) {
+            throw new IllegalArgumentException("Number of recipients must be between 1 and " + MAX_RECIPIENTS);
+        }
+        int wrappedLen = recipients.get(0).wrappedKey.length;
+        for (Recipient r : recipients) {
+            if (r.wrappedKey.length != wrappedLen) {
+                throw new IllegalArgumentException("Wrapped keys must be of the same size");
+            }
+        }
+        if (wrappedLen > 0xFFFF) {
+            throw new IllegalArgumentException("Wrapped key is too long: " + wrappedLen);
+        }
+        this.ephemeralKey = ephemeralKey.clone();
+        this.recipients = Collections.unmodifiableList(new ArrayList<>(recipients));
+    }
+
+    /**
+     * Parses header
+     *
+     * @param header buffer with header from position to limit, position is
+     * moved to the end of header
+     * @return parsed header
+     * @throws IllegalArgumentException if header is not valid or truncated
+     */
+    public static EnvelopeHeader fromBytes(ByteBuffer header) {
+        if (header.remaining() < MAGIC.length + 4 + 2) {
+            throw new IllegalArgumentException("Envelope header is truncated");
+        }
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IllegalArgumentException("Not an envelope, magic does not match");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported envelope version: " + version);
+        }
+        byte[] ephemeralKey = new byte[Short.toUnsignedInt(header.getShort())];
+        if (header.remaining() < ephemeralKey.length + 2 + 4) {
+            throw new IllegalArgumentException("Envelope header is truncated");
+        }
+        header.get(ephemeralKey);
+        int wrappedLen = Short.toUnsignedInt(header.getShort());
+        int count = header.getInt();
+        if (count < 1 || count > MAX_RECIPIENTS) {
+            throw new IllegalArgumentException("Wrong number of recipients: " + count);
+        }
+        if (header.remaining() < (long) count * (KEY_ID_LEN + wrappedLen)) {
+            throw new IllegalArgumentException("Envelope header is truncated");
+        }
+        List<Recipient> recipients = new ArrayList<>(count);
+        byte[] keyId = new byte[KEY_ID_LEN];
+        byte[] wrapped = new byte[wrappedLen];
+        for (int i = 0; i < count; i++) {
+            header.get(keyId);
+            header.get(wrapped);
+            recipients.add(new Recipient(keyId, wrapped));
+        }
+        return new EnvelopeHeader(ephemeralKey, recipients);
+    }
+
+    /**
+     * Encoded header, used as AAD of payload
+     *
+     * @return encoded header
+     */
+    public byte[] toBytes() {
+        int wrappedLen = recipients.get(0).wrappedKey.length;
+        ByteBuffer bb = ByteBuffer.allocate(size());
+        bb.put(MAGIC);
+        bb.putInt(VERSION);
+        bb.putShort((short) ephemeralKey.length);
+        bb.put(ephemeralKey);
+        bb.putShort((short) wrappedLen);
+        bb.putInt(recipients.size());
+        for (Recipient r : recipients) {
+            bb.put(r.keyId);
+            bb.put(r.wrappedKey);
+        }
+        return bb.array();
+    }
+
+    /**
+     * Size of encoded header
+     *
+     * @return size in bytes
+     */
+    public int size() {
+        return (int) size(ephemeralKey.length, recipients.get(0).wrappedKey.length, recipients.size());
+    }
+
+    /**
+     * Size of encoded header by sizes of its parts, so it could be checked
+     * before keys are wrapped
+     *
+     * @param ephemeralKeyLen length of encoded ephemeral key
+     * @param wrappedLen length of wrapped key
+     * @param count number of recipients
+     * @return size in bytes
+     */
+    public static long size(int ephemeralKeyLen, int wrappedLen, int count) {
+        return MAGIC.length + 4 + 2 + ephemeralKeyLen + 2 + 4 + (long) count * (KEY_ID_LEN + wrappedLen);
+    }
+
+    /**
+     * Maximal number of recipients of envelope: header is AAD of AEAD
+     * message, so header and payload together are limited by maxSize
+     *
+     * @param ephemeralKeyLen length of encoded ephemeral key
+     * @param wrappedLen length of wrapped key
+     * @param payloadLen length of encrypted payload with tag
+     * @param maxSize maximal size of AEAD message, @see
+     * CryptoParams#getAeadMaxMsgSize()
+     * @return maximal number of recipients, 0 if payload is too big
+     */
+    public static int maxRecipients(int ephemeralKeyLen, int wrappedLen, long payloadLen, int maxSize) {
+        long free = maxSize - payloadLen - size(ephemeralKeyLen, wrappedLen, 0);
+        return (int) Math.max(0, Math.min(MAX_RECIPIENTS, free / (KEY_ID_LEN + wrappedLen)));
+    }
+
+    public byte[] getEphemeralKey() {
+        return ephemeralKey.clone();
+    }
+
+    public List<Recipient> getRecipients() {
+        return recipients;
+    }
+
+    /**
+     * Entries with given key ID, normally one. Key IDs are short, so
+     * different keys could have the same ID and all entries should be tried.
+     *
+     * @param keyId key ID of recipient
+     * @return entries of recipient, empty if envelope is not for this key
+     */
+    public List<Recipient> findRecipients(byte[] keyId) {
+        List<Recipient> res = new ArrayList<>(1);
+        for (Recipient r : recipients) {
+            if (Arrays.equals(r.keyId, keyId)) {
+                res.add(r);
+            }
+        }
+        return res;
+    }
+}
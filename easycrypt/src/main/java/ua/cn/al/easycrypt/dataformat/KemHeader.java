@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.dataformat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Header of public key encrypted stream, KEM-DEM construction. Header carries
+ * encapsulated key, i.e. ephemeral public key of sender, and is followed by
+ * segmented AEAD stream encrypted by key derived from ECDH of ephemeral key
+ * and recipient key, @see SegmentedAEADHeader.
+ * Format:
+ *    magic (4 bytes) "ECKM",
+ *    version (4 bytes),
+ *    length of ephemeral public key (2 bytes),
+ *    ephemeral public key, X509 encoded.
+ * Header is input of key derivation, so any modification of it gives wrong
+ * key and first segment fails authentication.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class KemHeader {
+
+    public static final byte[] MAGIC = {'E', 'C', 'K', 'M'};
+    public static final int VERSION = 1;
+    private static final int FIXED_SIZE = MAGIC.length + 4 + 2;
+
+    private final byte[] ephemeralKey;
+
+    /**
+     * Creates header of new stream
+     *
+     * @param ephemeralKey X509 encoded ephemeral public key
+     */
+    public KemHeader(byte[] ephemeralKey) {
+        if (ephemeralKey.length > 0xFFFF) {
+            throw new IllegalArgumentException("Ephemeral key is too long: " + ephemeralKey.length);
+        }
+        this.ephemeralKey = ephemeralKey.clone();
+    }
+
+    /**
+     * Reads and parses header from stream
+     *
+     * @param in input stream positioned at stream start
+     * @return parsed header
+     * @throws IOException if header is truncated or not valid
+     */
+    public static KemHeader readFrom(InputStream in) throws IOException {
+        byte[] fixed = in.readNBytes(FIXED_SIZE);
+        if (fixed.length != FIXED_SIZE) {
+            throw new IOException("KEM stream header is truncated");
+        }
+        ByteBuffer bb = ByteBuffer.wrap(fixed);
+        byte[] magic = new byte[MAGIC.length];
+        bb.get(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Not a KEM stream, magic does not match");
+        }
+        int version = bb.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported KEM stream version: " + version);
+        }
+        int keyLen = Short.toUnsignedInt(bb.getShort());
+        byte[] key = in.readNBytes(keyLen);
+        if (key.length != keyLen) {
+            throw new IOException("KEM stream header is truncated");
+        }
+        return new KemHeader(key);
+    }
+
+    /**
+     * Encoded header
+     *
+     * @return encoded header
+     */
+    public byte[] toBytes() {
+        ByteBuffer bb = ByteBuffer.allocate(FIXED_SIZE + ephemeralKey.length);
+        bb.put(MAGIC);
+        bb.putInt(VERSION);
+        bb.putShort((short) ephemeralKey.length);
+        bb.put(ephemeralKey);
+        return bb.array();
+    }
+
+    public byte[] getEphemeralKey() {
+        return ephemeralKey.clone();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.dataformat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Header and layout of segmented (online) AEAD stream, STREAM construction.
+ * Format:
+ *    magic (4 bytes) "ECSA",
+ *    version (4 bytes),
+ *    segment size, size of plain text in one segment (4 bytes),
+ *    IV (12 bytes),
+ *    segments: encrypted segment data followed by 16 bytes of GCM tag.
+ * All segments except last one have exactly segment size bytes of plain text.
+ * Last segment always has less than segment size bytes of plain text, may be
+ * empty. Nonce of segment i is IV XOR (counter i, last segment flag) in last 5
+ * bytes, so reordering, truncation and appending of segments are detected.
+ * Header is authenticated as AAD of each segment.
+ * Because layout is fixed, position of any segment is known without reading
+ * previous segments.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ * REFERENCES: [1] Online Authenticated-Encryption and its Nonce-Reuse
+ * Misuse-Resistance, Hoang, Reyhanitabar, Rogaway, Vizar, 2015
+ */
+public class SegmentedAEADHeader {
+
+    public static final byte[] MAGIC = {'E', 'C', 'S', 'A'};
+    public static final int VERSION = 1;
+    public static final int IV_LEN = 12;
+    public static final int HEADER_SIZE = MAGIC.length + 4 + 4 + IV_LEN;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    public static final int MIN_SEGMENT_SIZE = 256;
+    public static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    /**
+     * Maximal number of segments, counter in nonce is 32 bit
+     */
+    public static final long MAX_SEGMENTS = 1L << 32;
+
+    private final int segmentSize;
+    private final int tagLen;
+    private final byte[] iv;
+    private final byte[] encoded;
+
+    /**
+     * Creates header of new stream
+     *
+     * @param segmentSize size of plain text in one segment
+     * @param tagLen size of authentication tag in bytes
+     * @param iv 12 bytes of IV
+     */
+    public SegmentedAEADHeader(int segmentSize, int tagLen, byte[] iv) {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between " + MIN_SEGMENT_SIZE + " and " + MAX_SEGMENT_SIZE);
+        }
+        if (iv.length != IV_LEN) {
+            throw new IllegalArgumentException("IV size must be exactly " + IV_LEN + " bytes");
+        }
+        this.segmentSize = segmentSize;
+        this.tagLen = tagLen;
+        this.iv = iv.clone();
+        ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE);
+        bb.put(MAGIC);
+        bb.putInt(VERSION);
+        bb.putInt(segmentSize);
+        bb.put(iv);
+        this.encoded = bb.array();
+    }
+
+    /**
+     * Parses header
+     *
+     * @param header HEADER_SIZE bytes of header
+     * @param tagLen size of authentication tag in bytes
+     * @return parsed header
+     * @throws IOException if header is not valid
+     */
+    public static SegmentedAEADHeader fromBytes(byte[] header, int tagLen) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(header);
+        byte[] magic = new byte[MAGIC.length];
+        bb.get(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Not a segmented AEAD stream, magic does not match");
+        }
+        int version = bb.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported segmented AEAD stream version: " + version);
+        }
+        int segmentSize = bb.getInt();
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IOException("Wrong segment size: " + segmentSize);
+        }
+        byte[] iv = new byte[IV_LEN];
+        bb.get(iv);
+        return new SegmentedAEADHeader(segmentSize, tagLen, iv);
+    }
+
+    /**
+     * Reads and parses header from stream
+     *
+     * @param in input stream positioned at stream start
+     * @param tagLen size of authentication tag in bytes
+     * @return parsed header
+     * @throws IOException if header is truncated or not valid
+     */
+    public static SegmentedAEADHeader readFrom(InputStream in, int tagLen) throws IOException {
+        byte[] header = in.readNBytes(HEADER_SIZE);
+        if (header.length != HEADER_SIZE) {
+            throw new IOException("Segmented AEAD stream header is truncated");
+        }
+        return fromBytes(header, tagLen);
+    }
+
+    /**
+     * Encoded header, used as AAD of every segment
+     *
+     * @return copy of encoded header
+     */
+    public byte[] toBytes() {
+        return encoded.clone();
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getTagLen() {
+        return tagLen;
+    }
+
+    public byte[] getIV() {
+        return iv.clone();
+    }
+
+    /**
+     * Size of encrypted segment of full size
+     *
+     * @return segment size plus tag length
+     */
+    public int getEncryptedSegmentSize() {
+        return segmentSize + tagLen;
+    }
+
+    /**
+     * Nonce of segment: IV XOR segment counter and last segment flag
+     *
+     * @param index segment index
+     * @param last true for last segment
+     * @return 12 bytes of nonce
+     */
+    public byte[] segmentNonce(long index, boolean last) {
+        if (index < 0 || index >= MAX_SEGMENTS) {
+            throw new IllegalArgumentException("Segment index is out of range: " + index);
+        }
+        byte[] nonce = iv.clone();
+        nonce[IV_LEN - 5] ^= (byte) (index >>> 24);
+        nonce[IV_LEN - 4] ^= (byte) (index >>> 16);
+        nonce[IV_LEN - 3] ^= (byte) (index >>> 8);
+        nonce[IV_LEN - 2] ^= (byte) index;
+        nonce[IV_LEN - 1] ^= (byte) (last ? 1 : 0);
+        return nonce;
+    }
+
+    /**
+     * Number of segments for plain text of given size
+     *
+     * @param plainLen plain text size
+     * @return number of segments including last one
+     */
+    public long segmentCount(long plainLen) {
+        return plainLen / segmentSize + 1;
+    }
+
+    /**
+     * Size of entire encrypted stream including header
+     *
+     * @param plainLen plain text size
+     * @return encrypted stream size
+     */
+    public long encryptedSize(long plainLen) {
+        return HEADER_SIZE + plainLen + segmentCount(plainLen) * tagLen;
+    }
+
+    /**
+     * Size of plain text of encrypted stream
+     *
+     * @param encryptedLen size of entire encrypted stream including header
+     * @return plain text size
+     * @throws IOException if size does not match segment layout, i.e. stream
+     * is truncated
+     */
+    public long plainSize(long encryptedLen) throws IOException {
+        long body = encryptedLen - HEADER_SIZE;
+        long full = body / getEncryptedSegmentSize();
+        long lastLen = body - full * getEncryptedSegmentSize();
+        if (body < tagLen || lastLen < tagLen) {
+            throw new IOException("Segmented AEAD stream is truncated");
+        }
+        return full * segmentSize + lastLen - tagLen;
+    }
+
+    /**
+     * Position of encrypted segment in stream
+     *
+     * @param index segment index
+     * @return offset from the beginning of stream including header
+     */
+    public long segmentOffset(long index) {
+        return HEADER_SIZE + index * getEncryptedSegmentSize();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.dataformat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned variable length integers (LEB128): 7 bits per byte, least
+ * significant group first, high bit is set on all bytes except last one.
+ * Non-negative int takes 1 to 5 bytes.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public final class VarInt {
+
+    public static final int MAX_SIZE = 5;
+
+    private VarInt() {
+    }
+
+    /**
+     * Encoded size
+     *
+     * @param value non-negative value
+     * @return number of bytes
+     */
+    public static int size(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes value at buffer position
+     *
+     * @param dst destination buffer
+     * @param value non-negative value
+     */
+    public static void write(ByteBuffer dst, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        while ((value & ~0x7F) != 0) {
+            dst.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    /**
+     * Reads value at buffer position
+     *
+     * @param src source buffer
+     * @return non-negative value or -1 if buffer ends before last byte of
+     * value, position is not changed in this case
+     * @throws IllegalArgumentException if value is longer than 5 bytes, does
+     * not fit int or is not in minimal form
+     */
+    public static int read(ByteBuffer src) {
+        int start = src.position();
+        long value = 0;
+        for (int i = 0; i < MAX_SIZE; i++) {
+            if (!src.hasRemaining()) {
+                src.position(start);
+                return -1;
+            }
+            int b = src.get() & 0xFF;
+            value |= (long) (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (value > Integer.MAX_VALUE || (i > 0 && b == 0)) {
+                    throw new IllegalArgumentException("Malformed varint");
+                }
+                return (int) value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint, too long");
+    }
+}
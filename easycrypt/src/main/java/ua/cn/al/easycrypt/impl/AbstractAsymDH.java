@@ -31,7 +31,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ua.cn.al.easycrypt.AsymCryptorDH;
 import ua.cn.al.easycrypt.AsymKeysHolder;
+import ua.cn.al.easycrypt.CryptoNotValidException;
 import ua.cn.al.easycrypt.CryptoSignature;
+import ua.cn.al.easycrypt.EphemeralKeyPool;
+import ua.cn.al.easycrypt.SharedKeyCache;
 
 /**
   *
@@ -49,11 +52,24 @@ public abstract class AbstractAsymDH implements AsymCryptorDH {
     protected KeyPair ephemeralKeys;            
     protected final CryptoParams params;
     protected final CryptoSignature signer;
+    protected final SharedKeyCache sharedKeyCache;
+    protected EphemeralKeyPool ephemeralKeyPool;
+    private byte[] ourKeysFingerprint;
     
      public AbstractAsymDH(CryptoParams params) {
+        this(params, null);
+    } 
+
+    /**
+     * @param params crypto parameters
+     * @param sharedKeyCache cache of shared secrets, could be shared by many
+     * cryptors; null disables caching
+     */
+    public AbstractAsymDH(CryptoParams params, SharedKeyCache sharedKeyCache) {
         this.params = Objects.requireNonNull(params);
+        this.sharedKeyCache = sharedKeyCache;
         signer = new CryptoSignatureImpl(params);
-    } 
+    }
     
     public CryptoParams getParams(){
         return params;
@@ -69,14 +85,67 @@ public abstract class AbstractAsymDH implements AsymCryptorDH {
         this.privateKey = keys.getPrivateKey();
         this.theirPublicKey = keys.getTheirPublicKey();
         this.signer.setKeys(keys);
+        ourKeysFingerprint = null;
+        if (sharedKeyCache != null && privateKey != null && ourPublicKey != null) {
+            try {
+                ourKeysFingerprint = SharedKeyCache.fingerprint(getSharedKeyCacheScheme(), privateKey, ourPublicKey);
+            } catch (NoSuchAlgorithmException ex) {
+                log.warn("Shared key cache is not used: {}", ex.getMessage());
+            }
+        }
         try {
             blockCipherAsym = Cipher.getInstance(params.getAsymCipher());
-            calculateSharedKey();
+            //no peer key, e.g. for calculateSharedKeys()
+            if (theirPublicKey != null) {
+                calculateSharedKey();
+            }
         } catch (NoSuchAlgorithmException | NoSuchPaddingException ex) {
             log.error("Can not create cipher for {} :", params.getAsymCipher(), ex);
+        } catch (CryptoNotValidException ex) {
+            //keys may be good for ECDHE only, static encryption fails later
+            log.debug("No static shared key: {}", ex.getMessage());
         }        
     }    
     
+    @Override
+    public void setEphemeralKeyPool(EphemeralKeyPool pool) {
+        if (pool != null && !pool.getCurve().equals(params.getDefaultCurve())) {
+            throw new IllegalArgumentException("Ephemeral key pool curve " + pool.getCurve()
+                    + " does not match " + params.getDefaultCurve());
+        }
+        this.ephemeralKeyPool = pool;
+    }
+
+    /**
+     * Shared secret of static keys, taken from shared key cache if it is set
+     */
+    protected byte[] calculateShared(PublicKey ourPub, PrivateKey ourPriv, PublicKey theirPub) throws NoSuchAlgorithmException, InvalidKeyException {
+        if (sharedKeyCache == null) {
+            return doCalculateShared(ourPub, ourPriv, theirPub);
+        }
+        if (ourPriv != privateKey || ourPub != ourPublicKey) {
+            return sharedKeyCache.getOrCalculate(getSharedKeyCacheScheme(), ourPriv, ourPub, theirPub, () -> doCalculateShared(ourPub, ourPriv, theirPub));
+        }
+        return sharedKeyCache.getOrCalculate(ourKeysFingerprint, theirPub, () -> doCalculateShared(ourPub, ourPriv, theirPub));
+    }
+
+    /**
+     * Fingerprint of our keys for shared key cache, calculated once by
+     * setKeys()
+     *
+     * @return fingerprint or null if keys are not cached
+     */
+    protected byte[] getOurKeysFingerprint() {
+        return ourKeysFingerprint;
+    }
+
+    /**
+     * Name of key agreement scheme for shared key cache
+     */
+    protected String getSharedKeyCacheScheme() {
+        return getClass().getName() + ":" + params.getKeyAgreementDigester();
+    }
+
     protected abstract byte[] doCalculateShared(PublicKey ourPub, PrivateKey ourPriv, PublicKey theirPub) throws NoSuchAlgorithmException, InvalidKeyException;
     
 }
@@ -19,6 +19,7 @@ import ua.cn.al.easycrypt.CryptoNotValidException;
 import ua.cn.al.easycrypt.CryptoParams;
 import ua.cn.al.easycrypt.KeyGenerator;
 import java.nio.ByteBuffer;
+import java.security.KeyPair;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -45,6 +46,11 @@ public abstract class AbstractKeyGenerator implements KeyGenerator {
         sr.nextBoolean();
     }
 
+    @Override
+    public KeyPair generateSignatureKeys() {
+        return generateKeys();
+    }
+
     /**
      * Simple deterministic key derivation function. It is one-way function. It
      * calculates hash (defined in params) of secretPhrase.getBytes() and salt.
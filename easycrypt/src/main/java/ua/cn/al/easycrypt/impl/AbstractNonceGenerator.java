@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.NonceGenerator;
+
+/**
+ * Common part of nonce generators: lock-free accounting of key usage
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+@Slf4j
+public abstract class AbstractNonceGenerator implements NonceGenerator {
+
+    protected final int nonceLen;
+    protected final long usageLimit;
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicBoolean rotationReported = new AtomicBoolean();
+
+    public AbstractNonceGenerator(int nonceLen, long usageLimit) {
+        if (usageLimit <= 0) {
+            throw new IllegalArgumentException("Usage limit must be positive");
+        }
+        this.nonceLen = nonceLen;
+        this.usageLimit = usageLimit;
+    }
+
+    /**
+     * Creates nonce generator defined by crypto parameters
+     *
+     * @param params crypto parameters
+     * @return new generator for one key
+     */
+    public static NonceGenerator create(CryptoParams params) {
+        if (CryptoParams.NONCE_COUNTER.equals(params.getSymNonceGenerator())) {
+            return new CounterNonceGenerator(params.getAesGcmNonceLen(), params.getSymKeyUsageLimit());
+        } else {
+            return new RandomNonceGenerator(params.getAesGcmNonceLen(), params.getSymKeyUsageLimit());
+        }
+    }
+
+    /**
+     * Reserves next invocation
+     *
+     * @return sequence number of invocation for current key, starting from 0
+     * @throws CryptoNotValidException if usage limit is reached
+     */
+    protected long use() throws CryptoNotValidException {
+        long n;
+        do {
+            n = used.get();
+            if (n >= usageLimit) {
+                throw new CryptoNotValidException("Key usage limit " + usageLimit + " is reached, key must be rotated");
+            }
+        } while (!used.compareAndSet(n, n + 1));
+        if (n >= usageLimit / 4 * 3 && rotationReported.compareAndSet(false, true)) {
+            log.warn("Key used {} times of {}, key should be rotated", n, usageLimit);
+        }
+        return n;
+    }
+
+    @Override
+    public byte[] nextNonce() throws CryptoNotValidException {
+        byte[] nonce = new byte[nonceLen];
+        nextNonce(nonce, 0);
+        return nonce;
+    }
+
+    @Override
+    public long getUsageCount() {
+        return used.get();
+    }
+
+    @Override
+    public long getUsageLimit() {
+        return usageLimit;
+    }
+
+    @Override
+    public boolean isRotationRequired() {
+        return used.get() >= usageLimit / 4 * 3;
+    }
+
+    @Override
+    public void reset() {
+        used.set(0);
+        rotationReported.set(false);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+
+/**
+ * Helpers to feed ByteBuffer slices to JCE ciphers
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public final class CipherBuffers {
+
+    private CipherBuffers() {
+    }
+
+    /**
+     * Updates AAD from buffer without copying. Heap buffers are passed as
+     * array range because SunJCE ChaCha20-Poly1305 of JDK 21 fails on heap
+     * slices with non-zero array offset.
+     *
+     * @param cipher initialized cipher
+     * @param aad AAD between position and limit, position is moved to limit
+     */
+    public static void updateAAD(Cipher cipher, ByteBuffer aad) {
+        if (aad.hasArray()) {
+            cipher.updateAAD(aad.array(), aad.arrayOffset() + aad.position(), aad.remaining());
+            aad.position(aad.limit());
+        } else {
+            cipher.updateAAD(aad);
+        }
+    }
+
+    /**
+     * Total number of bytes remaining in buffers
+     *
+     * @param buffers buffers, null means no buffers
+     * @return sum of remaining bytes
+     */
+    public static long remaining(ByteBuffer[] buffers) {
+        long res = 0;
+        if (buffers != null) {
+            for (ByteBuffer b : buffers) {
+                res += b.remaining();
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Finishes AEAD operation writing output to several buffers in order,
+     * each buffer is filled up to its limit before next one is used. AEAD
+     * decryption releases plain text only after tag is verified, so output
+     * that does not fit the first buffer goes through one temporary array
+     * which is zeroed after use.
+     *
+     * @param cipher initialized cipher
+     * @param src input between position and limit, position is moved to limit
+     * @param dst output buffers with enough space in total
+     * @return number of bytes written
+     * @throws ShortBufferException if output buffers are too short
+     * @throws IllegalBlockSizeException
+     * @throws BadPaddingException if authentication tag does not match
+     */
+    public static int doFinal(Cipher cipher, ByteBuffer src, ByteBuffer[] dst)
+            throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+        int size = cipher.getOutputSize(src.remaining());
+        int first = 0;
+        while (first < dst.length - 1 && !dst[first].hasRemaining()) {
+            first++;
+        }
+        if (dst.length > 0 && dst[first].remaining() >= size) {
+            return cipher.doFinal(src, dst[first]);
+        }
+        byte[] tmp = new byte[size];
+        try {
+            int n = cipher.doFinal(src, ByteBuffer.wrap(tmp));
+            if (n > remaining(dst)) {
+                throw new ShortBufferException("Output buffers are too short, required: " + n);
+            }
+            int off = 0;
+            for (int i = first; off < n; i++) {
+                int len = Math.min(dst[i].remaining(), n - off);
+                dst[i].put(tmp, off, len);
+                off += len;
+            }
+            return n;
+        } finally {
+            Arrays.fill(tmp, (byte) 0);
+        }
+    }
+}
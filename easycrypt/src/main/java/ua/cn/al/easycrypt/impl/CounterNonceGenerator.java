@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl;
+
+import java.security.SecureRandom;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+
+/**
+ * Deterministic explicit nonce as in RFC 5116 section 3.2: fixed salt comes
+ * with the key, explicit part is 64 bit big-endian counter. Counter starts from
+ * random value on each reset, so restart with the same key does not start
+ * from the same nonce, and nonces are unique for up to 2^64 invocations.
+ * Increment is lock-free, no secure random is used per message.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class CounterNonceGenerator extends AbstractNonceGenerator {
+
+    private static final SecureRandom random = new SecureRandom();
+    private volatile long start;
+
+    public CounterNonceGenerator(int nonceLen, long usageLimit) {
+        this(nonceLen, usageLimit, random.nextLong());
+    }
+
+    /**
+     * Creates counter with known initial value, e.g. restored from persistent
+     * storage
+     *
+     * @param nonceLen length of explicit nonce, 8 bytes
+     * @param usageLimit maximal number of nonces for one key
+     * @param start initial counter value
+     */
+    public CounterNonceGenerator(int nonceLen, long usageLimit, long start) {
+        super(nonceLen, usageLimit);
+        if (nonceLen != Long.BYTES) {
+            throw new IllegalArgumentException("Counter nonce must be exactly 8 bytes long");
+        }
+        this.start = start;
+    }
+
+    @Override
+    public void nextNonce(byte[] buf, int offset) throws CryptoNotValidException {
+        long counter = start + use();
+        for (int i = nonceLen - 1; i >= 0; i--) {
+            buf[offset + i] = (byte) counter;
+            counter >>>= 8;
+        }
+    }
+
+    @Override
+    public void reset() {
+        start = random.nextLong();
+        super.reset();
+    }
+}
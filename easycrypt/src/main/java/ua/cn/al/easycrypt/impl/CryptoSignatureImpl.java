@@ -20,6 +20,7 @@ import ua.cn.al.easycrypt.AsymKeysHolder;
 import ua.cn.al.easycrypt.CryptoNotValidException;
 import ua.cn.al.easycrypt.CryptoParams;
 import ua.cn.al.easycrypt.CryptoSignature;
+import ua.cn.al.easycrypt.impl.rsa.MultiPrimeRSAEngine;
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -39,6 +40,7 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.security.interfaces.RSAMultiPrimePrivateCrtKey;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -81,6 +83,10 @@ public class CryptoSignatureImpl implements CryptoSignature {
 
     @Override
     public byte[] sign(byte[] message) throws CryptoNotValidException {
+        if (MultiPrimeRSAEngine.isMultiPrime(privateKey)) {
+            //providers do not use CRT with multi-prime keys
+            return MultiPrimeRSAEngine.sign((RSAMultiPrimePrivateCrtKey) privateKey, params.getSignatureAlgorythm(), message);
+        }
         try {
             signature = Signature.getInstance(params.getSignatureAlgorythm());
             signature.initSign(privateKey);
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-based key derivation function, RFC 5869
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public final class HKDF {
+
+    private final String macAlgorithm;
+
+    /**
+     * @param digester name of hash function as in CryptoParams, e.g. "SHA-256"
+     */
+    public HKDF(String digester) {
+        this.macAlgorithm = "Hmac" + digester.replace("-", "");
+    }
+
+    /**
+     * Length of output of hash function
+     *
+     * @return length in bytes
+     * @throws NoSuchAlgorithmException
+     */
+    public int getHashLen() throws NoSuchAlgorithmException {
+        return Mac.getInstance(macAlgorithm).getMacLength();
+    }
+
+    /**
+     * HKDF-Extract
+     *
+     * @param salt optional salt, null means zero filled salt of hash length
+     * @param ikm input keying material
+     * @return pseudo random key of hash length
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeyException
+     */
+    public byte[] extract(byte[] salt, byte[] ikm) throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance(macAlgorithm);
+        if (salt == null || salt.length == 0) {
+            salt = new byte[mac.getMacLength()];
+        }
+        mac.init(new SecretKeySpec(salt, macAlgorithm));
+        return mac.doFinal(ikm);
+    }
+
+    /**
+     * HKDF-Expand
+     *
+     * @param prk pseudo random key, at least hash length
+     * @param info context and application specific information
+     * @param len length of output, at most 255 hash lengths
+     * @return output keying material
+     * @throws NoSuchAlgorithmException
+     * @throws InvalidKeyException
+     */
+    public byte[] expand(byte[] prk, byte[] info, int len) throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance(macAlgorithm);
+        int hashLen = mac.getMacLength();
+        if (len < 0 || len > 255 * hashLen) {
+            throw new IllegalArgumentException("Wrong HKDF output length: " + len);
+        }
+        mac.init(new SecretKeySpec(prk, macAlgorithm));
+        byte[] okm = new byte[len];
+        byte[] t = new byte[0];
+        for (int i = 1, pos = 0; pos < len; i++) {
+            mac.update(t);
+            mac.update(info);
+            mac.update((byte) i);
+            Arrays.fill(t, (byte) 0);
+            t = mac.doFinal();
+            int n = Math.min(hashLen, len - pos);
+            System.arraycopy(t, 0, okm, pos, n);
+            pos += n;
+        }
+        Arrays.fill(t, (byte) 0);
+        return okm;
+    }
+}
@@ -16,6 +16,7 @@
 package ua.cn.al.easycrypt.impl;
 
 import ua.cn.al.easycrypt.CryptoConfig;
+import ua.cn.al.easycrypt.CryptoParams;
 import ua.cn.al.easycrypt.KeyReader;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -44,8 +45,12 @@ import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.Enumeration;
 
 import ua.cn.al.easycrypt.CryptoNotValidException;
-import java.security.spec.X509EncodedKeySpec;
+import ua.cn.al.easycrypt.PublicKeyCache;
+import ua.cn.al.easycrypt.impl.rsa.MultiPrimeRSAPrivateKey;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.edec.EdECObjectIdentifiers;
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.openssl.PEMKeyPair;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
@@ -96,6 +101,11 @@ public class KeyReaderImpl implements KeyReader {
         } else {
             parsed = null;
         }
+        //providers read multi-prime RSA keys as slow keys without CRT
+        PrivateKey multiPrime = MultiPrimeRSAPrivateKey.fromPrivateKeyInfo(parsed);
+        if (multiPrime != null) {
+            return multiPrime;
+        }
         JcaPEMKeyConverter converter = new JcaPEMKeyConverter();
         PrivateKey key = converter.getPrivateKey(parsed);
         return key;
@@ -222,10 +232,9 @@ public class KeyReaderImpl implements KeyReader {
     @Override
     public PublicKey deserializePublicKey(byte[] keyBytes) throws CryptoNotValidException {
         try {
-            X509EncodedKeySpec spec = new X509EncodedKeySpec(keyBytes);
-            KeyFactory kf = KeyFactory.getInstance("ECDSA", CryptoConfig.getProvider());
-            return kf.generatePublic(spec);
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            String algorithm = keyAlgorithm(SubjectPublicKeyInfo.getInstance(keyBytes).getAlgorithm().getAlgorithm());
+            return PublicKeyCache.getDefault().getPublicKey(algorithm, keyBytes);
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException | IllegalArgumentException ex) {
             throw new CryptoNotValidException("Unsupported or invalid ECC public key", ex);
         }
     }
@@ -242,11 +251,30 @@ public class KeyReaderImpl implements KeyReader {
     public PrivateKey deserializePrivateKey(byte[] keyBytes) throws CryptoNotValidException {
         try {
             PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(keyBytes);
-            KeyFactory kf = KeyFactory.getInstance("ECDSA", CryptoConfig.getProvider());
+            String algorithm = keyAlgorithm(PrivateKeyInfo.getInstance(keyBytes).getPrivateKeyAlgorithm().getAlgorithm());
+            KeyFactory kf = KeyFactory.getInstance(algorithm, CryptoConfig.getProvider());
             return kf.generatePrivate(spec);
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException | IllegalArgumentException ex) {
             throw new CryptoNotValidException("Unsupported or invalid ECC public key", ex);
         }
     }
 
+    /**
+     * KeyFactory algorithm by key OID: Montgomery and Edwards curve keys have
+     * own algorithms, the rest are Weierstrass curve keys. Names are the same
+     * as of KeyGeneratorEC, so decoded public keys are shared in cache.
+     */
+    private static String keyAlgorithm(ASN1ObjectIdentifier oid) {
+        if (EdECObjectIdentifiers.id_X25519.equals(oid)) {
+            return CryptoParams.CURVE_X25519;
+        } else if (EdECObjectIdentifiers.id_X448.equals(oid)) {
+            return CryptoParams.CURVE_X448;
+        } else if (EdECObjectIdentifiers.id_Ed25519.equals(oid)) {
+            return "Ed25519";
+        } else if (EdECObjectIdentifiers.id_Ed448.equals(oid)) {
+            return "Ed448";
+        }
+        return "ECDSA";
+    }
+
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl;
+
+import java.security.SecureRandom;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+
+/**
+ * Random explicit nonce from secure random generator. Probability of
+ * collision grows with number of messages, so usage limit should not
+ * exceed 2^32 for one key
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class RandomNonceGenerator extends AbstractNonceGenerator {
+
+    private final SecureRandom random = new SecureRandom();
+
+    public RandomNonceGenerator(int nonceLen, long usageLimit) {
+        super(nonceLen, usageLimit);
+    }
+
+    @Override
+    public void nextNonce(byte[] buf, int offset) throws CryptoNotValidException {
+        use();
+        byte[] en = new byte[nonceLen];
+        random.nextBytes(en);
+        System.arraycopy(en, 0, buf, offset, nonceLen);
+    }
+}
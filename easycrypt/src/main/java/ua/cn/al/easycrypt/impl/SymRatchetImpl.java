@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.SymCryptorSession;
+import ua.cn.al.easycrypt.SymKeyHandle;
+import ua.cn.al.easycrypt.SymRatchet;
+import ua.cn.al.easycrypt.dataformat.AEADCiphered;
+import ua.cn.al.easycrypt.dataformat.AEADCipheredView;
+import ua.cn.al.easycrypt.dataformat.AEADPlain;
+import ua.cn.al.easycrypt.impl.ecc.SymJCESessionImpl;
+
+/**
+ * HKDF chain ratchet, @see SymRatchet. Root key is HKDF-Extract of shared
+ * key, each direction has its own chain: chain keys of epoch 0 are
+ * HKDF-Expand of root key with info of side that sends on the chain. Sides
+ * are ordered by their encoded public keys, so message sent back to its
+ * sender is not accepted. Chain key of next epoch is HKDF-Expand of current
+ * one, symmetric key and salt of epoch are HKDF-Expand of its chain key with
+ * other info. Both chains move to next epoch together. Messages of each epoch
+ * are encrypted by SymCryptorSession with epoch key. Decryption advances to
+ * newer epoch only if message is authentic, so forged epoch numbers can not
+ * break the chain.
+ * All methods are synchronized.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class SymRatchetImpl implements SymRatchet {
+
+    private static final byte[] EXTRACT_SALT = "EasyCrypt ratchet".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INFO_CHAIN = "EasyCrypt ratchet chain".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INFO_CHAIN_LOW = "EasyCrypt ratchet chain of lower key".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INFO_CHAIN_HIGH = "EasyCrypt ratchet chain of higher key".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INFO_EPOCH_KEY = "EasyCrypt ratchet epoch key".getBytes(StandardCharsets.US_ASCII);
+
+    private final CryptoParams params;
+    private final HKDF hkdf;
+    private final long maxMessages;
+    private final long maxAgeNanos;
+    private final TreeMap<Integer, EpochKey> epochKeys = new TreeMap<>();
+    private EpochKey sendKey;
+    private byte[] sendChainKey;
+    private byte[] chainKey;
+    private int epoch = 0;
+    private long sent = 0;
+    private long epochStart;
+    private boolean destroyed = false;
+
+    /**
+     * Key and session of one epoch
+     */
+    private static final class EpochKey {
+
+        private final SymKeyHandle key;
+        private final SymCryptorSession session;
+
+        EpochKey(SymKeyHandle key, SymCryptorSession session) {
+            this.key = key;
+            this.session = session;
+        }
+    }
+
+    @FunctionalInterface
+    private interface SessionOperation<T> {
+
+        T apply(SymCryptorSession session) throws CryptoNotValidException;
+    }
+
+    /**
+     * Creates ratchet at epoch 0, both sides must use the same parameters
+     *
+     * @param params crypto parameters, define symmetric cipher and KDF hash
+     * @param sharedKey shared key from Diffie-Hellman
+     * @param ourPublicKey our encoded public key of key agreement
+     * @param theirPublicKey their encoded public key of key agreement
+     * @param maxMessages number of messages encrypted in one epoch
+     * @param maxAge time to live of epoch for encryption
+     * @throws CryptoNotValidException if public keys are equal
+     */
+    public SymRatchetImpl(CryptoParams params, byte[] sharedKey, byte[] ourPublicKey, byte[] theirPublicKey,
+            long maxMessages, Duration maxAge) throws CryptoNotValidException {
+        if (maxMessages < 1) {
+            throw new IllegalArgumentException("Number of messages in epoch must be positive: " + maxMessages);
+        }
+        int order = Arrays.compareUnsigned(ourPublicKey, theirPublicKey);
+        if (order == 0) {
+            throw new CryptoNotValidException("Public keys of sides are equal, directions of key ratchet can not be separated");
+        }
+        this.params = params;
+        this.hkdf = new HKDF(params.getKeyAgreementDigester());
+        //nonce generator of epoch session fails when usage limit of key is reached
+        this.maxMessages = Math.min(maxMessages, params.getSymKeyUsageLimit());
+        this.maxAgeNanos = maxAge.toNanos();
+        byte[] root = null;
+        try {
+            root = hkdf.extract(EXTRACT_SALT, sharedKey);
+            sendChainKey = hkdf.expand(root, order < 0 ? INFO_CHAIN_LOW : INFO_CHAIN_HIGH, root.length);
+            chainKey = hkdf.expand(root, order < 0 ? INFO_CHAIN_HIGH : INFO_CHAIN_LOW, root.length);
+        } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+            throw new CryptoNotValidException("Can not init key ratchet", ex);
+        } finally {
+            if (root != null) {
+                Arrays.fill(root, (byte) 0);
+            }
+        }
+        sendKey = deriveEpochKey(sendChainKey);
+        epochKeys.put(epoch, deriveEpochKey(chainKey));
+        epochStart = System.nanoTime();
+    }
+
+    @Override
+    public synchronized int getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public synchronized void advance() throws CryptoNotValidException {
+        checkDestroyed();
+        if (epoch == Integer.MAX_VALUE) {
+            throw new CryptoNotValidException("Key ratchet epochs are exhausted");
+        }
+        byte[] next = nextChainKey(chainKey);
+        byte[] nextSend = nextChainKey(sendChainKey);
+        TreeMap<Integer, EpochKey> keys = new TreeMap<>();
+        keys.put(epoch + 1, deriveEpochKey(next));
+        commit(epoch + 1, next, keys, nextSend, deriveEpochKey(nextSend));
+    }
+
+    @Override
+    public synchronized byte[] encrypt(byte[] plain) throws CryptoNotValidException {
+        SymCryptorSession session = sendingSession();
+        byte[] res = new byte[EPOCH_HEADER_LEN + session.getEncryptedSize(plain.length)];
+        ByteBuffer bb = ByteBuffer.wrap(res);
+        bb.putInt(epoch);
+        session.encrypt(ByteBuffer.wrap(plain), bb);
+        return res;
+    }
+
+    @Override
+    public synchronized byte[] decrypt(byte[] ciphered) throws CryptoNotValidException {
+        if (ciphered.length < EPOCH_HEADER_LEN) {
+            throw new CryptoNotValidException("Encrypted message is too short: " + ciphered.length);
+        }
+        int msgEpoch = ByteBuffer.wrap(ciphered).getInt();
+        return withEpoch(msgEpoch, session -> {
+            int size = session.getDecryptedSize(ciphered.length - EPOCH_HEADER_LEN);
+            if (size < 0) {
+                throw new CryptoNotValidException("Encrypted message is too short: " + ciphered.length);
+            }
+            byte[] res = new byte[size];
+            session.decrypt(ByteBuffer.wrap(ciphered, EPOCH_HEADER_LEN, ciphered.length - EPOCH_HEADER_LEN), ByteBuffer.wrap(res));
+            return res;
+        });
+    }
+
+    /**
+     * Epoch number is put at the beginning of AAD
+     */
+    @Override
+    public synchronized AEADCiphered encryptWithAEAData(byte[] plain, byte[] aeadata) throws CryptoNotValidException {
+        SymCryptorSession session = sendingSession();
+        int aadLen = aeadata == null ? 0 : aeadata.length;
+        ByteBuffer aad = ByteBuffer.allocate(EPOCH_HEADER_LEN + aadLen).putInt(epoch);
+        if (aeadata != null) {
+            aad.put(aeadata);
+        }
+        return session.encryptWithAEAData(plain, aad.array());
+    }
+
+    @Override
+    public synchronized AEADPlain decryptWithAEAData(byte[] message) throws CryptoNotValidException {
+        AEADCipheredView msg;
+        try {
+            msg = AEADCipheredView.wrap(ByteBuffer.wrap(message), params);
+        } catch (IllegalArgumentException ex) {
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+        if (msg.getAADLength() < EPOCH_HEADER_LEN) {
+            throw new CryptoNotValidException("Message has no key ratchet epoch");
+        }
+        AEADPlain res = withEpoch(msg.getAAD().getInt(), session -> session.decryptWithAEAData(message));
+        res.plain = Arrays.copyOfRange(res.plain, EPOCH_HEADER_LEN, res.plain.length);
+        return res;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        for (EpochKey k : epochKeys.values()) {
+            k.key.destroy();
+        }
+        epochKeys.clear();
+        if (sendKey != null) {
+            sendKey.key.destroy();
+            sendKey = null;
+        }
+        if (chainKey != null) {
+            Arrays.fill(chainKey, (byte) 0);
+            chainKey = null;
+        }
+        if (sendChainKey != null) {
+            Arrays.fill(sendChainKey, (byte) 0);
+            sendChainKey = null;
+        }
+        destroyed = true;
+    }
+
+    @Override
+    public synchronized boolean isDestroyed() {
+        return destroyed;
+    }
+
+    /**
+     * Session of current epoch for encryption, advances epoch if it is used up
+     */
+    private SymCryptorSession sendingSession() throws CryptoNotValidException {
+        checkDestroyed();
+        if (sent >= maxMessages || System.nanoTime() - epochStart >= maxAgeNanos) {
+            advance();
+        }
+        sent++;
+        return sendKey.session;
+    }
+
+    /**
+     * Runs decryption with receiving key of message epoch. Newer epoch and
+     * keys of skipped epochs that are retained are derived aside and
+     * committed only if decryption succeeds, sending chain follows.
+     */
+    private <T> T withEpoch(int msgEpoch, SessionOperation<T> op) throws CryptoNotValidException {
+        checkDestroyed();
+        if (msgEpoch <= epoch) {
+            EpochKey k = epochKeys.get(msgEpoch);
+            if (k == null) {
+                throw new CryptoNotValidException("Key of epoch " + msgEpoch + " is already erased, current epoch is " + epoch);
+            }
+            return op.apply(k.session);
+        }
+        if (msgEpoch - epoch > MAX_EPOCH_SKIP) {
+            throw new CryptoNotValidException("Epoch " + msgEpoch + " is too far ahead of current epoch " + epoch);
+        }
+        byte[] chain = chainKey.clone();
+        byte[] sendChain = null;
+        TreeMap<Integer, EpochKey> keys = new TreeMap<>();
+        try {
+            for (int i = epoch + 1; i <= msgEpoch; i++) {
+                byte[] next = nextChainKey(chain);
+                Arrays.fill(chain, (byte) 0);
+                chain = next;
+                if (i >= msgEpoch - RETAINED_EPOCHS) {
+                    keys.put(i, deriveEpochKey(chain));
+                }
+            }
+            T res = op.apply(keys.get(msgEpoch).session);
+            sendChain = sendChainKey.clone();
+            for (int i = epoch + 1; i <= msgEpoch; i++) {
+                byte[] next = nextChainKey(sendChain);
+                Arrays.fill(sendChain, (byte) 0);
+                sendChain = next;
+            }
+            commit(msgEpoch, chain, keys, sendChain, deriveEpochKey(sendChain));
+            return res;
+        } catch (CryptoNotValidException ex) {
+            Arrays.fill(chain, (byte) 0);
+            if (sendChain != null) {
+                Arrays.fill(sendChain, (byte) 0);
+            }
+            for (EpochKey k : keys.values()) {
+                k.key.destroy();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Makes new epoch current, erases previous chain keys, previous sending
+     * key and receiving keys of epochs that are not retained anymore
+     *
+     * @param keys receiving keys of new epoch and of skipped epochs
+     */
+    private void commit(int newEpoch, byte[] newChainKey, Map<Integer, EpochKey> keys, byte[] newSendChainKey, EpochKey newSendKey) {
+        Arrays.fill(chainKey, (byte) 0);
+        chainKey = newChainKey;
+        Arrays.fill(sendChainKey, (byte) 0);
+        sendChainKey = newSendChainKey;
+        sendKey.key.destroy();
+        sendKey = newSendKey;
+        epoch = newEpoch;
+        epochKeys.putAll(keys);
+        while (epochKeys.firstKey() < newEpoch - RETAINED_EPOCHS) {
+            Map.Entry<Integer, EpochKey> e = epochKeys.pollFirstEntry();
+            e.getValue().key.destroy();
+        }
+        sent = 0;
+        epochStart = System.nanoTime();
+    }
+
+    private byte[] nextChainKey(byte[] chain) throws CryptoNotValidException {
+        try {
+            return hkdf.expand(chain, INFO_CHAIN, chain.length);
+        } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+            throw new CryptoNotValidException("Can not advance key ratchet", ex);
+        }
+    }
+
+    private EpochKey deriveEpochKey(byte[] chain) throws CryptoNotValidException {
+        int keyLen = params.getAesKeyLen();
+        int saltLen = params.getAesGcmSaltLen();
+        byte[] material = null;
+        byte[] key = null;
+        try {
+            material = hkdf.expand(chain, INFO_EPOCH_KEY, keyLen + saltLen);
+            key = Arrays.copyOf(material, keyLen);
+            SymKeyHandle handle = new SymKeyHandle(params, key);
+            byte[] salt = Arrays.copyOfRange(material, keyLen, keyLen + saltLen);
+            return new EpochKey(handle, new SymJCESessionImpl(params, handle, salt, AbstractNonceGenerator.create(params)));
+        } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+            throw new CryptoNotValidException("Can not derive key of epoch", ex);
+        } finally {
+            if (material != null) {
+                Arrays.fill(material, (byte) 0);
+            }
+            if (key != null) {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+    }
+
+    private void checkDestroyed() throws CryptoNotValidException {
+        if (destroyed) {
+            throw new CryptoNotValidException("Key ratchet is destroyed");
+        }
+    }
+}
@@ -19,24 +19,31 @@ package ua.cn.al.easycrypt.impl.ecc;
 import ua.cn.al.easycrypt.CryptoConfig;
 import ua.cn.al.easycrypt.impl.AbstractAsymDH;
 import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.PublicKeyCache;
 import ua.cn.al.easycrypt.CryptoParams;
 import ua.cn.al.easycrypt.dataformat.AEADPlain;
 import ua.cn.al.easycrypt.dataformat.AEADCiphered;
+import ua.cn.al.easycrypt.dataformat.AEADCipheredView;
+import ua.cn.al.easycrypt.impl.CipherBuffers;
+import ua.cn.al.easycrypt.dataformat.CipheredView;
 import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
@@ -47,6 +54,7 @@ import javax.crypto.spec.SecretKeySpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ua.cn.al.easycrypt.AsymCryptorDH;
+import ua.cn.al.easycrypt.SharedKeyCache;
 
 /**
  *
@@ -56,14 +64,34 @@ public class AsymJCEECDHImpl extends AbstractAsymDH implements AsymCryptorDH {
     private static final Logger log = LoggerFactory.getLogger(AsymJCEECDHImpl.class);
     private final SecureRandom random = new SecureRandom();
 
+    /**
+     * Minimal number of public keys to calculate shared keys in parallel
+     */
+    public static final int SHARED_KEYS_PARALLEL_THRESHOLD = 8;
+
+    /**
+     * DH cryptor for curve of parameters, X25519/X448 or Weierstrass curve
+     */
+    static AsymJCEECDHImpl forParams(CryptoParams params) {
+        return params.isXdhCurve() ? new AsymJCEX25519Impl(params) : new AsymJCEECDHImpl(params);
+    }
+
     public AsymJCEECDHImpl(CryptoParams params) {
         super(params);
     }
 
+    public AsymJCEECDHImpl(CryptoParams params, SharedKeyCache sharedKeyCache) {
+        super(params, sharedKeyCache);
+    }
+
     @Override
     public byte[] ecdheStep1() throws CryptoNotValidException{
-        KeyGeneratorEC kg = new KeyGeneratorEC(params);       
-        ephemeralKeys = kg.generateKeys();
+        if (ephemeralKeyPool != null) {
+            ephemeralKeys = ephemeralKeyPool.take();
+        } else {
+            KeyGeneratorEC kg = new KeyGeneratorEC(params);
+            ephemeralKeys = kg.generateKeys();
+        }
         byte[] key = ephemeralKeys.getPublic().getEncoded();
         byte[] signature = signer.sign(key);
         int capacity = Integer.BYTES+key.length+signature.length;
@@ -86,48 +114,151 @@ public class AsymJCEECDHImpl extends AbstractAsymDH implements AsymCryptorDH {
         if(!ok){
              throw new CryptoNotValidException("ECDHE public key signature is not valid!");
         }
-        KeyFactory kf;
         try {
-            kf = KeyFactory.getInstance("ECDSA", "BC");
-            PublicKey theirPub = kf.generatePublic(new X509EncodedKeySpec(key));   
+            PublicKey theirPub = decodePublicKey(key);
             byte[] skh = doCalculateShared(ephemeralKeys.getPublic(), ephemeralKeys.getPrivate(), theirPub);
             SecretKeySpec sk = new SecretKeySpec(skh, "AES");
             ephemeralKeys=null; //allow GC to clean tmp keys
             return sk.getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException | InvalidKeyException | NoSuchProviderException ex ) {
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException | InvalidKeyException ex ) {
             String msg = "Something wrong with public key from other side";
             log.error(msg, ex);
             throw new CryptoNotValidException(msg, ex);
         }
     }
     
+    /**
+     * Decodes X509 encoded public key of other side
+     */
+    protected PublicKey decodePublicKey(byte[] key) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        return PublicKeyCache.getDefault().getPublicKey(getKeyAlgorithm(), key);
+    }
+
+    /**
+     * Name of KeyFactory algorithm for keys of this cryptor
+     */
+    protected String getKeyAlgorithm() {
+        return "ECDSA";
+    }
+
+    /**
+     * Name of KeyAgreement algorithm
+     */
+    protected String getKeyAgreementAlgorithm() {
+        return "ECDH";
+    }
+
     @Override
     protected byte[] doCalculateShared(PublicKey ourPub, PrivateKey ourPriv, PublicKey theirPub) throws NoSuchAlgorithmException, InvalidKeyException{
-            KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH", CryptoConfig.getProvider());
+            KeyAgreement keyAgreement = KeyAgreement.getInstance(getKeyAgreementAlgorithm(), CryptoConfig.getProvider());
+            MessageDigest hash = MessageDigest.getInstance(params.getKeyAgreementDigester());
+            return agree(keyAgreement, hash, ourPriv, theirPub, ourPublicKey.getEncoded(), theirPublicKey.getEncoded());
+    }
+
+    /**
+     * Key agreement followed by hash of secret and both public keys
+     */
+    private static byte[] agree(KeyAgreement keyAgreement, MessageDigest hash, PrivateKey ourPriv, PublicKey theirPub,
+            byte[] ourEncoded, byte[] theirEncoded) throws InvalidKeyException {
             keyAgreement.init(ourPriv);
             keyAgreement.doPhase(theirPub, true);
             byte[] sk = keyAgreement.generateSecret();
-            MessageDigest hash = MessageDigest.getInstance(params.getKeyAgreementDigester());
             hash.update(sk);
+            Arrays.fill(sk, (byte) 0);
             // Simple deterministic ordering of keys to get same result on both ends
-            List<ByteBuffer> keys = Arrays.asList(ByteBuffer.wrap(ourPublicKey.getEncoded()), ByteBuffer.wrap(theirPublicKey.getEncoded()));
+            List<ByteBuffer> keys = Arrays.asList(ByteBuffer.wrap(ourEncoded), ByteBuffer.wrap(theirEncoded));
             Collections.sort(keys);
             hash.update(keys.get(0));
             hash.update(keys.get(1));
             byte[] skh = hash.digest();  
             return skh;
     }
-    
+
+    @Override
+    public List<byte[]> calculateSharedKeys(List<PublicKey> theirKeys) throws CryptoNotValidException {
+        return calculateSharedKeys(theirKeys, ForkJoinPool.commonPool());
+    }
+
+    @Override
+    public List<byte[]> calculateSharedKeys(List<PublicKey> theirKeys, ForkJoinPool pool) throws CryptoNotValidException {
+        if (privateKey == null || ourPublicKey == null) {
+            throw new CryptoNotValidException("Our keys are not set");
+        }
+        //key of provider class, so KeyAgreement.init does not convert it for each public key
+        PrivateKey ourPriv = privateKey;
+        try {
+            ourPriv = (PrivateKey) KeyFactory.getInstance(getKeyAlgorithm(), CryptoConfig.getProvider()).translateKey(privateKey);
+        } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+            log.debug("Private key is used as is: {}", ex.getMessage());
+        }
+        byte[] ourEncoded = ourPublicKey.getEncoded();
+        int n = theirKeys.size();
+        byte[][] res = new byte[n][];
+        AtomicReference<CryptoNotValidException> error = new AtomicReference<>();
+        PrivateKey agreementKey = ourPriv;
+        if (pool == null || n < SHARED_KEYS_PARALLEL_THRESHOLD) {
+            calculateSharedChunk(agreementKey, ourEncoded, theirKeys, 0, n, res, error);
+        } else {
+            int chunks = Math.min(n, pool.getParallelism() * 4);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+            for (int c = 0; c < chunks; c++) {
+                int from = (int) ((long) n * c / chunks);
+                int to = (int) ((long) n * (c + 1) / chunks);
+                tasks.add(pool.submit(() -> calculateSharedChunk(agreementKey, ourEncoded, theirKeys, from, to, res, error)));
+            }
+            for (ForkJoinTask<?> t : tasks) {
+                t.join();
+            }
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return Arrays.asList(res);
+    }
+
+    /**
+     * Calculates shared keys of one chunk with one KeyAgreement and digest,
+     * stops at first error
+     */
+    private void calculateSharedChunk(PrivateKey ourPriv, byte[] ourEncoded, List<PublicKey> theirKeys, int from, int to,
+            byte[][] res, AtomicReference<CryptoNotValidException> error) {
+        int i = from;
+        try {
+            KeyAgreement keyAgreement = KeyAgreement.getInstance(getKeyAgreementAlgorithm(), CryptoConfig.getProvider());
+            MessageDigest hash = MessageDigest.getInstance(params.getKeyAgreementDigester());
+            for (; i < to && error.get() == null; i++) {
+                PublicKey theirPub = theirKeys.get(i);
+                if (sharedKeyCache == null) {
+                    res[i] = agree(keyAgreement, hash, ourPriv, theirPub, ourEncoded, theirPub.getEncoded());
+                } else {
+                    res[i] = sharedKeyCache.getOrCalculate(getOurKeysFingerprint(), theirPub,
+                            () -> agree(keyAgreement, hash, ourPriv, theirPub, ourEncoded, theirPub.getEncoded()));
+                }
+            }
+        } catch (NoSuchAlgorithmException | InvalidKeyException | RuntimeException ex) {
+            error.compareAndSet(null, new CryptoNotValidException("Can not calculate shared key with public key #" + i, ex));
+        }
+    }
+
+    /**
+     * Shared key calculated by setKeys(), so it is not calculated twice
+     *
+     * @return shared key or null if it could not be calculated
+     */
+    byte[] getSharedKey() {
+        return sharedKey == null ? null : sharedKey.getEncoded();
+    }
+
     @Override
-    public byte[] calculateSharedKey() {
+    public byte[] calculateSharedKey() throws CryptoNotValidException {
         try {
-            byte[] skh= doCalculateShared(ourPublicKey, privateKey, theirPublicKey);
+            byte[] skh= calculateShared(ourPublicKey, privateKey, theirPublicKey);
             sharedKey = new SecretKeySpec(skh, "AES");
             return sharedKey.getEncoded();
         } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
-            log.error(ex.getMessage());
+            sharedKey = null;
+            throw new CryptoNotValidException("Can not calculate shared key", ex);
         }
-        return null;
     }
     
     @Override
@@ -154,14 +285,36 @@ public class AsymJCEECDHImpl extends AbstractAsymDH implements AsymCryptorDH {
     @Override
     public byte[] decrypt(byte[] ciphered) throws CryptoNotValidException {
         try {
-            byte[] iv = Arrays.copyOf(ciphered, params.getAesIvLen());
+            CipheredView msg = CipheredView.wrap(ByteBuffer.wrap(ciphered));
+            byte[] iv = new byte[params.getAesIvLen()];
+            msg.getIV().get(iv);
             gcmParameterSpecAsym = new GCMParameterSpec(params.getGcmAuthTagLenBits(), iv);
 
             blockCipherAsym.init(Cipher.DECRYPT_MODE, sharedKey, gcmParameterSpecAsym);
-            byte[] decrypted = new byte[blockCipherAsym.getOutputSize(ciphered.length - params.getAesIvLen())];
-            int updateSize = blockCipherAsym.update(ciphered, params.getAesIvLen(), ciphered.length - params.getAesIvLen(), decrypted);
-            blockCipherAsym.doFinal(decrypted, updateSize);
-            return decrypted;
+            byte[] decrypted = new byte[blockCipherAsym.getOutputSize(msg.getEncryptedLength())];
+            int size = blockCipherAsym.doFinal(msg.getEncrypted(), ByteBuffer.wrap(decrypted));
+            return size == decrypted.length ? decrypted : Arrays.copyOf(decrypted, size);
+        } catch (IllegalArgumentException ex) {
+            throw new CryptoNotValidException("Decryption failed", ex);
+        } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException
+                | InvalidKeyException | InvalidAlgorithmParameterException ex) {
+            log.error(ex.getMessage());
+            throw new CryptoNotValidException("Decryption failed", ex);
+        }
+    }
+
+    @Override
+    public int decryptInPlace(byte[] buf, int off, int len) throws CryptoNotValidException {
+        int ivLen = params.getAesIvLen();
+        Objects.checkFromIndexSize(off, len, buf.length);
+        if (len < ivLen + params.getGcmAuthTagLenBits() / 8) {
+            throw new CryptoNotValidException("Encrypted message is too short: " + len);
+        }
+        try {
+            gcmParameterSpecAsym = new GCMParameterSpec(params.getGcmAuthTagLenBits(), buf, off, ivLen);
+            blockCipherAsym.init(Cipher.DECRYPT_MODE, sharedKey, gcmParameterSpecAsym);
+            //array variant of doFinal is copy-safe for overlapping input and output
+            return blockCipherAsym.doFinal(buf, off + ivLen, len - ivLen, buf, off);
         } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException
                 | InvalidKeyException | InvalidAlgorithmParameterException ex) {
             log.error(ex.getMessage());
@@ -171,6 +324,7 @@ public class AsymJCEECDHImpl extends AbstractAsymDH implements AsymCryptorDH {
 
     @Override
     public AEADCiphered encryptWithAEAData(byte[] plain, byte[] aeadata) throws CryptoNotValidException {
+        AEADCiphered.checkSize(aeadata == null ? 0 : aeadata.length, (long) plain.length + params.getGcmAuthTagLenBits() / 8, params);
         try {
             byte[] iv = new byte[params.getAesIvLen()];
             random.nextBytes(iv);
@@ -198,15 +352,23 @@ public class AsymJCEECDHImpl extends AbstractAsymDH implements AsymCryptorDH {
     @Override
     public AEADPlain decryptWithAEAData(byte[] message) throws CryptoNotValidException {
         AEADPlain res = new AEADPlain();
-        AEADCiphered msg = AEADCiphered.fromBytes(message, params);
-        gcmParameterSpecAsym = new GCMParameterSpec(params.getGcmAuthTagLenBits(), msg.getIV());
+        AEADCipheredView msg;
+        try {
+            msg = AEADCipheredView.wrap(ByteBuffer.wrap(message), params);
+        } catch (IllegalArgumentException ex) {
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+        byte[] iv = new byte[params.getAesIvLen()];
+        msg.getIV().get(iv);
+        gcmParameterSpecAsym = new GCMParameterSpec(params.getGcmAuthTagLenBits(), iv);
         try {
             blockCipherAsym.init(Cipher.DECRYPT_MODE, sharedKey, gcmParameterSpecAsym);
-            blockCipherAsym.updateAAD(msg.aatext);
-            res.decrypted = new byte[blockCipherAsym.getOutputSize(msg.encrypted.length)];
-            int updateSize = blockCipherAsym.update(msg.encrypted, 0, msg.encrypted.length, res.decrypted);
-            blockCipherAsym.doFinal(res.decrypted, updateSize);
-            res.plain = msg.aatext;
+            CipherBuffers.updateAAD(blockCipherAsym, msg.getAAD());
+            byte[] decrypted = new byte[blockCipherAsym.getOutputSize(msg.getEncryptedLength())];
+            int size = blockCipherAsym.doFinal(msg.getEncrypted(), ByteBuffer.wrap(decrypted));
+            res.decrypted = size == decrypted.length ? decrypted : Arrays.copyOf(decrypted, size);
+            res.plain = new byte[msg.getAADLength()];
+            msg.getAAD().get(res.plain);
             res.hmacOk = true;
             return res;
         } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException
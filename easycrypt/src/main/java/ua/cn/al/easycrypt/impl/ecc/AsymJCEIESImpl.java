@@ -19,22 +19,33 @@ package ua.cn.al.easycrypt.impl.ecc;
 import ua.cn.al.easycrypt.impl.AbstractAsymCryptor;
 import ua.cn.al.easycrypt.CryptoNotValidException;
 import ua.cn.al.easycrypt.CryptoParams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
 import org.bouncycastle.jce.spec.IESParameterSpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ua.cn.al.easycrypt.dataformat.AEADCiphered;
+import ua.cn.al.easycrypt.dataformat.AEADCipheredView;
 import ua.cn.al.easycrypt.dataformat.AEADPlain;
+import ua.cn.al.easycrypt.dataformat.KemHeader;
 import ua.cn.al.easycrypt.AsymCryptor;
 
 /**
+ * Integrated Encryption Scheme on EC keys. encrypt()/decrypt() use IES cipher
+ * of parameters (ECIES with AES-CBC and HMAC by default), AEAD methods use
+ * ECIES-KEM with AEAD symmetric cipher.
  *
  * @author Oleksiy Lukin alukin@gmail.com
  */
@@ -42,9 +53,12 @@ public class AsymJCEIESImpl extends AbstractAsymCryptor implements AsymCryptor {
     
     private static final Logger log = LoggerFactory.getLogger(AsymJCEIESImpl.class);
     private final SecureRandom random = new SecureRandom();
+    private final ECDHKem kem;
+    private Cipher aeadCipher;
 
     public AsymJCEIESImpl(CryptoParams params) throws CryptoNotValidException {
         super(params);
+        this.kem = new ECDHKem(params);
     }
 
     @Override
@@ -82,14 +96,89 @@ public class AsymJCEIESImpl extends AbstractAsymCryptor implements AsymCryptor {
         }
     }
 
+    /**
+     * ECIES-KEM with AEAD symmetric cipher of parameters (AES-GCM): ephemeral
+     * ECDH with public key of other side gives content key and IV, @see ECDHKem.
+     * Encrypted part of message is KEM header followed by cipher text and tag,
+     * so AAD is authenticated in one pass of AEAD cipher.
+     */
     @Override
     public AEADCiphered encryptWithAEAData(byte[] plain, byte[] aeadata) throws CryptoNotValidException {
-        throw new UnsupportedOperationException("AEAD operation are NON supported in IES mode");
+        ECDHKem.Encapsulated enc = kem.encapsulate(theirPublicKey);
+        try {
+            byte[] kemHeader = enc.getHeader().toBytes();
+            AEADCiphered.checkSize(aeadata == null ? 0 : aeadata.length,
+                    (long) kemHeader.length + plain.length + params.getGcmAuthTagLenBits() / 8, params);
+            Cipher cipher = initAEADCipher(Cipher.ENCRYPT_MODE, enc);
+            AEADCiphered msg = new AEADCiphered(params);
+            msg.setIV(enc.getIV());
+            if (aeadata != null) {
+                cipher.updateAAD(aeadata);
+                msg.aatext = aeadata;
+            }
+            msg.encrypted = new byte[kemHeader.length + cipher.getOutputSize(plain.length)];
+            System.arraycopy(kemHeader, 0, msg.encrypted, 0, kemHeader.length);
+            cipher.doFinal(plain, 0, plain.length, msg.encrypted, kemHeader.length);
+            return msg;
+        } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException ex) {
+            log.error(ex.getMessage());
+            throw new CryptoNotValidException("AEAD encryption failed", ex);
+        } finally {
+            enc.zero();
+        }
     }
 
     @Override
     public AEADPlain decryptWithAEAData(byte[] message) throws CryptoNotValidException {
-        throw new UnsupportedOperationException("AEAD operation are NON supported in IES mode");
+        AEADCipheredView msg;
+        try {
+            msg = AEADCipheredView.wrap(ByteBuffer.wrap(message), params);
+        } catch (IllegalArgumentException ex) {
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+        byte[] encrypted = new byte[msg.getEncryptedLength()];
+        msg.getEncrypted().get(encrypted);
+        ByteArrayInputStream in = new ByteArrayInputStream(encrypted);
+        KemHeader header;
+        try {
+            header = KemHeader.readFrom(in);
+        } catch (IOException ex) {
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+        int off = encrypted.length - in.available();
+        ECDHKem.Encapsulated enc = kem.decapsulate(header, ourPublicKey, privateKey);
+        try {
+            byte[] iv = new byte[params.getAesIvLen()];
+            msg.getIV().get(iv);
+            if (!Arrays.equals(iv, enc.getIV())) {
+                throw new CryptoNotValidException("IV of message does not match encapsulated key");
+            }
+            Cipher cipher = initAEADCipher(Cipher.DECRYPT_MODE, enc);
+            AEADPlain res = new AEADPlain();
+            res.plain = new byte[msg.getAADLength()];
+            msg.getAAD().get(res.plain);
+            cipher.updateAAD(res.plain);
+            res.decrypted = cipher.doFinal(encrypted, off, encrypted.length - off);
+            res.hmacOk = true;
+            return res;
+        } catch (IllegalBlockSizeException | BadPaddingException ex) {
+            log.error(ex.getMessage());
+            throw new CryptoNotValidException("AEAD decryption failed", ex);
+        } finally {
+            enc.zero();
+        }
     }
-    
+
+    private Cipher initAEADCipher(int mode, ECDHKem.Encapsulated enc) throws CryptoNotValidException {
+        try {
+            if (aeadCipher == null) {
+                aeadCipher = Cipher.getInstance(params.getSymCipher());
+            }
+            aeadCipher.init(mode, new SecretKeySpec(enc.getKey(), params.getSymKeyAlgorithm()), params.getSymParameterSpec(enc.getIV()));
+            return aeadCipher;
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException ex) {
+            throw new CryptoNotValidException("Can not init AEAD cipher", ex);
+        }
+    }
+
 }
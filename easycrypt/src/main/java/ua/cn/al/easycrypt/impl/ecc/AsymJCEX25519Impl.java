@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl.ecc;
+
+import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.SharedKeyCache;
+
+/**
+ * Diffie-Hellman on Montgomery curve X25519 (or X448), RFC 7748. Key agreement
+ * is several times faster than on Weierstrass curves of the same security and
+ * keys are 32 bytes. Message formats are the same as of AsymJCEECDHImpl.
+ * X25519 keys can not sign, so keys set by setKeys() are either X25519 keys
+ * for static ECDH or Ed25519 keys that sign ephemeral X25519 keys in ECDHE,
+ * @see KeyGeneratorEC#generateSignatureKeys()
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class AsymJCEX25519Impl extends AsymJCEECDHImpl {
+
+    public AsymJCEX25519Impl(CryptoParams params) {
+        this(params, null);
+    }
+
+    public AsymJCEX25519Impl(CryptoParams params, SharedKeyCache sharedKeyCache) {
+        super(params, sharedKeyCache);
+        if (!params.isXdhCurve()) {
+            throw new IllegalArgumentException("Curve " + params.getDefaultCurve() + " is not X25519 or X448");
+        }
+    }
+
+    @Override
+    protected String getKeyAlgorithm() {
+        return params.getDefaultCurve();
+    }
+
+    @Override
+    protected String getKeyAgreementAlgorithm() {
+        return params.getDefaultCurve();
+    }
+
+    /**
+     * Calculates static shared key if X25519 keys are set, signature keys are
+     * good for ECDHE only
+     *
+     * @return encoded shared key
+     * @throws CryptoNotValidException if keys are not X25519 keys
+     */
+    @Override
+    public byte[] calculateSharedKey() throws CryptoNotValidException {
+        if (privateKey == null || !isXdhKey(privateKey.getAlgorithm())) {
+            sharedKey = null;
+            throw new CryptoNotValidException("Keys are not X25519 keys, only ECDHE is possible");
+        }
+        return super.calculateSharedKey();
+    }
+
+    private static boolean isXdhKey(String algorithm) {
+        //SunEC names all Montgomery keys XDH
+        return CryptoParams.CURVE_X25519.equals(algorithm) || CryptoParams.CURVE_X448.equals(algorithm) || "XDH".equals(algorithm);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl.ecc;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import javax.crypto.KeyAgreement;
+import ua.cn.al.easycrypt.CryptoConfig;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.dataformat.KemHeader;
+import ua.cn.al.easycrypt.dataformat.SegmentedAEADHeader;
+import ua.cn.al.easycrypt.impl.HKDF;
+
+/**
+ * Key encapsulation on ECDH (ECIES-KEM): sender generates ephemeral key pair,
+ * content key and IV are derived by HKDF from ECDH secret of ephemeral key and
+ * recipient key. Only one public key operation is done per stream, the rest of stream
+ * is encrypted by symmetric cipher, @see KemHeader
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class ECDHKem {
+
+    private static final byte[] KEY_INFO = "EasyCrypt KEM stream".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Content key and IV of one stream with header that encapsulates them
+     */
+    public static class Encapsulated {
+
+        private final KemHeader header;
+        private final byte[] key;
+        private final byte[] iv;
+
+        Encapsulated(KemHeader header, byte[] key, byte[] iv) {
+            this.header = header;
+            this.key = key;
+            this.iv = iv;
+        }
+
+        public KemHeader getHeader() {
+            return header;
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        public byte[] getIV() {
+            return iv;
+        }
+
+        /**
+         * Zeroes content key when stream cipher is created
+         */
+        public void zero() {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    private final CryptoParams params;
+    private final KeyGeneratorEC keyGenerator;
+    private final HKDF hkdf;
+
+    public ECDHKem(CryptoParams params) {
+        this.params = params;
+        this.keyGenerator = new KeyGeneratorEC(params);
+        this.hkdf = new HKDF(params.getKeyAgreementDigester());
+    }
+
+    /**
+     * Generates ephemeral key pair and derives content key for recipient
+     *
+     * @param recipient public key agreement key of recipient
+     * @return content key, IV and header to send
+     * @throws CryptoNotValidException if key of recipient is not valid
+     */
+    public Encapsulated encapsulate(PublicKey recipient) throws CryptoNotValidException {
+        KeyPair ephemeral = keyGenerator.generateKeys();
+        if (ephemeral == null) {
+            throw new CryptoNotValidException("Can not generate ephemeral keys");
+        }
+        KemHeader header = new KemHeader(ephemeral.getPublic().getEncoded());
+        return derive(header, ephemeral.getPrivate(), recipient, recipient);
+    }
+
+    /**
+     * Derives content key of received stream
+     *
+     * @param header header of stream
+     * @param ourPub our public key
+     * @param ourPriv our private key
+     * @return content key and IV
+     * @throws CryptoNotValidException if ephemeral key is not valid
+     */
+    public Encapsulated decapsulate(KemHeader header, PublicKey ourPub, PrivateKey ourPriv) throws CryptoNotValidException {
+        PublicKey ephemeral = keyGenerator.createPublicKeyFromBytes(header.getEphemeralKey());
+        if (ephemeral == null) {
+            throw new CryptoNotValidException("Ephemeral key of stream is not valid");
+        }
+        return derive(header, ourPriv, ephemeral, ourPub);
+    }
+
+    /**
+     * Raw ECDH secret goes to HKDF with header as salt and recipient key in
+     * info, so one key agreement is done on each side
+     */
+    private Encapsulated derive(KemHeader header, PrivateKey ourPriv, PublicKey theirPub, PublicKey recipient) throws CryptoNotValidException {
+        byte[] secret = null;
+        byte[] prk = null;
+        byte[] okm = null;
+        try {
+            KeyAgreement keyAgreement = KeyAgreement.getInstance(params.isXdhCurve() ? params.getDefaultCurve() : "ECDH",
+                    CryptoConfig.getProvider());
+            keyAgreement.init(ourPriv);
+            keyAgreement.doPhase(theirPub, true);
+            secret = keyAgreement.generateSecret();
+            prk = hkdf.extract(header.toBytes(), secret);
+            byte[] recipientEncoded = recipient.getEncoded();
+            byte[] info = Arrays.copyOf(KEY_INFO, KEY_INFO.length + recipientEncoded.length);
+            System.arraycopy(recipientEncoded, 0, info, KEY_INFO.length, recipientEncoded.length);
+            okm = hkdf.expand(prk, info, params.getAesKeyLen() + SegmentedAEADHeader.IV_LEN);
+            return new Encapsulated(header, Arrays.copyOf(okm, params.getAesKeyLen()),
+                    Arrays.copyOfRange(okm, params.getAesKeyLen(), okm.length));
+        } catch (NoSuchAlgorithmException | InvalidKeyException | IllegalStateException ex) {
+            throw new CryptoNotValidException("Can not derive content key, key agreement keys are required", ex);
+        } finally {
+            for (byte[] b : new byte[][]{secret, prk, okm}) {
+                if (b != null) {
+                    Arrays.fill(b, (byte) 0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl.ecc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import ua.cn.al.easycrypt.AsymCryptorDH;
+import ua.cn.al.easycrypt.AsymKeysHolder;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.EnvelopeCryptor;
+import ua.cn.al.easycrypt.dataformat.AEADCiphered;
+import ua.cn.al.easycrypt.dataformat.AEADCipheredView;
+import ua.cn.al.easycrypt.dataformat.AEADPlain;
+import ua.cn.al.easycrypt.dataformat.EnvelopeHeader;
+import ua.cn.al.easycrypt.impl.HKDF;
+
+/**
+ * Multi-recipient envelope on ECDH. One ephemeral key pair is generated per
+ * envelope, shared keys with all recipients are calculated by
+ * AsymCryptorDH#calculateSharedKeys, key encryption key of recipient is
+ * HKDF of shared key with ephemeral public key as salt. Data key is wrapped
+ * and payload is encrypted by symmetric cipher of crypto parameters.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class EnvelopeCryptorImpl implements EnvelopeCryptor {
+
+    private static final byte[] WRAP_INFO = "EasyCrypt envelope key wrap".getBytes(StandardCharsets.UTF_8);
+    private static final String KEY_ID_DIGEST = "SHA-256";
+
+    private final CryptoParams params;
+    private final KeyGeneratorEC keyGenerator;
+    private final HKDF hkdf;
+    private final SecureRandom random = new SecureRandom();
+
+    public EnvelopeCryptorImpl(CryptoParams params) {
+        this.params = params;
+        this.keyGenerator = new KeyGeneratorEC(params);
+        this.hkdf = new HKDF(params.getKeyAgreementDigester());
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plain, List<PublicKey> recipients) throws CryptoNotValidException {
+        if (recipients.isEmpty() || recipients.size() > EnvelopeHeader.MAX_RECIPIENTS) {
+            throw new CryptoNotValidException("Number of recipients must be between 1 and " + EnvelopeHeader.MAX_RECIPIENTS);
+        }
+        KeyPair ephemeral = keyGenerator.generateKeys();
+        if (ephemeral == null) {
+            throw new CryptoNotValidException("Can not generate ephemeral keys");
+        }
+        byte[] ephemeralEncoded = ephemeral.getPublic().getEncoded();
+        //size is known before key agreement with all recipients
+        SymJCEImpl wrapper = new SymJCEImpl(params);
+        int wrappedLen = wrapper.getEncryptedSize(params.getAesKeyLen());
+        long payloadLen = (long) plain.length + params.getGcmAuthTagLenBits() / 8;
+        int maxRecipients = EnvelopeHeader.maxRecipients(ephemeralEncoded.length, wrappedLen, payloadLen,
+                Math.max(AEADCiphered.MAX_MSG_SIZE, params.getAeadMaxMsgSize()));
+        if (recipients.size() > maxRecipients) {
+            throw new CryptoNotValidException("Envelope of " + plain.length + " bytes can have at most " + maxRecipients
+                    + " recipients, maximal message size is " + params.getAeadMaxMsgSize());
+        }
+        AsymCryptorDH dh = AsymJCEECDHImpl.forParams(params);
+        dh.setKeys(new AsymKeysHolder(ephemeral.getPublic(), ephemeral.getPrivate(), null));
+        List<byte[]> shared = dh.calculateSharedKeys(recipients);
+
+        byte[] dataKey = new byte[params.getAesKeyLen()];
+        random.nextBytes(dataKey);
+        try {
+            List<EnvelopeHeader.Recipient> entries = new ArrayList<>(recipients.size());
+            for (int i = 0; i < recipients.size(); i++) {
+                byte[] kek = deriveKek(shared.get(i), ephemeralEncoded);
+                try {
+                    wrapper.setKey(kek);
+                    wrapper.setNonce(null);
+                    entries.add(new EnvelopeHeader.Recipient(getKeyId(recipients.get(i)), wrapper.encrypt(dataKey)));
+                } finally {
+                    Arrays.fill(kek, (byte) 0);
+                    Arrays.fill(shared.get(i), (byte) 0);
+                }
+            }
+            byte[] header = new EnvelopeHeader(ephemeralEncoded, entries).toBytes();
+            SymJCEImpl sym = new SymJCEImpl(params);
+            sym.setKey(dataKey);
+            sym.setNonce(null);
+            AEADCiphered msg = sym.encryptWithAEAData(plain, header);
+            return msg.toBytes();
+        } finally {
+            Arrays.fill(dataKey, (byte) 0);
+        }
+    }
+
+    @Override
+    public byte[] decrypt(byte[] envelope, PublicKey ourPub, PrivateKey ourPriv) throws CryptoNotValidException {
+        EnvelopeHeader header = parseHeader(envelope);
+        List<EnvelopeHeader.Recipient> ours = header.findRecipients(getKeyId(ourPub));
+        if (ours.isEmpty()) {
+            throw new CryptoNotValidException("Envelope is not addressed to this key");
+        }
+        byte[] ephemeralEncoded = header.getEphemeralKey();
+        PublicKey ephemeral = keyGenerator.createPublicKeyFromBytes(ephemeralEncoded);
+        if (ephemeral == null) {
+            throw new CryptoNotValidException("Ephemeral key of envelope is not valid");
+        }
+        AsymJCEECDHImpl dh = AsymJCEECDHImpl.forParams(params);
+        dh.setKeys(new AsymKeysHolder(ourPub, ourPriv, ephemeral));
+        byte[] shared = dh.getSharedKey();
+        if (shared == null) {
+            throw new CryptoNotValidException("Can not calculate shared key, key agreement keys are required");
+        }
+        byte[] kek = deriveKek(shared, ephemeralEncoded);
+        byte[] dataKey = null;
+        try {
+            SymJCEImpl wrapper = new SymJCEImpl(params);
+            wrapper.setKey(kek);
+            //key IDs may collide, entry of other key fails authentication
+            for (int i = 0; i < ours.size() && dataKey == null; i++) {
+                try {
+                    dataKey = wrapper.decrypt(ours.get(i).getWrappedKey());
+                } catch (CryptoNotValidException ex) {
+                    dataKey = null;
+                }
+            }
+            if (dataKey == null) {
+                throw new CryptoNotValidException("Can not unwrap data key of envelope");
+            }
+            SymJCEImpl sym = new SymJCEImpl(params);
+            sym.setKey(dataKey);
+            AEADPlain res = sym.decryptWithAEAData(envelope);
+            return res.decrypted;
+        } finally {
+            Arrays.fill(shared, (byte) 0);
+            Arrays.fill(kek, (byte) 0);
+            if (dataKey != null) {
+                Arrays.fill(dataKey, (byte) 0);
+            }
+        }
+    }
+
+    @Override
+    public List<byte[]> getRecipientIds(byte[] envelope) throws CryptoNotValidException {
+        EnvelopeHeader header = parseHeader(envelope);
+        List<byte[]> res = new ArrayList<>(header.getRecipients().size());
+        for (EnvelopeHeader.Recipient r : header.getRecipients()) {
+            res.add(r.getKeyId());
+        }
+        return res;
+    }
+
+    @Override
+    public byte[] getKeyId(PublicKey key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance(KEY_ID_DIGEST);
+            return Arrays.copyOf(md.digest(key.getEncoded()), EnvelopeHeader.KEY_ID_LEN);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(KEY_ID_DIGEST + " is not available", ex);
+        }
+    }
+
+    private EnvelopeHeader parseHeader(byte[] envelope) throws CryptoNotValidException {
+        try {
+            AEADCipheredView view = AEADCipheredView.wrap(ByteBuffer.wrap(envelope), params);
+            return EnvelopeHeader.fromBytes(view.getAAD());
+        } catch (IllegalArgumentException ex) {
+            throw new CryptoNotValidException("Envelope format is not valid: " + ex.getMessage(), ex);
+        }
+    }
+
+    private byte[] deriveKek(byte[] shared, byte[] ephemeralEncoded) throws CryptoNotValidException {
+        byte[] prk = null;
+        try {
+            prk = hkdf.extract(ephemeralEncoded, shared);
+            return hkdf.expand(prk, WRAP_INFO, params.getAesKeyLen());
+        } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+            throw new CryptoNotValidException("Can not derive key encryption key", ex);
+        } finally {
+            if (prk != null) {
+                Arrays.fill(prk, (byte) 0);
+            }
+        }
+    }
+}
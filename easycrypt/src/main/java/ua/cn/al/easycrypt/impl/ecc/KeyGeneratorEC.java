@@ -18,13 +18,13 @@ package ua.cn.al.easycrypt.impl.ecc;
 
 import ua.cn.al.easycrypt.CryptoConfig;
 import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.PublicKeyCache;
 import ua.cn.al.easycrypt.CryptoNotValidException;
 import ua.cn.al.easycrypt.impl.AbstractKeyGenerator;
 import ua.cn.al.easycrypt.impl.NotRandom;
 import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
 import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.spec.ECParameterSpec;
 import org.slf4j.Logger;
@@ -42,15 +42,23 @@ public class KeyGeneratorEC extends AbstractKeyGenerator {
         super(params);
     }
     
-    private KeyFactory getKeyFactory() throws NoSuchAlgorithmException, NoSuchProviderException{
-        KeyFactory factory = KeyFactory.getInstance("ECDSA", CryptoConfig.getProvider());
-        return factory;
+    private String keyAlgorithm() {
+        return params.isXdhCurve() ? params.getDefaultCurve() : "ECDSA";
     }
 
     private KeyPairGenerator getKeyPairGenerator() throws NoSuchAlgorithmException, NoSuchProviderException{
-        KeyPairGenerator g = KeyPairGenerator.getInstance("ECDSA", CryptoConfig.getProvider());
+        KeyPairGenerator g = KeyPairGenerator.getInstance(keyAlgorithm(), CryptoConfig.getProvider());
         return g;
     }
+
+    /**
+     * X25519 or X448 key pair, curve is defined by key size
+     */
+    private KeyPair generateXdhKeys(SecureRandom random) throws NoSuchAlgorithmException, NoSuchProviderException {
+        KeyPairGenerator g = getKeyPairGenerator();
+        g.initialize(CryptoParams.CURVE_X25519.equals(params.getDefaultCurve()) ? 255 : 448, random);
+        return g.generateKeyPair();
+    }
     
     /**
      * Generated true secure ECC or RSA key pair using secure random number generator
@@ -62,6 +70,9 @@ public class KeyGeneratorEC extends AbstractKeyGenerator {
         KeyPair pair = null;
         ECParameterSpec ecSpec = ECNamedCurveTable.getParameterSpec(params.getDefaultCurve());
         try {
+            if (params.isXdhCurve()) {
+                return generateXdhKeys(new SecureRandom());
+            }
             KeyPairGenerator g = getKeyPairGenerator();
             g.initialize(ecSpec, new SecureRandom());
             pair = g.generateKeyPair();
@@ -108,6 +119,9 @@ public class KeyGeneratorEC extends AbstractKeyGenerator {
             g = getKeyPairGenerator();
             SecureRandom srand = new NotRandom();
             srand.setSeed(bb.array());
+            if (params.isXdhCurve()) {
+                return generateXdhKeys(srand);
+            }
             g.initialize(spec, srand);
             pair = g.genKeyPair();
         } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException ex) {
@@ -118,6 +132,26 @@ public class KeyGeneratorEC extends AbstractKeyGenerator {
         return pair;
     }
 
+    /**
+     * Ed25519 or Ed448 key pair for X25519 or X448 curves, usual EC key pair
+     * otherwise
+     *
+     * @return key pair for signatures
+     */
+    @Override
+    public KeyPair generateSignatureKeys() {
+        if (!params.isXdhCurve()) {
+            return generateKeys();
+        }
+        String alg = CryptoParams.CURVE_X25519.equals(params.getDefaultCurve()) ? "Ed25519" : "Ed448";
+        try {
+            return KeyPairGenerator.getInstance(alg, CryptoConfig.getProvider()).generateKeyPair();
+        } catch (NoSuchAlgorithmException ex) {
+            log.error(ex.getMessage());
+        }
+        return null;
+    }
+
     /**
      * Generate ECDSA PublicKey X509 encoded
      *
@@ -128,9 +162,8 @@ public class KeyGeneratorEC extends AbstractKeyGenerator {
     public PublicKey createPublicKeyFromBytes(byte[] bytes) {
         PublicKey result = null;
         try {
-            KeyFactory factory = getKeyFactory();
-            result = factory.generatePublic(new X509EncodedKeySpec(bytes));
-        } catch (InvalidKeySpecException | NoSuchProviderException | NoSuchAlgorithmException ex) {
+            result = PublicKeyCache.getDefault().getPublicKey(keyAlgorithm(), bytes);
+        } catch (InvalidKeySpecException | NoSuchAlgorithmException ex) {
             log.error(ex.getMessage());
         }
         return result;
@@ -19,17 +19,25 @@ package ua.cn.al.easycrypt.impl.ecc;
 import ua.cn.al.easycrypt.CryptoParams;
 import ua.cn.al.easycrypt.dataformat.AEADPlain;
 import ua.cn.al.easycrypt.dataformat.AEADCiphered;
+import ua.cn.al.easycrypt.dataformat.AEADCipheredView;
+import ua.cn.al.easycrypt.impl.CipherBuffers;
 import ua.cn.al.easycrypt.CryptoNotValidException;
 
 import javax.crypto.*;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.nio.ByteBuffer;
 import java.security.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import lombok.extern.slf4j.Slf4j;
+import ua.cn.al.easycrypt.NonceGenerator;
 import ua.cn.al.easycrypt.SymCryptor;
-import ua.cn.al.easycrypt.dataformat.Ciphered;
+import ua.cn.al.easycrypt.SymKeyHandle;
+import ua.cn.al.easycrypt.BatchResult;
+import ua.cn.al.easycrypt.impl.AbstractNonceGenerator;
 
 /**
  *
@@ -38,17 +46,30 @@ import ua.cn.al.easycrypt.dataformat.Ciphered;
 @Slf4j
 public class SymJCEImpl implements SymCryptor {
 
-    private static final SecureRandom random = new SecureRandom();
+    /**
+     * Minimal number of items in batch to process it in parallel
+     */
+    public static final int BATCH_PARALLEL_THRESHOLD = 256;
+
     private boolean saltInMessage = false;
-    private SecretKeySpec symmetricKey;
+    private SymKeyHandle keyHandle;
+    private SecretKey symmetricKey;
 
     private final byte[] gcmIV;
 
     private final CryptoParams params;
+    /**
+     * Cipher instance reused by encrypt/decrypt calls of this instance.
+     * Provider lookup is done once, then cipher is just re-initialized with
+     * current key and IV for each message.
+     */
+    private Cipher cachedCipher;
+    private NonceGenerator nonceGenerator;
 
     public SymJCEImpl(CryptoParams params) {
         this.params = params;
         gcmIV = new byte[params.getAesIvLen()];
+        nonceGenerator = AbstractNonceGenerator.create(params);
     }
 
     /**
@@ -59,10 +80,22 @@ public class SymJCEImpl implements SymCryptor {
      */
     @Override
     public void setKey(byte[] key) throws CryptoNotValidException {
-        if (!((key.length == 128 / 8) || (key.length == 256 / 8))) {
-            throw new IllegalArgumentException("Key length must be exactly 16 or 32 or bytes long");
+        setKey(new SymKeyHandle(params, key));
+    }
+
+    @Override
+    public void setKey(SymKeyHandle key) throws CryptoNotValidException {
+        if (!params.getSymCipher().equals(key.getSymCipher())) {
+            throw new CryptoNotValidException("Key is prepared for " + key.getSymCipher() + ", not for " + params.getSymCipher());
+        }
+        if (key.isDestroyed()) {
+            throw new CryptoNotValidException("Symmetric key is destroyed");
         }
-        symmetricKey = new SecretKeySpec(key, "AES");
+        if (keyHandle != null && !keyHandle.sameKey(key)) {
+            nonceGenerator.reset();
+        }
+        keyHandle = key;
+        symmetricKey = key.getSecretKey();
     }
 
     @Override
@@ -90,14 +123,21 @@ public class SymJCEImpl implements SymCryptor {
         if (Arrays.equals(getNonce(), explicitNonce)) {
             throw new IllegalArgumentException("Nonce reuse detected!");
         }
-        byte[] en;
         if (explicitNonce == null) {
-            en = new byte[params.getAesGcmNonceLen()];
-            random.nextBytes(en);
+            nonceGenerator.nextNonce(gcmIV, params.getAesGcmSaltLen());
         } else {
-            en = explicitNonce;
+            ByteBuffer.wrap(gcmIV).position(params.getAesGcmSaltLen()).put(explicitNonce, 0, params.getAesGcmNonceLen());
         }
-        ByteBuffer.wrap(gcmIV).position(params.getAesGcmSaltLen()).put(en, 0, params.getAesGcmNonceLen());
+    }
+
+    @Override
+    public void setNonceGenerator(NonceGenerator generator) {
+        nonceGenerator = Objects.requireNonNull(generator);
+    }
+
+    @Override
+    public NonceGenerator getNonceGenerator() {
+        return nonceGenerator;
     }
 
     @Override
@@ -105,23 +145,52 @@ public class SymJCEImpl implements SymCryptor {
         return Arrays.copyOfRange(gcmIV, params.getAesGcmSaltLen(), gcmIV.length);
     }
 
+    @Override
+    public int getEncryptedSize(int plainLen) {
+        return gcmIV.length + plainLen + params.getGcmAuthTagLenBits() / 8;
+    }
+
+    @Override
+    public int getDecryptedSize(int cipheredLen) {
+        return cipheredLen - gcmIV.length - params.getGcmAuthTagLenBits() / 8;
+    }
+
     @Override
     public byte[] encrypt(byte[] plain) throws CryptoNotValidException {
-        //TODO: avoid data copy, use ByteBuffer somehow
+        byte[] encrypted = new byte[getEncryptedSize(plain.length)];
+        encrypt(plain, 0, plain.length, encrypted, 0);
+        return encrypted;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphered) throws CryptoNotValidException {
+        checkCipheredSize(ciphered.length);
+        byte[] decrypted = new byte[getDecryptedSize(ciphered.length)];
+        decrypt(ciphered, 0, ciphered.length, decrypted, 0);
+        return decrypted;
+    }
+
+    @Override
+    public int encrypt(byte[] in, int off, int len, byte[] out, int outOff) throws CryptoNotValidException {
+        return encrypt(ByteBuffer.wrap(in, off, len), ByteBuffer.wrap(out, outOff, out.length - outOff));
+    }
+
+    @Override
+    public int decrypt(byte[] in, int off, int len, byte[] out, int outOff) throws CryptoNotValidException {
+        return decrypt(ByteBuffer.wrap(in, off, len), ByteBuffer.wrap(out, outOff, out.length - outOff));
+    }
+
+    @Override
+    public int encrypt(ByteBuffer src, ByteBuffer dst) throws CryptoNotValidException {
+        int size = getEncryptedSize(src.remaining());
+        if (dst.remaining() < size) {
+            throw new CryptoNotValidException("Output buffer is too short, required: " + size);
+        }
         try {
-            Cipher blockCipherSym = getCipher(Cipher.ENCRYPT_MODE);
-            byte[] encrypted = new byte[blockCipherSym.getOutputSize(plain.length)];
-            int updateSize = blockCipherSym.update(plain, 0, plain.length, encrypted);
-            blockCipherSym.doFinal(encrypted, updateSize);
-            Ciphered cmsg = new Ciphered();
-            cmsg.encrypted = encrypted;
-            if (saltInMessage) {
-                cmsg.setIV(gcmIV);
-            } else {
-                cmsg.setExplicitNonce(getNonce());
-            }
-            cmsg.encrypted = encrypted;
-            return cmsg.toBytes();
+            Cipher blockCipherSym = initCipher(Cipher.ENCRYPT_MODE);
+            writeIVPrefix(dst);
+            blockCipherSym.doFinal(src, dst);
+            return size;
         } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException
                 | NoSuchAlgorithmException| NoSuchPaddingException  ex) {
             log.warn("Symmatric encryption error", ex);
@@ -130,21 +199,32 @@ public class SymJCEImpl implements SymCryptor {
     }
 
     @Override
-    public byte[] decrypt(byte[] ciphered) throws CryptoNotValidException {
+    public int decrypt(ByteBuffer src, ByteBuffer dst) throws CryptoNotValidException {
+        checkCipheredSize(src.remaining());
+        int size = getDecryptedSize(src.remaining());
+        if (dst.remaining() < size) {
+            throw new CryptoNotValidException("Output buffer is too short, required: " + size);
+        }
         try {
-            Ciphered cmsg = Ciphered.fromBytes(ciphered);
-
-            if (saltInMessage) {
-                setIV(cmsg.getIV());
-            } else {
-                setNonce(cmsg.getExplicitNonce());
-            }
+            readIVPrefix(src);
+            Cipher blockCipherSym = initCipher(Cipher.DECRYPT_MODE);
+            return blockCipherSym.doFinal(src, dst);
+        } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException
+              |NoSuchPaddingException | NoSuchAlgorithmException ex) {
+            log.warn("Symmetric decryption error",ex);
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+    }
 
-            Cipher blockCipherSym = getCipher(Cipher.DECRYPT_MODE);
-            byte[] decrypted = new byte[blockCipherSym.getOutputSize(cmsg.encrypted.length)];
-            int updateSize = blockCipherSym.update(cmsg.encrypted, 0, cmsg.encrypted.length, decrypted);
-            blockCipherSym.doFinal(decrypted, updateSize);
-            return decrypted;
+    @Override
+    public int decryptInPlace(byte[] buf, int off, int len) throws CryptoNotValidException {
+        checkCipheredSize(len);
+        ByteBuffer src = ByteBuffer.wrap(buf, off, len);
+        try {
+            readIVPrefix(src);
+            Cipher blockCipherSym = initCipher(Cipher.DECRYPT_MODE);
+            //array variant of doFinal is copy-safe for overlapping input and output
+            return blockCipherSym.doFinal(buf, src.position(), src.remaining(), buf, off);
         } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException
               |NoSuchPaddingException | NoSuchAlgorithmException ex) {
             log.warn("Symmetric decryption error",ex);
@@ -152,11 +232,48 @@ public class SymJCEImpl implements SymCryptor {
         }
     }
 
+    /**
+     * Writes IV prefix of message in the same format as Ciphered does: entire
+     * IV or zero salt followed by explicit nonce
+     */
+    private void writeIVPrefix(ByteBuffer dst) {
+        int saltLen = params.getAesGcmSaltLen();
+        if (saltInMessage) {
+            dst.put(gcmIV);
+        } else {
+            for (int i = 0; i < saltLen; i++) {
+                dst.put((byte) 0);
+            }
+            dst.put(gcmIV, saltLen, gcmIV.length - saltLen);
+        }
+    }
+
+    /**
+     * Reads IV prefix of message and sets IV or nonce
+     */
+    private void readIVPrefix(ByteBuffer src) throws CryptoNotValidException {
+        if (saltInMessage) {
+            src.get(gcmIV);
+        } else {
+            byte[] en = new byte[params.getAesGcmNonceLen()];
+            src.position(src.position() + params.getAesGcmSaltLen());
+            src.get(en);
+            setNonce(en);
+        }
+    }
+
+    private void checkCipheredSize(int cipheredLen) throws CryptoNotValidException {
+        if (getDecryptedSize(cipheredLen) < 0) {
+            throw new CryptoNotValidException("Encrypted message is too short: " + cipheredLen);
+        }
+    }
+
     @Override
     public AEADCiphered encryptWithAEAData(byte[] plain, byte[] aeadata) throws CryptoNotValidException {
+        AEADCiphered.checkSize(aeadata == null ? 0 : aeadata.length, (long) plain.length + params.getGcmAuthTagLenBits() / 8, params);
         try {
             AEADCiphered msg = new AEADCiphered(params);
-            Cipher blockCipherSym = getCipher(Cipher.ENCRYPT_MODE);
+            Cipher blockCipherSym = initCipher(Cipher.ENCRYPT_MODE);
             if (aeadata != null) {
                 blockCipherSym.updateAAD(aeadata);
                 msg.aatext = aeadata;
@@ -180,19 +297,25 @@ public class SymJCEImpl implements SymCryptor {
     @Override
     public AEADPlain decryptWithAEAData(byte[] message) throws CryptoNotValidException {
         AEADPlain res = new AEADPlain();
-        AEADCiphered msg = AEADCiphered.fromBytes(message, params);
-        if (saltInMessage) {
-            setIV(msg.getIV());
-        } else {
-            setNonce(msg.getExplicitNonce());
+        //view of message, only plain text and AAD are allocated
+        AEADCipheredView msg;
+        try {
+            msg = AEADCipheredView.wrap(ByteBuffer.wrap(message), params);
+        } catch (IllegalArgumentException ex) {
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+        int plainLen = msg.getEncryptedLength() - params.getGcmAuthTagLenBits() / 8;
+        if (plainLen < 0) {
+            throw new CryptoNotValidException("Encrypted message is too short: " + msg.getEncryptedLength());
         }
+        readIVPrefix(msg.getIV());
         try {
-            Cipher blockCipherSym = getCipher(Cipher.DECRYPT_MODE);
-            blockCipherSym.updateAAD(msg.aatext);
-            res.decrypted = new byte[blockCipherSym.getOutputSize(msg.encrypted.length)];
-            int updateSize = blockCipherSym.update(msg.encrypted, 0, msg.encrypted.length, res.decrypted);
-            blockCipherSym.doFinal(res.decrypted, updateSize);
-            res.plain = msg.aatext;
+            Cipher blockCipherSym = initCipher(Cipher.DECRYPT_MODE);
+            CipherBuffers.updateAAD(blockCipherSym, msg.getAAD());
+            res.decrypted = new byte[plainLen];
+            blockCipherSym.doFinal(msg.getEncrypted(), ByteBuffer.wrap(res.decrypted));
+            res.plain = new byte[msg.getAADLength()];
+            msg.getAAD().get(res.plain);
             res.hmacOk = true;
             return res;
         } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException | NoSuchAlgorithmException | NoSuchPaddingException ex) {
@@ -201,17 +324,299 @@ public class SymJCEImpl implements SymCryptor {
         }
     }
 
+    @Override
+    public int getAEADEncryptedSize(int plainLen, int aadLen) {
+        int enclen = plainLen + params.getGcmAuthTagLenBits() / 8;
+        return gcmIV.length + AEADCiphered.lengthsSize(AEADCiphered.autoVersion(aadLen, enclen), aadLen, enclen) + aadLen + enclen;
+    }
+
+    @Override
+    public int encryptWithAEAData(ByteBuffer[] plain, ByteBuffer[] aad, ByteBuffer dst) throws CryptoNotValidException {
+        long plainLen = CipherBuffers.remaining(plain);
+        long aadLen = CipherBuffers.remaining(aad);
+        if (plainLen + aadLen > Integer.MAX_VALUE - AEADCiphered.maxHeaderSize(params)) {
+            throw new CryptoNotValidException("Message is too big: " + (plainLen + aadLen));
+        }
+        AEADCiphered.checkSize(aadLen, plainLen + params.getGcmAuthTagLenBits() / 8, params);
+        int size = getAEADEncryptedSize((int) plainLen, (int) aadLen);
+        if (dst.remaining() < size) {
+            throw new CryptoNotValidException("Output buffer is too short, required: " + size);
+        }
+        try {
+            Cipher blockCipherSym = initCipher(Cipher.ENCRYPT_MODE);
+            int start = dst.position();
+            writeIVPrefix(dst);
+            int enclen = (int) plainLen + params.getGcmAuthTagLenBits() / 8;
+            AEADCiphered.writeLengths(dst, AEADCiphered.autoVersion((int) aadLen, enclen), (int) aadLen, enclen);
+            //AAD is a part of message anyway, so it is authenticated from its copy in message
+            int aadStart = dst.position();
+            if (aad != null) {
+                for (ByteBuffer a : aad) {
+                    dst.put(a);
+                }
+            }
+            CipherBuffers.updateAAD(blockCipherSym, dst.slice(aadStart, (int) aadLen));
+            for (ByteBuffer p : plain) {
+                blockCipherSym.update(p, dst);
+            }
+            blockCipherSym.doFinal(ByteBuffer.allocate(0), dst);
+            return dst.position() - start;
+        } catch (ShortBufferException | IllegalBlockSizeException | NoSuchPaddingException | BadPaddingException | NoSuchAlgorithmException ex) {
+            log.warn("AEAD Encryption error", ex);
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public int decryptWithAEAData(ByteBuffer message, ByteBuffer[] dst) throws CryptoNotValidException {
+        AEADCipheredView msg;
+        try {
+            msg = AEADCipheredView.wrap(message, params);
+        } catch (IllegalArgumentException ex) {
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+        int plainLen = msg.getEncryptedLength() - params.getGcmAuthTagLenBits() / 8;
+        if (plainLen < 0) {
+            throw new CryptoNotValidException("Encrypted message is too short: " + msg.getEncryptedLength());
+        }
+        if (CipherBuffers.remaining(dst) < plainLen) {
+            throw new CryptoNotValidException("Output buffers are too short, required: " + plainLen);
+        }
+        readIVPrefix(msg.getIV());
+        try {
+            Cipher blockCipherSym = initCipher(Cipher.DECRYPT_MODE);
+            CipherBuffers.updateAAD(blockCipherSym, msg.getAAD());
+            int n = CipherBuffers.doFinal(blockCipherSym, msg.getEncrypted(), dst);
+            message.position(message.position() + msg.size());
+            return n;
+        } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException | NoSuchAlgorithmException | NoSuchPaddingException ex) {
+            log.warn("AEAD Decryption error", ex);
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public BatchResult encryptBatch(List<byte[]> plains, List<byte[]> aads) {
+        return encryptBatch(plains, aads, ForkJoinPool.commonPool());
+    }
+
+    @Override
+    public BatchResult encryptBatch(List<byte[]> plains, List<byte[]> aads, ForkJoinPool pool) {
+        if (aads != null && aads.size() != plains.size()) {
+            throw new IllegalArgumentException("Number of AAD entries does not match number of plain texts");
+        }
+        int n = plains.size();
+        int ivLen = gcmIV.length;
+        int saltLen = params.getAesGcmSaltLen();
+        int tagLen = params.getGcmAuthTagLenBits() / 8;
+        byte[] salt = getSalt();
+        int[] lengths = new int[n];
+        CryptoNotValidException[] sizeErrors = new CryptoNotValidException[n];
+        for (int i = 0; i < n; i++) {
+            int txtlen = aadOf(aads, i).length;
+            if (plains.get(i) == null) {
+                sizeErrors[i] = new CryptoNotValidException("Plain text is null");
+                continue;
+            }
+            try {
+                AEADCiphered.checkSize(txtlen, (long) plains.get(i).length + tagLen, params);
+            } catch (CryptoNotValidException ex) {
+                sizeErrors[i] = ex;
+                continue;
+            }
+            int enclen = plains.get(i).length + tagLen;
+            lengths[i] = ivLen + AEADCiphered.lengthsSize(AEADCiphered.autoVersion(txtlen, enclen), txtlen, enclen) + txtlen + enclen;
+        }
+        BatchResult res = new BatchResult(lengths);
+        for (int i = 0; i < n; i++) {
+            if (sizeErrors[i] != null) {
+                res.setError(i, sizeErrors[i]);
+            }
+        }
+        byte[] slab = res.getData();
+        runBatch(n, pool, (cipher, i) -> {
+            if (!res.isOk(i)) {
+                return;
+            }
+            byte[] plain = plains.get(i);
+            byte[] aad = aadOf(aads, i);
+            byte[] iv = new byte[ivLen];
+            System.arraycopy(salt, 0, iv, 0, saltLen);
+            nonceGenerator.nextNonce(iv, saltLen);
+            cipher.init(Cipher.ENCRYPT_MODE, symmetricKey, params.getSymParameterSpec(iv));
+            ByteBuffer out = ByteBuffer.wrap(slab, res.getOffset(i), res.getLength(i));
+            if (!saltInMessage) {
+                Arrays.fill(iv, 0, saltLen, (byte) 0);
+            }
+            out.put(iv);
+            int enclen = plain.length + tagLen;
+            AEADCiphered.writeLengths(out, AEADCiphered.autoVersion(aad.length, enclen), aad.length, enclen);
+            out.put(aad);
+            cipher.updateAAD(aad);
+            cipher.doFinal(plain, 0, plain.length, slab, out.position());
+        }, res);
+        return res;
+    }
+
+    @Override
+    public BatchResult decryptBatch(List<byte[]> messages) {
+        return decryptBatch(messages, ForkJoinPool.commonPool());
+    }
+
+    @Override
+    public BatchResult decryptBatch(List<byte[]> messages, ForkJoinPool pool) {
+        int n = messages.size();
+        int ivLen = gcmIV.length;
+        int saltLen = params.getAesGcmSaltLen();
+        int tagLen = params.getGcmAuthTagLenBits() / 8;
+        byte[] salt = getSalt();
+        int[] lengths = new int[n];
+        AEADCipheredView[] views = new AEADCipheredView[n];
+        CryptoNotValidException[] formatErrors = new CryptoNotValidException[n];
+        for (int i = 0; i < n; i++) {
+            if (messages.get(i) == null) {
+                formatErrors[i] = new CryptoNotValidException("Message is null");
+                continue;
+            }
+            try {
+                //both format versions, same checks as AEADCiphered.fromBytes
+                views[i] = AEADCipheredView.wrap(ByteBuffer.wrap(messages.get(i)), params);
+            } catch (IllegalArgumentException ex) {
+                formatErrors[i] = new CryptoNotValidException(ex.getMessage(), ex);
+                continue;
+            }
+            if (views[i].getEncryptedLength() < tagLen) {
+                formatErrors[i] = new CryptoNotValidException("Encrypted message is too short: " + views[i].getEncryptedLength());
+                continue;
+            }
+            lengths[i] = views[i].getEncryptedLength() - tagLen;
+        }
+        BatchResult res = new BatchResult(lengths);
+        for (int i = 0; i < n; i++) {
+            if (formatErrors[i] != null) {
+                res.setError(i, formatErrors[i]);
+            }
+        }
+        byte[] slab = res.getData();
+        runBatch(n, pool, (cipher, i) -> {
+            if (!res.isOk(i)) {
+                return;
+            }
+            AEADCipheredView msg = views[i];
+            byte[] iv = new byte[ivLen];
+            msg.getIV().get(iv);
+            if (!saltInMessage) {
+                System.arraycopy(salt, 0, iv, 0, saltLen);
+            }
+            cipher.init(Cipher.DECRYPT_MODE, symmetricKey, params.getSymParameterSpec(iv));
+            CipherBuffers.updateAAD(cipher, msg.getAAD());
+            try {
+                cipher.doFinal(msg.getEncrypted(), ByteBuffer.wrap(slab, res.getOffset(i), res.getLength(i)));
+            } catch (GeneralSecurityException ex) {
+                Arrays.fill(slab, res.getOffset(i), res.getOffset(i) + res.getLength(i), (byte) 0);
+                throw ex;
+            }
+        }, res);
+        return res;
+    }
+
+    /**
+     * Operation on one item of batch with cipher owned by current worker
+     */
+    private interface BatchItemOperation {
+
+        void apply(Cipher cipher, int i) throws GeneralSecurityException, CryptoNotValidException;
+    }
+
+    private static byte[] aadOf(List<byte[]> aads, int i) {
+        byte[] aad = aads == null ? null : aads.get(i);
+        return aad == null ? new byte[0] : aad;
+    }
+
+    /**
+     * Runs operation on all items of batch. Batch is split into chunks; each
+     * chunk creates one cipher and reuses it for all its items. Failures are
+     * recorded per item.
+     */
+    private void runBatch(int n, ForkJoinPool pool, BatchItemOperation op, BatchResult res) {
+        if (pool == null || n < BATCH_PARALLEL_THRESHOLD) {
+            runBatchChunk(0, n, op, res);
+            return;
+        }
+        int chunks = Math.min(n, pool.getParallelism() * 4);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int from = (int) ((long) n * c / chunks);
+            int to = (int) ((long) n * (c + 1) / chunks);
+            tasks.add(pool.submit(() -> runBatchChunk(from, to, op, res)));
+        }
+        for (ForkJoinTask<?> t : tasks) {
+            t.join();
+        }
+    }
+
+    private void runBatchChunk(int from, int to, BatchItemOperation op, BatchResult res) {
+        Cipher cipher;
+        try {
+            cipher = Cipher.getInstance(params.getSymCipher());
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException ex) {
+            log.warn("Can not create cipher", ex);
+            for (int i = from; i < to; i++) {
+                res.setError(i, new CryptoNotValidException(ex.getMessage(), ex));
+            }
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            try {
+                op.apply(cipher, i);
+            } catch (CryptoNotValidException ex) {
+                res.setError(i, ex);
+            } catch (GeneralSecurityException | RuntimeException ex) {
+                res.setError(i, new CryptoNotValidException(ex.getMessage(), ex));
+            }
+        }
+    }
+
     @Override
     public void saltInMessage(boolean b) {
         saltInMessage = b;
     }
 
+    /**
+     * Re-initializes reusable cipher of this instance with current key and IV.
+     * Cipher instance is created on first call only.
+     *
+     * @param mode is Chipher.ENCRIPT_MODE or Chipher.DECRYPT_MODE
+     * @return cipher ready for one message
+     * @throws CryptoNotValidException if key or IV are not acceptable, e.g. IV
+     * is reused for encryption with the same key
+     */
+    private Cipher initCipher(int mode) throws NoSuchAlgorithmException, NoSuchPaddingException, CryptoNotValidException {
+        if (cachedCipher == null) {
+            cachedCipher = Cipher.getInstance(params.getSymCipher());
+        }
+        if (keyHandle == null || keyHandle.isDestroyed()) {
+            throw new CryptoNotValidException("Symmetric key is not set or destroyed");
+        }
+        try {
+            cachedCipher.init(mode, symmetricKey, params.getSymParameterSpec(gcmIV));
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException ex) {
+            log.warn("Can not init cipher", ex);
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+        return cachedCipher;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Returns new cipher instance each time, so it does not interfere with
+     * cipher that is reused by encrypt/decrypt methods of this instance.
+     */
     @Override
     public Cipher getCipher(int mode) throws NoSuchAlgorithmException, NoSuchPaddingException {
         Cipher blockCipherSym = Cipher.getInstance(params.getSymCipher());
-        GCMParameterSpec gcmParameterSpecSym = new GCMParameterSpec(params.getGcmAuthTagLenBits(), gcmIV);
         try {
-            blockCipherSym.init(mode, symmetricKey, gcmParameterSpecSym);
+            blockCipherSym.init(mode, symmetricKey, params.getSymParameterSpec(gcmIV));
         } catch (InvalidKeyException | InvalidAlgorithmParameterException ex) {
             log.error("Can not create cipher", ex);
         }
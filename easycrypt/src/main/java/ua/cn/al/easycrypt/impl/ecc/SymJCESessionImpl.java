@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl.ecc;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.SecretKey;
+import lombok.extern.slf4j.Slf4j;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.NonceGenerator;
+import ua.cn.al.easycrypt.SymCryptorSession;
+import ua.cn.al.easycrypt.SymKeyHandle;
+import ua.cn.al.easycrypt.dataformat.AEADCiphered;
+import ua.cn.al.easycrypt.dataformat.AEADCipheredView;
+import ua.cn.al.easycrypt.impl.CipherBuffers;
+import ua.cn.al.easycrypt.dataformat.AEADPlain;
+import ua.cn.al.easycrypt.impl.AbstractNonceGenerator;
+
+/**
+ * Thread-safe AEAD session, AES-GCM by default. All fields are final, IV is built per message
+ * on the stack of calling thread from salt and nonce of thread-safe nonce
+ * generator. Initialized ciphers are kept in lock-free pool, so cipher lookup
+ * is not repeated and it works for virtual threads as well as for platform
+ * threads.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+@Slf4j
+public class SymJCESessionImpl implements SymCryptorSession {
+
+    /**
+     * Maximal number of idle cipher instances kept in pool
+     */
+    public static final int MAX_POOLED_CIPHERS = 64;
+
+    private final CryptoParams params;
+    private final SymKeyHandle keyHandle;
+    private final SecretKey symmetricKey;
+    private final byte[] salt;
+    private final int ivLen;
+    private final int tagLen;
+    private final ConcurrentLinkedQueue<Cipher> ciphers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final NonceGenerator nonceGenerator;
+
+    /**
+     * Creates session with nonce generator defined by crypto parameters
+     *
+     * @param params crypto parameters
+     * @param key 128 or 256 bits key
+     * @param salt 4 bytes of fixed part of IV
+     */
+    public SymJCESessionImpl(CryptoParams params, byte[] key, byte[] salt) {
+        this(params, key, salt, AbstractNonceGenerator.create(params));
+    }
+
+    /**
+     * Creates session
+     *
+     * @param params crypto parameters
+     * @param key 128 or 256 bits key
+     * @param salt 4 bytes of fixed part of IV
+     * @param nonceGenerator generator of explicit nonce, not shared with other keys
+     */
+    public SymJCESessionImpl(CryptoParams params, byte[] key, byte[] salt, NonceGenerator nonceGenerator) {
+        this(params, nonceGenerator, new SymKeyHandle(params, key), salt);
+    }
+
+    /**
+     * Creates session with prepared key
+     *
+     * @param params crypto parameters
+     * @param key key handle prepared for the same symmetric cipher
+     * @param salt 4 bytes of fixed part of IV
+     * @param nonceGenerator generator of explicit nonce, not shared with other keys
+     * @throws CryptoNotValidException if key is prepared for other cipher or
+     * is destroyed
+     */
+    public SymJCESessionImpl(CryptoParams params, SymKeyHandle key, byte[] salt, NonceGenerator nonceGenerator) throws CryptoNotValidException {
+        this(params, nonceGenerator, checkKey(params, key), salt);
+    }
+
+    private SymJCESessionImpl(CryptoParams params, NonceGenerator nonceGenerator, SymKeyHandle key, byte[] salt) {
+        if (salt.length != params.getAesGcmSaltLen()) {
+            throw new IllegalArgumentException("Salt length must be exactly " + params.getAesGcmSaltLen() + " bytes long");
+        }
+        this.params = params;
+        this.keyHandle = key;
+        this.symmetricKey = key.getSecretKey();
+        this.salt = salt.clone();
+        this.ivLen = params.getAesIvLen();
+        this.tagLen = params.getGcmAuthTagLenBits() / 8;
+        this.nonceGenerator = Objects.requireNonNull(nonceGenerator);
+    }
+
+    /**
+     * Same checks as SymJCEImpl.setKey(SymKeyHandle)
+     */
+    private static SymKeyHandle checkKey(CryptoParams params, SymKeyHandle key) throws CryptoNotValidException {
+        if (!params.getSymCipher().equals(key.getSymCipher())) {
+            throw new CryptoNotValidException("Key is prepared for " + key.getSymCipher() + ", not for " + params.getSymCipher());
+        }
+        if (key.isDestroyed()) {
+            throw new CryptoNotValidException("Symmetric key is destroyed");
+        }
+        return key;
+    }
+
+    @Override
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    @Override
+    public NonceGenerator getNonceGenerator() {
+        return nonceGenerator;
+    }
+
+    @Override
+    public int getEncryptedSize(int plainLen) {
+        return ivLen + plainLen + tagLen;
+    }
+
+    @Override
+    public int getDecryptedSize(int cipheredLen) {
+        return cipheredLen - ivLen - tagLen;
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plain) throws CryptoNotValidException {
+        byte[] encrypted = new byte[getEncryptedSize(plain.length)];
+        encrypt(ByteBuffer.wrap(plain), ByteBuffer.wrap(encrypted));
+        return encrypted;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphered) throws CryptoNotValidException {
+        checkCipheredSize(ciphered.length);
+        byte[] decrypted = new byte[getDecryptedSize(ciphered.length)];
+        decrypt(ByteBuffer.wrap(ciphered), ByteBuffer.wrap(decrypted));
+        return decrypted;
+    }
+
+    @Override
+    public int encrypt(ByteBuffer src, ByteBuffer dst) throws CryptoNotValidException {
+        int size = getEncryptedSize(src.remaining());
+        if (dst.remaining() < size) {
+            throw new CryptoNotValidException("Output buffer is too short, required: " + size);
+        }
+        byte[] iv = newIV();
+        Cipher cipher = null;
+        try {
+            cipher = borrowCipher(Cipher.ENCRYPT_MODE, iv);
+            //same format as Ciphered: zero salt and explicit nonce
+            Arrays.fill(iv, 0, salt.length, (byte) 0);
+            dst.put(iv);
+            cipher.doFinal(src, dst);
+            return size;
+        } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException ex) {
+            log.warn("Symmetric encryption error", ex);
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        } finally {
+            returnCipher(cipher);
+        }
+    }
+
+    @Override
+    public int decrypt(ByteBuffer src, ByteBuffer dst) throws CryptoNotValidException {
+        checkCipheredSize(src.remaining());
+        int size = getDecryptedSize(src.remaining());
+        if (dst.remaining() < size) {
+            throw new CryptoNotValidException("Output buffer is too short, required: " + size);
+        }
+        byte[] iv = new byte[ivLen];
+        src.get(iv);
+        System.arraycopy(salt, 0, iv, 0, salt.length);
+        Cipher cipher = null;
+        try {
+            cipher = borrowCipher(Cipher.DECRYPT_MODE, iv);
+            return cipher.doFinal(src, dst);
+        } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException ex) {
+            log.warn("Symmetric decryption error", ex);
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        } finally {
+            returnCipher(cipher);
+        }
+    }
+
+    @Override
+    public AEADCiphered encryptWithAEAData(byte[] plain, byte[] aeadata) throws CryptoNotValidException {
+        AEADCiphered.checkSize(aeadata == null ? 0 : aeadata.length, (long) plain.length + params.getGcmAuthTagLenBits() / 8, params);
+        byte[] iv = newIV();
+        Cipher cipher = null;
+        try {
+            AEADCiphered msg = new AEADCiphered(params);
+            cipher = borrowCipher(Cipher.ENCRYPT_MODE, iv);
+            if (aeadata != null) {
+                cipher.updateAAD(aeadata);
+                msg.aatext = aeadata;
+            }
+            msg.encrypted = cipher.doFinal(plain);
+            msg.setExplicitNonce(Arrays.copyOfRange(iv, salt.length, ivLen));
+            return msg;
+        } catch (IllegalBlockSizeException | BadPaddingException ex) {
+            log.warn("AEAD Encryption error", ex);
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        } finally {
+            returnCipher(cipher);
+        }
+    }
+
+    @Override
+    public AEADPlain decryptWithAEAData(byte[] message) throws CryptoNotValidException {
+        AEADCipheredView msg;
+        try {
+            msg = AEADCipheredView.wrap(ByteBuffer.wrap(message), params);
+        } catch (IllegalArgumentException ex) {
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+        checkCipheredSize(ivLen + msg.getEncryptedLength());
+        byte[] iv = new byte[ivLen];
+        msg.getIV().get(iv);
+        System.arraycopy(salt, 0, iv, 0, salt.length);
+        Cipher cipher = null;
+        try {
+            cipher = borrowCipher(Cipher.DECRYPT_MODE, iv);
+            CipherBuffers.updateAAD(cipher, msg.getAAD());
+            AEADPlain res = new AEADPlain();
+            res.decrypted = new byte[msg.getEncryptedLength() - tagLen];
+            cipher.doFinal(msg.getEncrypted(), ByteBuffer.wrap(res.decrypted));
+            res.plain = new byte[msg.getAADLength()];
+            msg.getAAD().get(res.plain);
+            res.hmacOk = true;
+            return res;
+        } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException ex) {
+            log.warn("AEAD Decryption error", ex);
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        } finally {
+            returnCipher(cipher);
+        }
+    }
+
+    /**
+     * Full IV for new message: session salt and new explicit nonce
+     */
+    private byte[] newIV() throws CryptoNotValidException {
+        byte[] iv = new byte[ivLen];
+        System.arraycopy(salt, 0, iv, 0, salt.length);
+        nonceGenerator.nextNonce(iv, salt.length);
+        return iv;
+    }
+
+    private void checkCipheredSize(int cipheredLen) throws CryptoNotValidException {
+        if (getDecryptedSize(cipheredLen) < 0) {
+            throw new CryptoNotValidException("Encrypted message is too short: " + cipheredLen);
+        }
+    }
+
+    /**
+     * Takes cipher from pool or creates new one and inits it for one message
+     */
+    private Cipher borrowCipher(int mode, byte[] iv) throws CryptoNotValidException {
+        if (keyHandle.isDestroyed()) {
+            throw new CryptoNotValidException("Symmetric key is destroyed");
+        }
+        Cipher cipher = ciphers.poll();
+        try {
+            if (cipher == null) {
+                cipher = Cipher.getInstance(params.getSymCipher());
+            } else {
+                pooled.decrementAndGet();
+            }
+            cipher.init(mode, symmetricKey, params.getSymParameterSpec(iv));
+            return cipher;
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException ex) {
+            log.warn("Can not init cipher", ex);
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        } catch (IllegalStateException ex) {
+            //key is destroyed by other thread after the check
+            throw new CryptoNotValidException("Symmetric key is destroyed", ex);
+        }
+    }
+
+    private void returnCipher(Cipher cipher) {
+        if (cipher != null && pooled.incrementAndGet() <= MAX_POOLED_CIPHERS) {
+            ciphers.offer(cipher);
+        } else if (cipher != null) {
+            pooled.decrementAndGet();
+        }
+    }
+}
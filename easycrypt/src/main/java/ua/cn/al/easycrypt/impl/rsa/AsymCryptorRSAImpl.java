@@ -21,23 +21,55 @@ import ua.cn.al.easycrypt.CryptoNotValidException;
 import ua.cn.al.easycrypt.dataformat.AEADCiphered;
 import ua.cn.al.easycrypt.dataformat.AEADPlain;
 import ua.cn.al.easycrypt.impl.AbstractAsymCryptor;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.interfaces.RSAMultiPrimePrivateCrtKey;
+import java.security.spec.MGF1ParameterSpec;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * RSA based implementation of EasyCrypt interface
+ * RSA based implementation of EasyCrypt interface. Padding is defined by IES
+ * cipher of parameters: PKCS#1 v1.5 or OAEP. OAEP uses MGF1 with the same
+ * digest as OAEP, it is set explicitly because JCE providers differ in
+ * defaults. Multi-prime private keys are used by MultiPrimeRSAEngine.
  *
  * @author Oleksiy Lukin alukin@gmail.com
  */
 public class AsymCryptorRSAImpl extends AbstractAsymCryptor {
     private static final Logger log = LoggerFactory.getLogger(AsymCryptorRSAImpl.class);
-    
+    private static final String OAEP_PREFIX = "OAEPWITH";
+    private static final String OAEP_SUFFIX = "ANDMGF1PADDING";
+
+    private final String oaepDigest;
+    private final OAEPParameterSpec oaepSpec;
+
     public AsymCryptorRSAImpl(CryptoParams params) throws CryptoNotValidException {
         super(params);
+        oaepDigest = oaepDigest(params.getAsymIesCipher());
+        oaepSpec = oaepDigest == null ? null
+                : new OAEPParameterSpec(oaepDigest, "MGF1", new MGF1ParameterSpec(oaepDigest), PSource.PSpecified.DEFAULT);
+    }
+
+    /**
+     * Digest of OAEP padding
+     *
+     * @param transformation cipher transformation, e.g.
+     * RSA/ECB/OAEPWithSHA-256AndMGF1Padding
+     * @return digest name or null if padding is not OAEP
+     */
+    static String oaepDigest(String transformation) {
+        String padding = transformation.substring(transformation.lastIndexOf('/') + 1).toUpperCase();
+        if (padding.startsWith(OAEP_PREFIX) && padding.endsWith(OAEP_SUFFIX)) {
+            String digest = padding.substring(OAEP_PREFIX.length(), padding.length() - OAEP_SUFFIX.length());
+            return digest.startsWith("SHA") && !digest.startsWith("SHA-") ? "SHA-" + digest.substring(3) : digest;
+        }
+        return null;
     }
 
     /**
@@ -51,10 +83,14 @@ public class AsymCryptorRSAImpl extends AbstractAsymCryptor {
     @Override
     public byte[] encrypt(byte[] plain) throws CryptoNotValidException {
         try {
-            iesCipher.init(Cipher.ENCRYPT_MODE, theirPublicKey);
+            if (oaepSpec == null) {
+                iesCipher.init(Cipher.ENCRYPT_MODE, theirPublicKey);
+            } else {
+                iesCipher.init(Cipher.ENCRYPT_MODE, theirPublicKey, oaepSpec);
+            }
             byte[] encrypted = iesCipher.doFinal(plain);
             return encrypted;
-        } catch (BadPaddingException|IllegalBlockSizeException|InvalidKeyException ex) {
+        } catch (BadPaddingException|IllegalBlockSizeException|InvalidKeyException|InvalidAlgorithmParameterException ex) {
             log.error(ex.getMessage());
             throw new CryptoNotValidException("Encryption filed", ex);
         }
@@ -69,10 +105,17 @@ public class AsymCryptorRSAImpl extends AbstractAsymCryptor {
     @Override
     public byte[] decrypt(byte[] ciphered) throws CryptoNotValidException {
         try {
-            iesCipher.init(Cipher.DECRYPT_MODE, privateKey);
+            if (MultiPrimeRSAEngine.isMultiPrime(privateKey)) {
+                return MultiPrimeRSAEngine.decrypt((RSAMultiPrimePrivateCrtKey) privateKey, oaepDigest, ciphered);
+            }
+            if (oaepSpec == null) {
+                iesCipher.init(Cipher.DECRYPT_MODE, privateKey);
+            } else {
+                iesCipher.init(Cipher.DECRYPT_MODE, privateKey, oaepSpec);
+            }
             byte[] decrypted = iesCipher.doFinal(ciphered);
             return decrypted;
-        } catch (IllegalBlockSizeException | BadPaddingException | InvalidKeyException  ex) {
+        } catch (IllegalBlockSizeException | BadPaddingException | InvalidKeyException | InvalidAlgorithmParameterException ex) {
             log.error(ex.getMessage());
             throw new CryptoNotValidException("Decryption failed", ex);
         }
@@ -24,8 +24,6 @@ import ua.cn.al.easycrypt.impl.NotRandom;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
-import org.bouncycastle.jce.ECNamedCurveTable;
-import org.bouncycastle.jce.spec.ECParameterSpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +34,10 @@ import org.slf4j.LoggerFactory;
  */
 public class KeyGeneratorRSA extends AbstractKeyGenerator {
     private static final Logger log = LoggerFactory.getLogger(KeyGeneratorRSA.class);
+    /**
+     * Minimal key length that is generated by parallel prime search
+     */
+    public static final int PARALLEL_KEY_LEN = 8192;
     
     public KeyGeneratorRSA(CryptoParams params) {
         super(params);
@@ -53,19 +55,23 @@ public class KeyGeneratorRSA extends AbstractKeyGenerator {
     }
     
     /**
-     * Generated true secure ECC or RSA key pair using secure random number generator
+     * Generated true secure RSA key pair using secure random number generator.
+     * Keys of PARALLEL_KEY_LEN bits and longer and multi-prime keys are
+     * generated by ParallelRSAKeyGenerator on all cores.
      *
      * @return key pair
      */
     @Override
     public KeyPair generateKeys() {
         KeyPair pair = null;
-        ECParameterSpec ecSpec = ECNamedCurveTable.getParameterSpec(params.getDefaultCurve());
         try {
+            if (params.getBaseKeyLen() >= PARALLEL_KEY_LEN || params.getRsaPrimes() > 2) {
+                return new ParallelRSAKeyGenerator(params.getBaseKeyLen(), params.getRsaPrimes()).generateKeys();
+            }
             KeyPairGenerator g = getKeyPairGenerator();
-            g.initialize(ecSpec, new SecureRandom());
+            g.initialize(params.getBaseKeyLen(), new SecureRandom());
             pair = g.generateKeyPair();
-        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidAlgorithmParameterException ex) {
+        } catch (NoSuchAlgorithmException | NoSuchProviderException | CryptoNotValidException ex) {
             log.error(ex.getMessage());
         }
         return pair;
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl.rsa;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAMultiPrimePrivateCrtKey;
+import java.security.spec.RSAOtherPrimeInfo;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.DigestInfo;
+import org.bouncycastle.crypto.AsymmetricBlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.CryptoException;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.encodings.OAEPEncoding;
+import org.bouncycastle.crypto.encodings.PKCS1Encoding;
+import org.bouncycastle.crypto.params.ParametersWithRandom;
+import org.bouncycastle.crypto.params.RSAKeyParameters;
+import org.bouncycastle.crypto.signers.PSSSigner;
+import org.bouncycastle.crypto.util.DigestFactory;
+import org.bouncycastle.util.BigIntegers;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+
+/**
+ * RSA private key operation with multi-prime key (RFC 8017, 5.1.2). Message
+ * is exponentiated modulo each prime and results are combined by Garner's
+ * algorithm, so with k primes of n/k bits private operation is about k^2/4
+ * times faster than 2-prime CRT. Input is blinded and result is checked by
+ * public exponent, as in RSABlindedEngine. Engine is used with OAEP, PKCS#1
+ * and PSS encodings of BouncyCastle.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class MultiPrimeRSAEngine implements AsymmetricBlockCipher {
+
+    private final RSAMultiPrimePrivateCrtKey key;
+    private final BigInteger modulus;
+    private final BigInteger[] primes;
+    private final BigInteger[] exponents;
+    private final BigInteger[] coefficients;
+    private SecureRandom random;
+    private boolean forEncryption;
+
+    public MultiPrimeRSAEngine(RSAMultiPrimePrivateCrtKey key) {
+        this.key = key;
+        this.modulus = key.getModulus();
+        RSAOtherPrimeInfo[] others = key.getOtherPrimeInfo();
+        int count = 2 + (others == null ? 0 : others.length);
+        primes = new BigInteger[count];
+        exponents = new BigInteger[count];
+        coefficients = new BigInteger[count];
+        primes[0] = key.getPrimeP();
+        primes[1] = key.getPrimeQ();
+        exponents[0] = key.getPrimeExponentP();
+        exponents[1] = key.getPrimeExponentQ();
+        coefficients[1] = key.getCrtCoefficient();
+        for (int i = 2; i < count; i++) {
+            primes[i] = others[i - 2].getPrime();
+            exponents[i] = others[i - 2].getExponent();
+            coefficients[i] = others[i - 2].getCrtCoefficient();
+        }
+    }
+
+    /**
+     * Private key parameters for BouncyCastle encodings
+     *
+     * @return private key parameters with modulus and private exponent
+     */
+    public RSAKeyParameters getKeyParameters() {
+        return new RSAKeyParameters(true, modulus, key.getPrivateExponent());
+    }
+
+    /**
+     * Checks if private key is multi-prime key that should be used with this
+     * engine
+     *
+     * @param pk private key
+     * @return true if key has more than 2 primes
+     */
+    public static boolean isMultiPrime(PrivateKey pk) {
+        if (pk instanceof RSAMultiPrimePrivateCrtKey) {
+            RSAOtherPrimeInfo[] others = ((RSAMultiPrimePrivateCrtKey) pk).getOtherPrimeInfo();
+            return others != null && others.length > 0;
+        }
+        return false;
+    }
+
+    /**
+     * Decrypts RSA encrypted block
+     *
+     * @param key multi-prime private key
+     * @param oaepDigest digest of OAEP and MGF1, null for PKCS#1 v1.5 padding
+     * @param ciphered encrypted block
+     * @return decrypted data
+     * @throws CryptoNotValidException if padding is wrong
+     */
+    public static byte[] decrypt(RSAMultiPrimePrivateCrtKey key, String oaepDigest, byte[] ciphered) throws CryptoNotValidException {
+        MultiPrimeRSAEngine engine = new MultiPrimeRSAEngine(key);
+        AsymmetricBlockCipher cipher = oaepDigest == null ? new PKCS1Encoding(engine)
+                : new OAEPEncoding(engine, createDigest(oaepDigest), createDigest(oaepDigest), null);
+        cipher.init(false, engine.getKeyParameters());
+        try {
+            return cipher.processBlock(ciphered, 0, ciphered.length);
+        } catch (CryptoException | DataLengthException ex) {
+            throw new CryptoNotValidException("Decryption failed", ex);
+        }
+    }
+
+    /**
+     * Signs message with SHAxxxwithRSA or SHAxxxwithRSA/PSS algorithm, PSS
+     * uses MGF1 with the same digest and salt of digest size as JCE providers
+     * do
+     *
+     * @param key multi-prime private key
+     * @param algorithm JCE name of signature algorithm
+     * @param message message to sign
+     * @return signature
+     * @throws CryptoNotValidException if algorithm is not supported
+     */
+    public static byte[] sign(RSAMultiPrimePrivateCrtKey key, String algorithm, byte[] message) throws CryptoNotValidException {
+        int with = algorithm.toUpperCase().indexOf("WITHRSA");
+        if (!algorithm.toUpperCase().startsWith("SHA") || with < 0) {
+            throw new CryptoNotValidException("Signature algorithm is not supported with multi-prime RSA key: " + algorithm);
+        }
+        String digestName = "SHA-" + algorithm.substring(3, with);
+        boolean pss = algorithm.toUpperCase().endsWith("/PSS");
+        MultiPrimeRSAEngine engine = new MultiPrimeRSAEngine(key);
+        try {
+            Digest digest = createDigest(digestName);
+            if (pss) {
+                PSSSigner signer = new PSSSigner(engine, digest, createDigest(digestName), digest.getDigestSize());
+                signer.init(true, engine.getKeyParameters());
+                signer.update(message, 0, message.length);
+                return signer.generateSignature();
+            }
+            byte[] hash = new byte[digest.getDigestSize()];
+            digest.update(message, 0, message.length);
+            digest.doFinal(hash, 0);
+            byte[] digestInfo = new DigestInfo(new AlgorithmIdentifier(digestOid(digestName), DERNull.INSTANCE), hash)
+                    .getEncoded(ASN1Encoding.DER);
+            PKCS1Encoding cipher = new PKCS1Encoding(engine);
+            cipher.init(true, engine.getKeyParameters());
+            return cipher.processBlock(digestInfo, 0, digestInfo.length);
+        } catch (CryptoException | DataLengthException | IOException ex) {
+            throw new CryptoNotValidException("Signing error", ex);
+        }
+    }
+
+    static Digest createDigest(String name) throws CryptoNotValidException {
+        switch (name.toUpperCase()) {
+            case "SHA-256":
+                return DigestFactory.createSHA256();
+            case "SHA-384":
+                return DigestFactory.createSHA384();
+            case "SHA-512":
+                return DigestFactory.createSHA512();
+            default:
+                throw new CryptoNotValidException("Digest is not supported with multi-prime RSA key: " + name);
+        }
+    }
+
+    private static ASN1ObjectIdentifier digestOid(String name) {
+        switch (name.toUpperCase()) {
+            case "SHA-256":
+                return NISTObjectIdentifiers.id_sha256;
+            case "SHA-384":
+                return NISTObjectIdentifiers.id_sha384;
+            default:
+                return NISTObjectIdentifiers.id_sha512;
+        }
+    }
+
+    /**
+     * Initializes engine, parameters must be private key parameters of the
+     * same modulus, possibly with random
+     */
+    @Override
+    public void init(boolean forEncryption, CipherParameters param) {
+        CipherParameters p = param;
+        if (p instanceof ParametersWithRandom) {
+            random = ((ParametersWithRandom) p).getRandom();
+            p = ((ParametersWithRandom) p).getParameters();
+        } else {
+            random = new SecureRandom();
+        }
+        if (!(p instanceof RSAKeyParameters) || !((RSAKeyParameters) p).isPrivate()
+                || !((RSAKeyParameters) p).getModulus().equals(modulus)) {
+            throw new IllegalArgumentException("Multi-prime RSA engine works with its private key only");
+        }
+        this.forEncryption = forEncryption;
+    }
+
+    @Override
+    public int getInputBlockSize() {
+        int size = (modulus.bitLength() + 7) / 8;
+        return forEncryption ? size - 1 : size;
+    }
+
+    @Override
+    public int getOutputBlockSize() {
+        int size = (modulus.bitLength() + 7) / 8;
+        return forEncryption ? size : size - 1;
+    }
+
+    @Override
+    public byte[] processBlock(byte[] in, int inOff, int inLen) {
+        if (inLen > (modulus.bitLength() + 7) / 8) {
+            throw new DataLengthException("Input too large for RSA cipher");
+        }
+        BigInteger input = new BigInteger(1, in, inOff, inLen);
+        if (input.compareTo(modulus) >= 0) {
+            throw new DataLengthException("Input too large for RSA cipher");
+        }
+        BigInteger e = key.getPublicExponent();
+        BigInteger r = BigIntegers.createRandomInRange(BigInteger.ONE, modulus.subtract(BigInteger.ONE), random);
+        BigInteger blinded = r.modPow(e, modulus).multiply(input).mod(modulus);
+        BigInteger result = crt(blinded).multiply(BigIntegers.modOddInverse(modulus, r)).mod(modulus);
+        if (!result.modPow(e, modulus).equals(input)) {
+            throw new IllegalStateException("RSA engine faulty decryption/signing detected");
+        }
+        return forEncryption ? BigIntegers.asUnsignedByteArray(getOutputBlockSize(), result)
+                : BigIntegers.asUnsignedByteArray(result);
+    }
+
+    /**
+     * RSADP with multi-prime key, RFC 8017 5.1.2 2.b
+     */
+    private BigInteger crt(BigInteger c) {
+        BigInteger m1 = c.modPow(exponents[0], primes[0]);
+        BigInteger m2 = c.modPow(exponents[1], primes[1]);
+        BigInteger h = m1.subtract(m2).multiply(coefficients[1]).mod(primes[0]);
+        BigInteger m = m2.add(primes[1].multiply(h));
+        BigInteger r = primes[0];
+        for (int i = 2; i < primes.length; i++) {
+            r = r.multiply(primes[i - 1]);
+            BigInteger mi = c.modPow(exponents[i], primes[i]);
+            h = mi.subtract(m).multiply(coefficients[i]).mod(primes[i]);
+            m = m.add(r.multiply(h));
+        }
+        return m;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl.rsa;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.interfaces.RSAMultiPrimePrivateCrtKey;
+import java.security.spec.RSAMultiPrimePrivateCrtKeySpec;
+import java.security.spec.RSAOtherPrimeInfo;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+
+/**
+ * RSA private key with more than 2 primes (RFC 8017). Java providers accept
+ * RSAMultiPrimePrivateCrtKeySpec but drop CRT parameters and create slow
+ * non-CRT key, so multi-prime keys are kept in this class and private key
+ * operations are done by MultiPrimeRSAEngine. Key is encoded as PKCS#8 with
+ * RSAPrivateKey of version 1 (multi). Other primes are kept as BigInteger
+ * arrays because RSAOtherPrimeInfo is not serializable.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class MultiPrimeRSAPrivateKey implements RSAMultiPrimePrivateCrtKey {
+
+    private static final long serialVersionUID = 1L;
+    private static final int VERSION_MULTI = 1;
+
+    private final BigInteger modulus;
+    private final BigInteger publicExponent;
+    private final BigInteger privateExponent;
+    private final BigInteger primeP;
+    private final BigInteger primeQ;
+    private final BigInteger primeExponentP;
+    private final BigInteger primeExponentQ;
+    private final BigInteger crtCoefficient;
+    private final BigInteger[] otherPrimes;
+    private final BigInteger[] otherExponents;
+    private final BigInteger[] otherCoefficients;
+
+    public MultiPrimeRSAPrivateKey(RSAMultiPrimePrivateCrtKeySpec spec) {
+        if (spec.getOtherPrimeInfo() == null || spec.getOtherPrimeInfo().length == 0) {
+            throw new IllegalArgumentException("Key has only 2 primes, use provider's key");
+        }
+        this.modulus = spec.getModulus();
+        this.publicExponent = spec.getPublicExponent();
+        this.privateExponent = spec.getPrivateExponent();
+        this.primeP = spec.getPrimeP();
+        this.primeQ = spec.getPrimeQ();
+        this.primeExponentP = spec.getPrimeExponentP();
+        this.primeExponentQ = spec.getPrimeExponentQ();
+        this.crtCoefficient = spec.getCrtCoefficient();
+        RSAOtherPrimeInfo[] others = spec.getOtherPrimeInfo();
+        this.otherPrimes = new BigInteger[others.length];
+        this.otherExponents = new BigInteger[others.length];
+        this.otherCoefficients = new BigInteger[others.length];
+        for (int i = 0; i < others.length; i++) {
+            otherPrimes[i] = others[i].getPrime();
+            otherExponents[i] = others[i].getExponent();
+            otherCoefficients[i] = others[i].getCrtCoefficient();
+        }
+    }
+
+    /**
+     * Creates key from PKCS#8 structure if it contains multi-prime RSA key
+     *
+     * @param info parsed PKCS#8 private key
+     * @return multi-prime key or null if it is not RSA key or RSA key has 2
+     * primes
+     * @throws IOException if key can not be parsed
+     */
+    public static MultiPrimeRSAPrivateKey fromPrivateKeyInfo(PrivateKeyInfo info) throws IOException {
+        if (info == null || !PKCSObjectIdentifiers.rsaEncryption.equals(info.getPrivateKeyAlgorithm().getAlgorithm())) {
+            return null;
+        }
+        ASN1Sequence seq = ASN1Sequence.getInstance(info.parsePrivateKey());
+        if (ASN1Integer.getInstance(seq.getObjectAt(0)).intValueExact() != VERSION_MULTI || seq.size() != 10) {
+            return null;
+        }
+        BigInteger[] v = new BigInteger[8];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = ASN1Integer.getInstance(seq.getObjectAt(i + 1)).getValue();
+        }
+        ASN1Sequence others = ASN1Sequence.getInstance(seq.getObjectAt(9));
+        RSAOtherPrimeInfo[] infos = new RSAOtherPrimeInfo[others.size()];
+        for (int i = 0; i < infos.length; i++) {
+            ASN1Sequence o = ASN1Sequence.getInstance(others.getObjectAt(i));
+            infos[i] = new RSAOtherPrimeInfo(ASN1Integer.getInstance(o.getObjectAt(0)).getValue(),
+                    ASN1Integer.getInstance(o.getObjectAt(1)).getValue(),
+                    ASN1Integer.getInstance(o.getObjectAt(2)).getValue());
+        }
+        return new MultiPrimeRSAPrivateKey(new RSAMultiPrimePrivateCrtKeySpec(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], infos));
+    }
+
+    /**
+     * All primes of key in order of RFC 8017: p, q, then other primes
+     *
+     * @return primes of key
+     */
+    public BigInteger[] getPrimes() {
+        BigInteger[] res = new BigInteger[otherPrimes.length + 2];
+        res[0] = primeP;
+        res[1] = primeQ;
+        System.arraycopy(otherPrimes, 0, res, 2, otherPrimes.length);
+        return res;
+    }
+
+    @Override
+    public BigInteger getModulus() {
+        return modulus;
+    }
+
+    @Override
+    public BigInteger getPublicExponent() {
+        return publicExponent;
+    }
+
+    @Override
+    public BigInteger getPrivateExponent() {
+        return privateExponent;
+    }
+
+    @Override
+    public BigInteger getPrimeP() {
+        return primeP;
+    }
+
+    @Override
+    public BigInteger getPrimeQ() {
+        return primeQ;
+    }
+
+    @Override
+    public BigInteger getPrimeExponentP() {
+        return primeExponentP;
+    }
+
+    @Override
+    public BigInteger getPrimeExponentQ() {
+        return primeExponentQ;
+    }
+
+    @Override
+    public BigInteger getCrtCoefficient() {
+        return crtCoefficient;
+    }
+
+    @Override
+    public RSAOtherPrimeInfo[] getOtherPrimeInfo() {
+        RSAOtherPrimeInfo[] res = new RSAOtherPrimeInfo[otherPrimes.length];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = new RSAOtherPrimeInfo(otherPrimes[i], otherExponents[i], otherCoefficients[i]);
+        }
+        return res;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return "RSA";
+    }
+
+    @Override
+    public String getFormat() {
+        return "PKCS#8";
+    }
+
+    @Override
+    public byte[] getEncoded() {
+        ASN1EncodableVector others = new ASN1EncodableVector();
+        for (int i = 0; i < otherPrimes.length; i++) {
+            others.add(new DERSequence(new ASN1Integer[]{
+                new ASN1Integer(otherPrimes[i]), new ASN1Integer(otherExponents[i]), new ASN1Integer(otherCoefficients[i])}));
+        }
+        ASN1EncodableVector key = new ASN1EncodableVector();
+        key.add(new ASN1Integer(VERSION_MULTI));
+        key.add(new ASN1Integer(modulus));
+        key.add(new ASN1Integer(publicExponent));
+        key.add(new ASN1Integer(privateExponent));
+        key.add(new ASN1Integer(primeP));
+        key.add(new ASN1Integer(primeQ));
+        key.add(new ASN1Integer(primeExponentP));
+        key.add(new ASN1Integer(primeExponentQ));
+        key.add(new ASN1Integer(crtCoefficient));
+        key.add(new DERSequence(others));
+        try {
+            return new PrivateKeyInfo(new AlgorithmIdentifier(PKCSObjectIdentifiers.rsaEncryption, DERNull.INSTANCE),
+                    new DERSequence(key)).getEncoded(ASN1Encoding.DER);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Can not encode multi-prime RSA key", ex);
+        }
+    }
+
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.impl.rsa;
+
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.security.spec.RSAMultiPrimePrivateCrtKeySpec;
+import java.security.spec.RSAOtherPrimeInfo;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import ua.cn.al.easycrypt.CryptoConfig;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+
+/**
+ * RSA key generator that searches for primes concurrently on all workers of
+ * ForkJoinPool. Each worker sieves random windows of odd candidates by small
+ * primes and tests survivors by BigInteger.isProbablePrime (Miller-Rabin and
+ * Lucas test). First primes found are used, so time of generation is divided
+ * by number of cores. Each of k primes is not less than 2^(bits - 1/k), so
+ * modulus has exactly requested length, distance between primes and private
+ * exponent are checked as in FIPS 186-4. 2-prime keys are created by
+ * KeyFactory of provider and are the same as keys of KeyPairGenerator,
+ * multi-prime keys (RFC 8017) are MultiPrimeRSAPrivateKey.
+ * Generation can be cancelled by cancel() or by interruption of calling
+ * thread. Progress listener is called from worker threads.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class ParallelRSAKeyGenerator {
+
+    public static final BigInteger DEFAULT_PUBLIC_EXPONENT = RSAKeyGenParameterSpec.F4;
+    /**
+     * Progress listener is called each time this number of candidates is
+     * tested and each time prime is found
+     */
+    public static final int PROGRESS_INTERVAL = 64;
+    private static final int PRIME_CERTAINTY = 100;
+    private static final int SMALL_PRIMES_LIMIT = 1 << 14;
+    private static final int[] SMALL_PRIMES = smallPrimes(SMALL_PRIMES_LIMIT);
+    private static final int BOUND_PRECISION = 62;
+
+    /**
+     * Progress of key generation
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * @param primesFound number of primes found
+         * @param primesRequired number of primes of key
+         * @param candidatesTested number of candidates tested by primality
+         * test so far
+         */
+        void onProgress(int primesFound, int primesRequired, long candidatesTested);
+    }
+
+    private final int keyLen;
+    private final int[] primeSizes;
+    private final int minPrimeLen;
+    private final double minMantissa;
+    private final BigInteger publicExponent;
+    private volatile ProgressListener progressListener;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates generator of 2-prime RSA keys with public exponent 65537
+     *
+     * @param keyLen modulus length in bits, 2048 or more
+     */
+    public ParallelRSAKeyGenerator(int keyLen) {
+        this(keyLen, 2);
+    }
+
+    /**
+     * Creates generator of multi-prime RSA keys with public exponent 65537
+     *
+     * @param keyLen modulus length in bits, 2048 or more
+     * @param primeCount number of primes, from 2 to maxPrimes(keyLen)
+     */
+    public ParallelRSAKeyGenerator(int keyLen, int primeCount) {
+        if (keyLen < 2048 || keyLen % 2 != 0) {
+            throw new IllegalArgumentException("Key length must be even and at least 2048 bits: " + keyLen);
+        }
+        if (primeCount < 2 || primeCount > maxPrimes(keyLen)) {
+            throw new IllegalArgumentException("Number of primes of " + keyLen + " bit key must be between 2 and "
+                    + maxPrimes(keyLen) + ": " + primeCount);
+        }
+        this.keyLen = keyLen;
+        this.primeSizes = new int[primeCount];
+        for (int i = 0; i < primeCount; i++) {
+            primeSizes[i] = keyLen / primeCount + (i < keyLen % primeCount ? 1 : 0);
+        }
+        this.minPrimeLen = keyLen / primeCount;
+        this.minMantissa = Math.pow(2, -1.0 / primeCount);
+        this.publicExponent = DEFAULT_PUBLIC_EXPONENT;
+    }
+
+    /**
+     * Maximal number of primes that does not make factoring easier than
+     * factoring of 2-prime modulus, recommended by Hinek, "On the security of
+     * multi-prime RSA", 2006
+     *
+     * @param keyLen modulus length in bits
+     * @return 3 for keys shorter than 4096 bits, 4 for keys shorter than 8192
+     * bits, 5 for longer keys
+     */
+    public static int maxPrimes(int keyLen) {
+        if (keyLen < 4096) {
+            return 3;
+        }
+        return keyLen < 8192 ? 4 : 5;
+    }
+
+    public int getKeyLen() {
+        return keyLen;
+    }
+
+    public int getPrimeCount() {
+        return primeSizes.length;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Cancels running generation, generateKeys() throws
+     * CancellationException. Cancelled generator can not be used anymore.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Generates key pair using common ForkJoinPool
+     *
+     * @return RSA key pair
+     * @throws CryptoNotValidException if keys can not be created by provider
+     * @throws CancellationException if generation is cancelled or calling
+     * thread is interrupted
+     */
+    public KeyPair generateKeys() throws CryptoNotValidException {
+        return generateKeys(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Generates key pair
+     *
+     * @param pool pool to search primes in, null to search in calling thread
+     * @return RSA key pair
+     * @throws CryptoNotValidException if keys can not be created by provider
+     * @throws CancellationException if generation is cancelled or calling
+     * thread is interrupted
+     */
+    public KeyPair generateKeys(ForkJoinPool pool) throws CryptoNotValidException {
+        while (true) {
+            List<BigInteger> primes = findPrimes(pool);
+            KeyPair pair = createKeys(primes);
+            if (pair != null) {
+                return pair;
+            }
+        }
+    }
+
+    /**
+     * Finds all primes of key, @see Search
+     */
+    private List<BigInteger> findPrimes(ForkJoinPool pool) {
+        Search search = new Search();
+        if (pool == null) {
+            search.run();
+        } else {
+            int workers = Math.max(1, pool.getParallelism());
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                tasks.add(pool.submit(search));
+            }
+            try {
+                for (ForkJoinTask<?> t : tasks) {
+                    t.get();
+                }
+            } catch (InterruptedException ex) {
+                search.stop();
+                Thread.currentThread().interrupt();
+                throw new CancellationException("RSA key generation is interrupted");
+            } catch (ExecutionException ex) {
+                search.stop();
+                throw new IllegalStateException("Prime search failed", ex.getCause());
+            }
+        }
+        if (cancelled) {
+            throw new CancellationException("RSA key generation is cancelled");
+        }
+        List<BigInteger> primes = search.getPrimes();
+        if (Thread.currentThread().isInterrupted() || primes.size() < primeSizes.length) {
+            //sequential search returns early on interruption
+            throw new CancellationException("RSA key generation is interrupted");
+        }
+        return primes;
+    }
+
+    /**
+     * Creates keys from primes
+     *
+     * @return key pair or null if primes do not give valid key
+     */
+    private KeyPair createKeys(List<BigInteger> primes) throws CryptoNotValidException {
+        primes.sort(Comparator.reverseOrder());
+        BigInteger n = BigInteger.ONE;
+        BigInteger lambda = BigInteger.ONE;
+        for (BigInteger prime : primes) {
+            BigInteger pm1 = prime.subtract(BigInteger.ONE);
+            n = n.multiply(prime);
+            lambda = lambda.divide(lambda.gcd(pm1)).multiply(pm1);
+        }
+        BigInteger d = publicExponent.modInverse(lambda);
+        if (n.bitLength() != keyLen || d.bitLength() <= keyLen / 2) {
+            return null;
+        }
+        BigInteger p = primes.get(0);
+        BigInteger q = primes.get(1);
+        BigInteger dp = d.mod(p.subtract(BigInteger.ONE));
+        BigInteger dq = d.mod(q.subtract(BigInteger.ONE));
+        BigInteger qInv = q.modInverse(p);
+        try {
+            KeyFactory kf = KeyFactory.getInstance("RSA", CryptoConfig.getProvider());
+            PublicKey pub = kf.generatePublic(new RSAPublicKeySpec(n, publicExponent));
+            if (primes.size() > 2) {
+                RSAOtherPrimeInfo[] others = new RSAOtherPrimeInfo[primes.size() - 2];
+                BigInteger product = p.multiply(q);
+                for (int i = 2; i < primes.size(); i++) {
+                    BigInteger r = primes.get(i);
+                    others[i - 2] = new RSAOtherPrimeInfo(r, d.mod(r.subtract(BigInteger.ONE)), product.modInverse(r));
+                    product = product.multiply(r);
+                }
+                PrivateKey priv = new MultiPrimeRSAPrivateKey(new RSAMultiPrimePrivateCrtKeySpec(n, publicExponent, d,
+                        p, q, dp, dq, qInv, others));
+                return new KeyPair(pub, priv);
+            }
+            PrivateKey priv = kf.generatePrivate(new RSAPrivateCrtKeySpec(n, publicExponent, d, p, q, dp, dq, qInv));
+            return new KeyPair(pub, priv);
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            throw new CryptoNotValidException("Can not create RSA keys", ex);
+        }
+    }
+
+    /**
+     * State of one search of primes shared by workers. Worker searches for
+     * prime of size that is still required, found prime is accepted if it is
+     * far enough from already found ones.
+     */
+    private class Search implements Runnable {
+
+        private final List<Integer> required = new ArrayList<>();
+        private final List<BigInteger> found = new ArrayList<>();
+        private final AtomicLong tested = new AtomicLong();
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        private volatile boolean done = false;
+
+        Search() {
+            for (int size : primeSizes) {
+                required.add(size);
+            }
+        }
+
+        void stop() {
+            done = true;
+        }
+
+        boolean isStopped() {
+            return done || cancelled || Thread.currentThread().isInterrupted();
+        }
+
+        synchronized List<BigInteger> getPrimes() {
+            return new ArrayList<>(found);
+        }
+
+        @Override
+        public void run() {
+            SecureRandom rnd = new SecureRandom();
+            while (!isStopped()) {
+                int bits;
+                synchronized (this) {
+                    if (required.isEmpty()) {
+                        return;
+                    }
+                    bits = required.get(rnd.nextInt(required.size()));
+                }
+                BigInteger prime = searchPrime(bits, rnd);
+                if (prime != null) {
+                    offer(prime);
+                }
+            }
+        }
+
+        private void offer(BigInteger prime) {
+            int primesFound;
+            synchronized (this) {
+                Integer size = prime.bitLength();
+                if (!required.contains(size)) {
+                    return;
+                }
+                for (BigInteger other : found) {
+                    //FIPS 186-4: |p - q| > 2^(nlen/2 - 100)
+                    if (prime.subtract(other).abs().bitLength() <= minPrimeLen - 100) {
+                        return;
+                    }
+                }
+                required.remove(size);
+                found.add(prime);
+                primesFound = found.size();
+                if (required.isEmpty()) {
+                    done = true;
+                }
+            }
+            notifyProgress(primesFound, tested.get());
+        }
+
+        private void notifyProgress(int primesFound, long candidates) {
+            ProgressListener l = progressListener;
+            if (l != null) {
+                l.onProgress(primesFound, primeSizes.length, candidates);
+            }
+        }
+
+        /**
+         * Sieves window of odd numbers starting at random number not less than
+         * 2^(bits - 1/k) and tests candidates that are not divisible by small
+         * primes
+         *
+         * @return prime or null if search is stopped
+         */
+        private BigInteger searchPrime(int bits, SecureRandom rnd) {
+            int window = Math.max(1024, bits * 2);
+            BigInteger lowerBound = BigInteger.valueOf((long) Math.ceil(minMantissa * (1L << BOUND_PRECISION)))
+                    .shiftLeft(bits - BOUND_PRECISION);
+            while (!isStopped()) {
+                BigInteger base = new BigInteger(bits, rnd);
+                if (base.compareTo(lowerBound) < 0) {
+                    continue;
+                }
+                base = base.setBit(0);
+                BitSet composite = new BitSet(window);
+                for (int sp : SMALL_PRIMES) {
+                    int r = base.mod(BigInteger.valueOf(sp)).intValue();
+                    //first i where base + 2i is divisible by sp
+                    int i = (int) ((long) ((sp - r) % sp) * ((sp + 1) / 2) % sp);
+                    for (; i < window; i += sp) {
+                        composite.set(i);
+                    }
+                }
+                for (int i = composite.nextClearBit(0); i < window && !isStopped(); i = composite.nextClearBit(i + 1)) {
+                    BigInteger candidate = base.add(BigInteger.valueOf(2L * i));
+                    if (candidate.bitLength() != bits) {
+                        break;
+                    }
+                    long n = tested.incrementAndGet();
+                    if (n % PROGRESS_INTERVAL == 0) {
+                        int primesFound;
+                        synchronized (this) {
+                            primesFound = found.size();
+                        }
+                        notifyProgress(primesFound, n);
+                    }
+                    if (!candidate.subtract(BigInteger.ONE).gcd(publicExponent).equals(BigInteger.ONE)) {
+                        continue;
+                    }
+                    if (candidate.isProbablePrime(PRIME_CERTAINTY)) {
+                        return candidate;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private static int[] smallPrimes(int limit) {
+        BitSet composite = new BitSet(limit);
+        List<Integer> res = new ArrayList<>();
+        for (int i = 3; i < limit; i += 2) {
+            if (!composite.get(i)) {
+                res.add(i);
+                for (long j = (long) i * i; j < limit; j += 2L * i) {
+                    composite.set((int) j);
+                }
+            }
+        }
+        return res.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
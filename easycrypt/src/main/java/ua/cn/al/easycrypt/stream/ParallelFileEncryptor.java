@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.dataformat.SegmentedAEADHeader;
+
+/**
+ * Multi-core encryption of files to segmented AEAD format, @see
+ * SegmentedAEADHeader. Segments have independent nonces and fixed positions,
+ * so ranges of segments are encrypted concurrently and written by positional
+ * FileChannel.write. Output is byte-identical to SegmentedCipherOutputStream
+ * with the same key, IV and segment size.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class ParallelFileEncryptor {
+
+    /**
+     * Files with less segments are encrypted in calling thread
+     */
+    public static final int PARALLEL_THRESHOLD = 4;
+
+    private final CryptoParams params;
+    private final byte[] key;
+    private final int segmentSize;
+
+    /**
+     * Creates encryptor
+     *
+     * @param params crypto parameters
+     * @param key 128 or 256 bits key
+     * @param segmentSize size of plain text in one segment
+     */
+    public ParallelFileEncryptor(CryptoParams params, byte[] key, int segmentSize) {
+        params.checkSymKey(key);
+        if (segmentSize < SegmentedAEADHeader.MIN_SEGMENT_SIZE || segmentSize > SegmentedAEADHeader.MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between " + SegmentedAEADHeader.MIN_SEGMENT_SIZE
+                    + " and " + SegmentedAEADHeader.MAX_SEGMENT_SIZE);
+        }
+        this.params = params;
+        this.key = key.clone();
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Encrypts file using common ForkJoinPool
+     *
+     * @param in plain file
+     * @param out encrypted file, created or truncated
+     * @param iv 12 bytes of IV, must be unique for the key
+     * @return size of encrypted file
+     * @throws IOException if file can not be read or written
+     * @throws CryptoNotValidException on encryption error
+     */
+    public long encrypt(Path in, Path out, byte[] iv) throws IOException, CryptoNotValidException {
+        return encrypt(in, out, iv, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Encrypts file
+     *
+     * @param in plain file, must not be modified during encryption
+     * @param out encrypted file, created or truncated
+     * @param iv 12 bytes of IV, must be unique for the key
+     * @param pool pool to run encryption on or null to encrypt in calling thread
+     * @return size of encrypted file
+     * @throws IOException if file can not be read or written
+     * @throws CryptoNotValidException on encryption error
+     */
+    public long encrypt(Path in, Path out, byte[] iv, ForkJoinPool pool) throws IOException, CryptoNotValidException {
+        SegmentedAEADHeader header = new SegmentedAEADHeader(segmentSize, params.getGcmAuthTagLenBits() / 8, iv);
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+                FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long plainSize = src.size();
+            long segments = header.segmentCount(plainSize);
+            if (segments > SegmentedAEADHeader.MAX_SEGMENTS) {
+                throw new IOException("File is too big for segment size " + segmentSize);
+            }
+            writeFully(dst, ByteBuffer.wrap(header.toBytes()), 0);
+            if (pool == null || segments < PARALLEL_THRESHOLD) {
+                encryptRange(header, src, dst, plainSize, 0, segments, new AtomicBoolean());
+            } else {
+                runParallel(header, src, dst, plainSize, segments, pool);
+            }
+            return header.encryptedSize(plainSize);
+        }
+    }
+
+    private void runParallel(SegmentedAEADHeader header, FileChannel src, FileChannel dst, long plainSize, long segments,
+            ForkJoinPool pool) throws IOException, CryptoNotValidException {
+        long tasks = Math.min(segments, pool.getParallelism() * 4L);
+        List<ForkJoinTask<Void>> futures = new ArrayList<>();
+        AtomicBoolean stop = new AtomicBoolean();
+        for (long t = 0; t < tasks; t++) {
+            long from = segments * t / tasks;
+            long to = segments * (t + 1) / tasks;
+            futures.add(pool.submit(() -> {
+                encryptRange(header, src, dst, plainSize, from, to, stop);
+                return null;
+            }));
+        }
+        for (ForkJoinTask<Void> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                stopAll(futures, stop);
+                throw new IOException("Encryption interrupted", ex);
+            } catch (ExecutionException ex) {
+                stopAll(futures, stop);
+                if (ex.getCause() instanceof IOException ioe) {
+                    throw ioe;
+                }
+                if (ex.getCause() instanceof CryptoNotValidException cne) {
+                    throw cne;
+                }
+                throw new IOException(ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Stops workers and waits for them, so channels are not closed under
+     * running workers. Cancel does not stop running ForkJoin tasks.
+     */
+    private static void stopAll(List<ForkJoinTask<Void>> futures, AtomicBoolean stop) {
+        stop.set(true);
+        futures.forEach(ForkJoinTask::quietlyJoin);
+    }
+
+    /**
+     * Encrypts segments [from, to) with own cipher and buffers until stopped
+     */
+    private void encryptRange(SegmentedAEADHeader header, FileChannel src, FileChannel dst, long plainSize, long from, long to,
+            AtomicBoolean stop) throws IOException, CryptoNotValidException {
+        SegmentCipher segmentCipher = new SegmentCipher(params, header, key);
+        byte[] plain = new byte[segmentSize];
+        byte[] encrypted = new byte[header.getEncryptedSegmentSize()];
+        long segments = header.segmentCount(plainSize);
+        for (long i = from; i < to && !stop.get(); i++) {
+            boolean last = i == segments - 1;
+            long pos = i * segmentSize;
+            int len = (int) Math.min(segmentSize, plainSize - pos);
+            ByteBuffer pb = ByteBuffer.wrap(plain, 0, len);
+            while (pb.hasRemaining()) {
+                if (src.read(pb, pos + pb.position()) < 0) {
+                    throw new IOException("Plain file is truncated during encryption");
+                }
+            }
+            int n = segmentCipher.encryptSegment(i, last, plain, 0, len, encrypted, 0);
+            writeFully(dst, ByteBuffer.wrap(encrypted, 0, n), header.segmentOffset(i));
+        }
+    }
+
+    private static void writeFully(FileChannel dst, ByteBuffer bb, long position) throws IOException {
+        long pos = position;
+        while (bb.hasRemaining()) {
+            pos += dst.write(bb, pos);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.dataformat.SegmentedAEADHeader;
+
+/**
+ * Random access to plain text of file in segmented AEAD format, @see
+ * SegmentedAEADHeader. File is memory-mapped, only segments covering requested
+ * range are decrypted and verified. Recently decrypted segments are kept in
+ * small LRU cache, evicted segments are zeroed. Instance is thread-safe.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class RandomAccessDecryptor implements Closeable {
+
+    public static final int DEFAULT_CACHE_SEGMENTS = 16;
+    /**
+     * File is mapped by windows of whole segments not bigger than this
+     */
+    public static final long MAX_MAP_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final SegmentCipher segmentCipher;
+    private final SegmentedAEADHeader header;
+    private final long fileSize;
+    private final long plainSize;
+    private final long segmentCount;
+    private final long segmentsPerMap;
+    private final MappedByteBuffer[] maps;
+    private final LinkedHashMap<Long, byte[]> cache;
+
+    /**
+     * Opens encrypted file
+     *
+     * @param params crypto parameters
+     * @param file file in segmented AEAD format
+     * @param key 128 or 256 bits key
+     * @param cacheSegments number of decrypted segments to keep in cache, at
+     * least 1
+     * @throws IllegalArgumentException if cacheSegments is less than 1
+     * @throws IOException if file can not be read, header is not valid or file
+     * is truncated
+     * @throws CryptoNotValidException if cipher is not available
+     */
+    public RandomAccessDecryptor(CryptoParams params, Path file, byte[] key, int cacheSegments) throws IOException, CryptoNotValidException {
+        //segment just decrypted is read from cache
+        if (cacheSegments < 1) {
+            throw new IllegalArgumentException("At least one segment must be cached: " + cacheSegments);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer hb = ByteBuffer.allocate(SegmentedAEADHeader.HEADER_SIZE);
+            int n;
+            do {
+                n = channel.read(hb, hb.position());
+            } while (n > 0 && hb.hasRemaining());
+            if (hb.hasRemaining()) {
+                throw new IOException("Segmented AEAD stream header is truncated");
+            }
+            header = SegmentedAEADHeader.fromBytes(hb.array(), params.getGcmAuthTagLenBits() / 8);
+            segmentCipher = new SegmentCipher(params, header, key);
+            fileSize = channel.size();
+            plainSize = header.plainSize(fileSize);
+            segmentCount = header.segmentCount(plainSize);
+            segmentsPerMap = Math.max(1, MAX_MAP_SIZE / header.getEncryptedSegmentSize());
+            maps = new MappedByteBuffer[(int) ((segmentCount + segmentsPerMap - 1) / segmentsPerMap)];
+        } catch (IOException | CryptoNotValidException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+        cache = new LinkedHashMap<>(cacheSegments * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                if (size() > cacheSegments) {
+                    Arrays.fill(eldest.getValue(), (byte) 0);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public SegmentedAEADHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Size of plain text
+     *
+     * @return plain text size in bytes
+     */
+    public long size() {
+        return plainSize;
+    }
+
+    /**
+     * Reads plain text range
+     *
+     * @param position position in plain text
+     * @param dst destination buffer
+     * @param off offset in destination buffer
+     * @param len number of bytes to read
+     * @return number of bytes read, less than len at the end of plain text,
+     * -1 if position is at or after the end
+     * @throws IOException if segment is not authentic or file can not be read
+     */
+    public synchronized int read(long position, byte[] dst, int off, int len) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position: " + position);
+        }
+        if (position >= plainSize) {
+            return len == 0 ? 0 : -1;
+        }
+        int total = (int) Math.min(len, plainSize - position);
+        int done = 0;
+        int segmentSize = header.getSegmentSize();
+        while (done < total) {
+            long pos = position + done;
+            long index = pos / segmentSize;
+            int inSegment = (int) (pos - index * segmentSize);
+            byte[] plain = segment(index);
+            int n = Math.min(total - done, plain.length - inSegment);
+            System.arraycopy(plain, inSegment, dst, off + done, n);
+            done += n;
+        }
+        return total;
+    }
+
+    /**
+     * Reads plain text range
+     *
+     * @param position position in plain text
+     * @param len number of bytes to read
+     * @return plain text, shorter than len at the end of plain text
+     * @throws IOException if segment is not authentic or file can not be read
+     */
+    public byte[] read(long position, int len) throws IOException {
+        byte[] res = new byte[(int) Math.max(0, Math.min(len, plainSize - position))];
+        read(position, res, 0, res.length);
+        return res;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (byte[] plain : cache.values()) {
+            Arrays.fill(plain, (byte) 0);
+        }
+        cache.clear();
+        Arrays.fill(maps, null);
+        channel.close();
+    }
+
+    private byte[] segment(long index) throws IOException {
+        byte[] plain = cache.get(index);
+        if (plain != null) {
+            return plain;
+        }
+        boolean last = index == segmentCount - 1;
+        int encLen = (int) (last ? fileSize - header.segmentOffset(index) : header.getEncryptedSegmentSize());
+        ByteBuffer map = map(index / segmentsPerMap);
+        int start = (int) ((index % segmentsPerMap) * header.getEncryptedSegmentSize());
+        ByteBuffer in = map.duplicate().limit(start + encLen).position(start);
+        plain = new byte[encLen - header.getTagLen()];
+        try {
+            segmentCipher.decryptSegment(index, last, in, ByteBuffer.wrap(plain));
+        } catch (CryptoNotValidException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        cache.put(index, plain);
+        return plain;
+    }
+
+    private MappedByteBuffer map(long mapIndex) throws IOException {
+        int i = (int) mapIndex;
+        if (maps[i] == null) {
+            long offset = header.segmentOffset(mapIndex * segmentsPerMap);
+            long size = Math.min(segmentsPerMap * header.getEncryptedSegmentSize(), fileSize - offset);
+            maps[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        }
+        return maps[i];
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.stream;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.CryptoParams;
+import ua.cn.al.easycrypt.SymKeyHandle;
+import ua.cn.al.easycrypt.dataformat.SegmentedAEADHeader;
+
+/**
+ * Encryption and decryption of single segments of segmented AEAD stream.
+ * Segments are independent, so any segment could be processed in any order.
+ * Not thread-safe: one instance holds one Cipher, use one instance per thread.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class SegmentCipher {
+
+    private final CryptoParams params;
+    private final SegmentedAEADHeader header;
+    private final SymKeyHandle keyHandle;
+    private final SecretKey key;
+    private final byte[] aad;
+    private final Cipher cipher;
+
+    /**
+     * Creates segment cipher
+     *
+     * @param params crypto parameters
+     * @param header header of stream
+     * @param key 128 or 256 bits key
+     * @throws CryptoNotValidException if cipher is not available
+     */
+    public SegmentCipher(CryptoParams params, SegmentedAEADHeader header, byte[] key) throws CryptoNotValidException {
+        this(params, header, new SymKeyHandle(params, key));
+    }
+
+    /**
+     * Creates segment cipher with prepared key
+     *
+     * @param params crypto parameters
+     * @param header header of stream
+     * @param key key handle prepared for the same symmetric cipher
+     * @throws CryptoNotValidException if cipher is not available, key is
+     * prepared for other cipher or is destroyed
+     */
+    public SegmentCipher(CryptoParams params, SegmentedAEADHeader header, SymKeyHandle key) throws CryptoNotValidException {
+        if (!params.getSymCipher().equals(key.getSymCipher())) {
+            throw new CryptoNotValidException("Key is prepared for " + key.getSymCipher() + ", not for " + params.getSymCipher());
+        }
+        if (key.isDestroyed()) {
+            throw new CryptoNotValidException("Symmetric key is destroyed");
+        }
+        this.params = params;
+        this.header = header;
+        this.keyHandle = key;
+        this.key = key.getSecretKey();
+        this.aad = header.toBytes();
+        try {
+            this.cipher = Cipher.getInstance(params.getSymCipher());
+        } catch (GeneralSecurityException ex) {
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+    }
+
+    public SegmentedAEADHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Encrypts one segment
+     *
+     * @param index segment index
+     * @param last true for last segment
+     * @param in plain text buffer
+     * @param inOff plain text offset
+     * @param len plain text length, segment size for all segments except last
+     * @param out output buffer, len + tag length bytes are written
+     * @param outOff output offset
+     * @return number of bytes written to out
+     * @throws CryptoNotValidException on encryption error
+     */
+    public int encryptSegment(long index, boolean last, byte[] in, int inOff, int len, byte[] out, int outOff) throws CryptoNotValidException {
+        checkLength(last, len);
+        return process(Cipher.ENCRYPT_MODE, index, last, in, inOff, len, out, outOff);
+    }
+
+    /**
+     * Decrypts and verifies one segment
+     *
+     * @param index segment index
+     * @param last true for last segment
+     * @param in encrypted segment buffer
+     * @param inOff encrypted segment offset
+     * @param len encrypted segment length including tag
+     * @param out output buffer, len - tag length bytes are written
+     * @param outOff output offset
+     * @return number of bytes written to out
+     * @throws CryptoNotValidException if segment is not authentic, i.e.
+     * modified, moved or truncated
+     */
+    public int decryptSegment(long index, boolean last, byte[] in, int inOff, int len, byte[] out, int outOff) throws CryptoNotValidException {
+        checkLength(last, len - header.getTagLen());
+        try {
+            return process(Cipher.DECRYPT_MODE, index, last, in, inOff, len, out, outOff);
+        } catch (CryptoNotValidException ex) {
+            throw new CryptoNotValidException("Segment " + index + " authentication failed", ex);
+        }
+    }
+
+    /**
+     * Decrypts and verifies one segment without copying, e.g. directly from
+     * memory-mapped file
+     *
+     * @param index segment index
+     * @param last true for last segment
+     * @param in encrypted segment with tag between position and limit
+     * @param out output buffer
+     * @return number of bytes written to out
+     * @throws CryptoNotValidException if segment is not authentic
+     */
+    public int decryptSegment(long index, boolean last, ByteBuffer in, ByteBuffer out) throws CryptoNotValidException {
+        checkLength(last, in.remaining() - header.getTagLen());
+        init(Cipher.DECRYPT_MODE, index, last);
+        try {
+            return cipher.doFinal(in, out);
+        } catch (GeneralSecurityException ex) {
+            throw new CryptoNotValidException("Segment " + index + " authentication failed", ex);
+        }
+    }
+
+    /**
+     * Inits cipher for segment, key destroyed by other thread is reported as
+     * CryptoNotValidException
+     */
+    private void init(int mode, long index, boolean last) throws CryptoNotValidException {
+        if (keyHandle.isDestroyed()) {
+            throw new CryptoNotValidException("Symmetric key is destroyed");
+        }
+        try {
+            cipher.init(mode, key, params.getSymParameterSpec(header.segmentNonce(index, last)));
+            cipher.updateAAD(aad);
+        } catch (GeneralSecurityException ex) {
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        } catch (IllegalStateException ex) {
+            throw new CryptoNotValidException("Symmetric key is destroyed", ex);
+        }
+    }
+
+    private void checkLength(boolean last, int plainLen) throws CryptoNotValidException {
+        boolean ok = last ? plainLen >= 0 && plainLen < header.getSegmentSize() : plainLen == header.getSegmentSize();
+        if (!ok) {
+            throw new CryptoNotValidException("Wrong segment length: " + plainLen + (last ? " of last segment" : ""));
+        }
+    }
+
+    private int process(int mode, long index, boolean last, byte[] in, int inOff, int len, byte[] out, int outOff) throws CryptoNotValidException {
+        init(mode, index, last);
+        try {
+            return cipher.doFinal(in, inOff, len, out, outOff);
+        } catch (GeneralSecurityException ex) {
+            throw new CryptoNotValidException(ex.getMessage(), ex);
+        }
+    }
+}
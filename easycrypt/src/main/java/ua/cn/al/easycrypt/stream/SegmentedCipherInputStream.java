@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.dataformat.SegmentedAEADHeader;
+
+/**
+ * Input stream that decrypts data in segmented AEAD format, @see
+ * SegmentedAEADHeader. Each segment is verified before any of its bytes are
+ * returned, so memory usage is bounded by segment size. Modified, reordered,
+ * truncated or appended segments cause IOException.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class SegmentedCipherInputStream extends InputStream {
+
+    private final InputStream source;
+    private final SegmentCipher segmentCipher;
+    private final byte[] encrypted;
+    private final byte[] plain;
+    private int plainPos = 0;
+    private int plainLen = 0;
+    private long index = 0;
+    private boolean lastDone = false;
+
+    /**
+     * Creates decrypting stream, header must be already read from source
+     *
+     * @param source stream positioned at first segment
+     * @param segmentCipher segment cipher with header of this stream
+     */
+    public SegmentedCipherInputStream(InputStream source, SegmentCipher segmentCipher) {
+        this.source = source;
+        this.segmentCipher = segmentCipher;
+        SegmentedAEADHeader header = segmentCipher.getHeader();
+        this.encrypted = new byte[header.getEncryptedSegmentSize()];
+        this.plain = new byte[header.getSegmentSize()];
+    }
+
+    public SegmentedAEADHeader getHeader() {
+        return segmentCipher.getHeader();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (plainPos == plainLen) {
+            if (lastDone) {
+                return -1;
+            }
+            readSegment();
+        }
+        int n = Math.min(len, plainLen - plainPos);
+        System.arraycopy(plain, plainPos, b, off, n);
+        plainPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return plainLen - plainPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * Reads and decrypts next segment. Full segment is never last one, short
+     * segment is always last one, so no read-ahead is required.
+     */
+    private void readSegment() throws IOException {
+        int n = source.readNBytes(encrypted, 0, encrypted.length);
+        boolean last = n < encrypted.length;
+        if (n == 0) {
+            throw new IOException("Segmented AEAD stream is truncated, last segment is missing");
+        }
+        if (index >= SegmentedAEADHeader.MAX_SEGMENTS) {
+            throw new IOException("Too many segments in stream");
+        }
+        try {
+            plainLen = segmentCipher.decryptSegment(index, last, encrypted, 0, n, plain, 0);
+        } catch (CryptoNotValidException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        plainPos = 0;
+        index++;
+        lastDone = last;
+    }
+}
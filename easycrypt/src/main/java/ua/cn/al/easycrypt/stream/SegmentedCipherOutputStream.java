@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018-2024 Oleksiy Lukin <alukin@gmail.com> and CONTRIBUTORS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua.cn.al.easycrypt.stream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import ua.cn.al.easycrypt.CryptoNotValidException;
+import ua.cn.al.easycrypt.dataformat.SegmentedAEADHeader;
+
+/**
+ * Output stream that encrypts data in segmented AEAD format, @see
+ * SegmentedAEADHeader. Memory usage is bounded by segment size. Stream must be
+ * closed, otherwise last segment is not written and decryption fails as
+ * truncated stream.
+ *
+ * @author Oleksiy Lukin alukin@gmail.com
+ */
+public class SegmentedCipherOutputStream extends OutputStream {
+
+    private final OutputStream sink;
+    private final SegmentCipher segmentCipher;
+    private final byte[] plain;
+    private final byte[] encrypted;
+    private int plainLen = 0;
+    private long index = 0;
+    private boolean headerWritten = false;
+    private boolean closed = false;
+
+    public SegmentedCipherOutputStream(OutputStream sink, SegmentCipher segmentCipher) {
+        this.sink = sink;
+        this.segmentCipher = segmentCipher;
+        SegmentedAEADHeader header = segmentCipher.getHeader();
+        this.plain = new byte[header.getSegmentSize()];
+        this.encrypted = new byte[header.getEncryptedSegmentSize()];
+    }
+
+    public SegmentedAEADHeader getHeader() {
+        return segmentCipher.getHeader();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+        while (len > 0) {
+            int n = Math.min(len, plain.length - plainLen);
+            System.arraycopy(b, off, plain, plainLen, n);
+            plainLen += n;
+            off += n;
+            len -= n;
+            //full segment is never last one, last segment is written on close
+            if (plainLen == plain.length) {
+                writeSegment(false);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        sink.flush();
+    }
+
+    /**
+     * Writes last segment and closes underlying stream
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeSegment(true);
+        } finally {
+            closed = true;
+            sink.close();
+        }
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+        if (!headerWritten) {
+            sink.write(getHeader().toBytes());
+            headerWritten = true;
+        }
+        if (index >= SegmentedAEADHeader.MAX_SEGMENTS - 1 && !last) {
+            throw new IOException("Too many segments in stream");
+        }
+        try {
+            int n = segmentCipher.encryptSegment(index, last, plain, 0, plainLen, encrypted, 0);
+            sink.write(encrypted, 0, n);
+        } catch (CryptoNotValidException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        index++;
+        plainLen = 0;
+    }
+}
@@ -19,22 +19,42 @@ package ua.cn.al.easycrypt;
 
 import ua.cn.al.easycrypt.impl.CryptoSignatureImpl;
 import ua.cn.al.easycrypt.impl.KeyReaderImpl;
+import ua.cn.al.easycrypt.impl.KeyWriterImpl;
 import ua.cn.al.easycrypt.impl.rsa.AsymCryptorRSAImpl;
+import ua.cn.al.easycrypt.impl.rsa.ParallelRSAKeyGenerator;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAMultiPrimePrivateCrtKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPrivateKeySpec;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -153,4 +173,143 @@ public class AsymCryptoRSATest extends TestBase {
 
     
 
+    @Test
+    public void testParallelKeyGeneration() throws Exception {
+        System.out.println("parallel RSA key generation");
+        CryptoParams p2k = CryptoConfig.createRSAn(2048);
+        CryptoFactory factory = CryptoFactory.newInstance(p2k);
+        ParallelRSAKeyGenerator generator = factory.getParallelRSAKeyGenerator();
+        AtomicInteger maxFound = new AtomicInteger();
+        generator.setProgressListener((found, required, tested) -> maxFound.accumulateAndGet(found, Math::max));
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            KeyPair kp = generator.generateKeys(pool);
+            assertEquals(2, maxFound.get());
+            RSAPrivateCrtKey priv = (RSAPrivateCrtKey) kp.getPrivate();
+            assertEquals(2048, priv.getModulus().bitLength());
+            assertEquals(priv.getModulus(), priv.getPrimeP().multiply(priv.getPrimeQ()));
+            //keys are interchangeable with keys of provider
+            KeyFactory kf = KeyFactory.getInstance("RSA");
+            PrivateKey decoded = kf.generatePrivate(new PKCS8EncodedKeySpec(kp.getPrivate().getEncoded()));
+            AsymCryptor instance1 = new AsymCryptorRSAImpl(p2k);
+            instance1.setKeys(new AsymKeysHolder(kp.getPublic(), kp.getPrivate(), kp.getPublic()));
+            AsymCryptor instance2 = new AsymCryptorRSAImpl(p2k);
+            instance2.setKeys(new AsymKeysHolder(kp.getPublic(), decoded, kp.getPublic()));
+            byte[] plain = "Red fox Jumps over Lazy Dog".getBytes();
+            assertArrayEquals(plain, instance2.decrypt(instance1.encrypt(plain)));
+            CryptoSignature signer = new CryptoSignatureImpl(p2k);
+            signer.setKeys(new AsymKeysHolder(kp.getPublic(), kp.getPrivate(), kp.getPublic()));
+            assertTrue(signer.verify(plain, signer.sign(plain)));
+            assertEquals(2048, ((RSAPrivateCrtKey) factory.getKeyGenerator().generateKeys().getPrivate()).getModulus().bitLength());
+
+            //16K key generation is cancelled
+            ParallelRSAKeyGenerator big = new ParallelRSAKeyGenerator(16384);
+            Thread canceller = new Thread(() -> {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                big.cancel();
+            });
+            canceller.start();
+            long start = System.nanoTime();
+            assertThrows(CancellationException.class, () -> big.generateKeys(pool));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+            assertTrue(big.isCancelled());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        //sequential 16K key generation is interrupted
+        ParallelRSAKeyGenerator sequential = new ParallelRSAKeyGenerator(16384);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread worker = new Thread(() -> {
+            try {
+                sequential.generateKeys(null);
+            } catch (Throwable ex) {
+                error.set(ex);
+            }
+        });
+        worker.start();
+        Thread.sleep(200);
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(30));
+        assertFalse(worker.isAlive());
+        assertTrue(error.get() instanceof CancellationException, String.valueOf(error.get()));
+    }
+
+    @Test
+    public void testOaepPss() throws Exception {
+        System.out.println("RSA OAEP and PSS");
+        CryptoParams oaep = CryptoConfig.createRSAOaepPss(2048);
+        KeyPair kp = CryptoFactory.newInstance(oaep).getKeyGenerator().generateKeys();
+        AsymKeysHolder kh = new AsymKeysHolder(kp.getPublic(), kp.getPrivate(), kp.getPublic());
+        AsymCryptor cryptor = new AsymCryptorRSAImpl(oaep);
+        cryptor.setKeys(kh);
+        byte[] plain = "Red fox Jumps over Lazy Dog".getBytes();
+        byte[] encrypted = cryptor.encrypt(plain);
+        assertArrayEquals(plain, cryptor.decrypt(encrypted));
+        //OAEP is randomized
+        assertFalse(Arrays.equals(encrypted, cryptor.encrypt(plain)));
+        AsymCryptor pkcs1 = new AsymCryptorRSAImpl(CryptoConfig.createRSAn(2048));
+        pkcs1.setKeys(kh);
+        assertThrows(CryptoNotValidException.class, () -> pkcs1.decrypt(encrypted));
+        CryptoSignature signer = new CryptoSignatureImpl(oaep);
+        signer.setKeys(kh);
+        byte[] signature = signer.sign(plain);
+        assertTrue(signer.verify(plain, signature));
+        assertFalse(signer.verify("Red fox Jumps over Lazy Cat".getBytes(), signature));
+    }
+
+    @Test
+    public void testMultiPrime() throws Exception {
+        System.out.println("multi-prime RSA");
+        CryptoParams mp = CryptoConfig.createRSAMultiPrime(2048, 3);
+        KeyPair kp = CryptoFactory.newInstance(mp).getKeyGenerator().generateKeys();
+        RSAMultiPrimePrivateCrtKey priv = (RSAMultiPrimePrivateCrtKey) kp.getPrivate();
+        assertEquals(1, priv.getOtherPrimeInfo().length);
+        assertEquals(2048, priv.getModulus().bitLength());
+        //reference key without CRT made by provider from the same modulus and exponent
+        PrivateKey plainKey = KeyFactory.getInstance("RSA").generatePrivate(
+                new RSAPrivateKeySpec(priv.getModulus(), priv.getPrivateExponent()));
+        byte[] plain = "Red fox Jumps over Lazy Dog".getBytes();
+        for (CryptoParams p : new CryptoParams[]{mp, CryptoConfig.createRSAn(2048)}) {
+            AsymCryptor cryptor = new AsymCryptorRSAImpl(p);
+            cryptor.setKeys(new AsymKeysHolder(kp.getPublic(), priv, kp.getPublic()));
+            AsymCryptor reference = new AsymCryptorRSAImpl(p);
+            reference.setKeys(new AsymKeysHolder(kp.getPublic(), plainKey, kp.getPublic()));
+            assertArrayEquals(plain, cryptor.decrypt(cryptor.encrypt(plain)));
+            assertArrayEquals(plain, reference.decrypt(cryptor.encrypt(plain)));
+            CryptoSignature signer = new CryptoSignatureImpl(p);
+            signer.setKeys(new AsymKeysHolder(kp.getPublic(), priv, kp.getPublic()));
+            assertTrue(signer.verify(plain, signer.sign(plain)));
+        }
+        //PKCS#1 v1.5 signature is deterministic
+        CryptoParams pkcs1 = CryptoConfig.createRSAn(2048);
+        CryptoSignature signer = new CryptoSignatureImpl(pkcs1);
+        signer.setKeys(new AsymKeysHolder(kp.getPublic(), priv, kp.getPublic()));
+        CryptoSignature reference = new CryptoSignatureImpl(pkcs1);
+        reference.setKeys(new AsymKeysHolder(kp.getPublic(), plainKey, kp.getPublic()));
+        assertArrayEquals(reference.sign(plain), signer.sign(plain));
+        //key survives PEM
+        String pem = new KeyWriterImpl().getPvtKeyPEM(priv);
+        PrivateKey read = new KeyReaderImpl().readPrivateKeyPEM(new ByteArrayInputStream(pem.getBytes()));
+        assertTrue(read instanceof RSAMultiPrimePrivateCrtKey);
+        assertArrayEquals(priv.getEncoded(), read.getEncoded());
+        //key is serializable
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(priv);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            PrivateKey deserialized = (PrivateKey) ois.readObject();
+            assertTrue(deserialized instanceof RSAMultiPrimePrivateCrtKey);
+            AsymCryptor cryptor = new AsymCryptorRSAImpl(mp);
+            cryptor.setKeys(new AsymKeysHolder(kp.getPublic(), deserialized, kp.getPublic()));
+            assertArrayEquals(plain, cryptor.decrypt(cryptor.encrypt(plain)));
+        }
+        assertEquals(null, CryptoConfig.createRSAMultiPrime(2048, 4));
+    }
+
 }
@@ -18,21 +18,37 @@
 package ua.cn.al.easycrypt;
 
 import ua.cn.al.easycrypt.dataformat.AEADCiphered;
+import ua.cn.al.easycrypt.dataformat.AEADCipheredView;
 import ua.cn.al.easycrypt.dataformat.AEADPlain;
+import ua.cn.al.easycrypt.dataformat.EnvelopeHeader;
+import ua.cn.al.easycrypt.dataformat.SegmentedAEADHeader;
 import ua.cn.al.easycrypt.impl.KeyReaderImpl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.KeyPair;
 import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.security.spec.InvalidKeySpecException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import ua.cn.al.easycrypt.impl.ecc.AsymJCEECDHImpl;
+import ua.cn.al.easycrypt.impl.ecc.AsymJCEX25519Impl;
 import ua.cn.al.easycrypt.impl.AbstractAsymCryptor;
 import ua.cn.al.easycrypt.impl.CryptoSignatureImpl;
+import ua.cn.al.easycrypt.impl.HKDF;
 import ua.cn.al.easycrypt.impl.ecc.AsymJCEIESImpl;
 import ua.cn.al.easycrypt.impl.JCEDigestImpl;
 import ua.cn.al.easycrypt.impl.ecc.SymJCEImpl;
@@ -41,6 +57,8 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import org.junit.jupiter.api.BeforeAll;
@@ -222,6 +240,155 @@ public class NoFilesCryptoTest {
 
     }
 
+    @Test
+    public void testLargeAEADMessage() throws Exception {
+        System.out.println("Large AEAD message format");
+        byte[] key = new byte[256 / 8];
+        byte[] salt = new byte[4];
+        srand.nextBytes(key);
+        srand.nextBytes(salt);
+        byte[] plain = new byte[200000];
+        srand.nextBytes(plain);
+        SymCryptor instance1 = new SymJCEImpl(params);
+        instance1.setKey(key);
+        instance1.setSalt(salt);
+        instance1.setNonce(null);
+        AEADCiphered small = instance1.encryptWithAEAData(new byte[100], new byte[10]);
+        assertEquals(AEADCiphered.VERSION_0, small.getVersion());
+        instance1.setNonce(null);
+        AEADCiphered msg = instance1.encryptWithAEAData(plain, "open".getBytes());
+        assertEquals(AEADCiphered.VERSION_1, msg.getVersion());
+        byte[] bytes = msg.toBytes();
+        assertEquals(msg.calcBytesSize(), bytes.length);
+
+        //receiver knows exact size from header
+        ByteBuffer header = ByteBuffer.wrap(bytes, 0, 14);
+        assertEquals(-1, AEADCiphered.messageSize(header, params));
+        header = ByteBuffer.wrap(bytes, 0, AEADCiphered.maxHeaderSize(params));
+        assertEquals(bytes.length, AEADCiphered.messageSize(header, params));
+        assertEquals(small.calcBytesSize(), AEADCiphered.messageSize(ByteBuffer.wrap(small.toBytes()), params));
+
+        SymCryptor instance2 = new SymJCEImpl(params);
+        instance2.setKey(key);
+        instance2.setSalt(salt);
+        assertArrayEquals(plain, instance2.decryptWithAEAData(bytes).decrypted);
+        assertArrayEquals(msg.encrypted, AEADCiphered.fromBytes(bytes, params).encrypted);
+        assertArrayEquals(small.encrypted, AEADCiphered.fromBytes(small.toBytes(), params).encrypted);
+        //configurable cap
+        CryptoParams capped = new CryptoParams.CryptoParamsBuilder()
+                .symCipher(CryptoParams.SYM_CIPHER_AES_GCM).gcmAuthTagLenBits(128).aesIvLen(12)
+                .aeadMaxMsgSize(100000).build();
+        assertThrows(IllegalArgumentException.class, () -> AEADCiphered.fromBytes(bytes, capped));
+        assertThrows(IllegalArgumentException.class, () -> AEADCiphered.messageSize(ByteBuffer.wrap(bytes), capped));
+        //header and declared sizes do not overflow with the biggest cap
+        CryptoParams uncapped = new CryptoParams.CryptoParamsBuilder()
+                .symCipher(CryptoParams.SYM_CIPHER_AES_GCM).gcmAuthTagLenBits(128).aesIvLen(12)
+                .aeadMaxMsgSize(Integer.MAX_VALUE).build();
+        ByteBuffer huge = ByteBuffer.allocate(AEADCiphered.maxHeaderSize(uncapped));
+        huge.position(12);
+        AEADCiphered.writeLengths(huge, AEADCiphered.VERSION_1, Integer.MAX_VALUE - 16, 16);
+        byte[] hugeHeader = Arrays.copyOf(huge.array(), huge.position());
+        assertThrows(IllegalArgumentException.class, () -> AEADCiphered.fromBytes(hugeHeader, uncapped));
+        assertThrows(IllegalArgumentException.class, () -> AEADCiphered.messageSize(ByteBuffer.wrap(hugeHeader), uncapped));
+        //cap is checked on encryption too
+        CryptoParams cappedSym = new CryptoParams.CryptoParamsBuilder()
+                .symCipher(CryptoParams.SYM_CIPHER_AES_GCM).gcmAuthTagLenBits(128).aesIvLen(12)
+                .aesKeyLen(256 / 8).aesGcmSaltLen(4).aesGcmNonceLen(8).symNonceGenerator(CryptoParams.NONCE_RANDOM)
+                .aeadMaxMsgSize(100000).build();
+        SymJCEImpl instance3 = new SymJCEImpl(cappedSym);
+        instance3.setKey(key);
+        instance3.setSalt(salt);
+        assertThrows(CryptoNotValidException.class, () -> instance3.encryptWithAEAData(plain, "open".getBytes()));
+        assertThrows(CryptoNotValidException.class, () -> instance3.encryptWithAEAData(new ByteBuffer[]{ByteBuffer.wrap(plain)}, null,
+                ByteBuffer.allocate(instance3.getAEADEncryptedSize(plain.length, 0))));
+        BatchResult batch = instance3.encryptBatch(List.of(new byte[100], plain), null);
+        assertTrue(batch.isOk(0));
+        assertFalse(batch.isOk(1));
+        assertEquals(1, batch.getFailedCount());
+    }
+
+    @Test
+    public void testAEADCipheredView() throws Exception {
+        System.out.println("AEADCipheredView");
+        AEADCiphered msg = new AEADCiphered(params);
+        msg.setExplicitNonce(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        msg.aatext = "open".getBytes();
+        msg.encrypted = new byte[40];
+        srand.nextBytes(msg.encrypted);
+        //two messages one after another in one buffer
+        ByteBuffer bb = ByteBuffer.allocate(2 * msg.calcBytesSize() + 3);
+        bb.put(new byte[3]);
+        assertEquals(msg.calcBytesSize(), msg.writeTo(bb));
+        msg.writeTo(bb);
+        bb.flip().position(3);
+        AEADCipheredView view = AEADCipheredView.wrap(bb, params);
+        assertEquals(3, bb.position());
+        assertEquals(ByteBuffer.wrap(msg.getIV()), view.getIV());
+        assertEquals(ByteBuffer.wrap(msg.aatext), view.getAAD());
+        assertEquals(ByteBuffer.wrap(msg.encrypted), view.getEncrypted());
+        bb.position(3 + view.size());
+        assertEquals(ByteBuffer.wrap(msg.encrypted), AEADCipheredView.wrap(bb, params).getEncrypted());
+        assertArrayEquals(msg.toBytes(), Arrays.copyOfRange(bb.array(), 3, 3 + view.size()));
+        //truncated and overflowed messages
+        byte[] bytes = msg.toBytes();
+        assertThrows(IllegalArgumentException.class, () -> AEADCipheredView.wrap(ByteBuffer.wrap(bytes, 0, bytes.length - 1), params));
+        ByteBuffer.wrap(bytes).putInt(12, Integer.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () -> AEADCipheredView.wrap(ByteBuffer.wrap(bytes), params));
+    }
+
+    @Test
+    public void testGatherScatterAEAD() throws Exception {
+        System.out.println("gather/scatter AEAD");
+        byte[] header = "header".getBytes();
+        byte[] meta = "metadata".getBytes();
+        byte[] body = new byte[3000];
+        srand.nextBytes(body);
+        byte[] plain = ByteBuffer.allocate(meta.length + body.length).put(meta).put(body).array();
+        for (CryptoParams p : new CryptoParams[]{params, CryptoConfig.createPrime256v1ChaCha20Poly1305(), CryptoConfig.createPrime256v1AesGcmSiv()}) {
+            byte[] key = new byte[256 / 8];
+            byte[] salt = new byte[4];
+            srand.nextBytes(key);
+            srand.nextBytes(salt);
+            SymCryptor instance1 = new SymJCEImpl(p);
+            instance1.setSalt(salt);
+            instance1.setKey(key);
+            instance1.setNonce(null);
+            ByteBuffer direct = ByteBuffer.allocateDirect(body.length - 1000).put(body, 1000, body.length - 1000).flip();
+            ByteBuffer[] plainParts = {ByteBuffer.wrap(meta), ByteBuffer.wrap(body).slice(0, 1000), direct};
+            ByteBuffer[] aadParts = {ByteBuffer.wrap(header), ByteBuffer.wrap(meta)};
+            int size = instance1.getAEADEncryptedSize(plain.length, header.length + meta.length);
+            ByteBuffer out = ByteBuffer.allocate(size);
+            assertEquals(size, instance1.encryptWithAEAData(plainParts, aadParts, out));
+            assertEquals(0, direct.remaining());
+            assertEquals(0, aadParts[1].remaining());
+
+            SymCryptor instance2 = new SymJCEImpl(p);
+            instance2.setSalt(salt);
+            instance2.setKey(key);
+            AEADPlain res = instance2.decryptWithAEAData(out.array());
+            assertArrayEquals(plain, res.decrypted);
+            assertArrayEquals(ByteBuffer.allocate(header.length + meta.length).put(header).put(meta).array(), res.plain);
+
+            instance2 = new SymJCEImpl(p);
+            instance2.setSalt(salt);
+            instance2.setKey(key);
+            ByteBuffer[] dst = {ByteBuffer.allocate(meta.length), ByteBuffer.allocateDirect(1000), ByteBuffer.allocate(body.length)};
+            out.flip();
+            assertEquals(plain.length, instance2.decryptWithAEAData(out, dst));
+            assertEquals(size, out.position());
+            assertArrayEquals(meta, dst[0].array());
+            assertEquals(ByteBuffer.wrap(body, 0, 1000), dst[1].flip());
+            assertEquals(ByteBuffer.wrap(body, 1000, body.length - 1000), dst[2].flip());
+
+            SymCryptor instance3 = new SymJCEImpl(p);
+            instance3.setSalt(salt);
+            instance3.setKey(key);
+            ByteBuffer[] small = {ByteBuffer.allocate(10), ByteBuffer.allocate(10)};
+            out.flip();
+            assertThrows(CryptoNotValidException.class, () -> instance3.decryptWithAEAData(out, small));
+        }
+    }
+
     /**
      * Test of encryptAsymmetric method, of class EasyCrypt.
      */
@@ -241,6 +408,32 @@ public class NoFilesCryptoTest {
         String text = new String(decrypted);
         assertEquals(plain, text);
     }
+
+    @Test
+    public void testEncryptAsymmetricIESWithAEAD() throws Exception {
+        System.out.println("encryptAsymmetricIES with AEAD");
+        byte[] plain = "Red fox Jumps over Lazy Dog".getBytes();
+        byte[] open = "open header".getBytes();
+        AsymCryptor instance1 = new AsymJCEIESImpl(params);
+        instance1.setKeys(khA);
+        AEADCiphered encrypted = instance1.encryptWithAEAData(plain, open);
+        byte[] message = encrypted.toBytes();
+
+        AsymCryptor instance2 = new AsymJCEIESImpl(params);
+        instance2.setKeys(khB);
+        AEADPlain decrypted = instance2.decryptWithAEAData(message);
+        assertTrue(decrypted.hmacOk);
+        assertArrayEquals(plain, decrypted.decrypted);
+        assertArrayEquals(open, decrypted.plain);
+        //each message has own ephemeral key
+        assertTrue(!Arrays.equals(message, instance1.encryptWithAEAData(plain, open).toBytes()));
+        //modified AAD, encapsulated key and cipher text
+        for (int pos : new int[]{message.length - plain.length - 16 - 80, 30, message.length - 1}) {
+            byte[] modified = message.clone();
+            modified[pos] ^= 1;
+            assertThrows(CryptoNotValidException.class, () -> instance2.decryptWithAEAData(modified));
+        }
+    }
     
 /**
  * Test shared iv generation
@@ -262,6 +455,47 @@ public class NoFilesCryptoTest {
         System.out.println(Hex.toHexString(sharedKey2));
         assertArrayEquals(sharedKey1, sharedKey2);
     }
+    @Test
+    public void testSharedKeyCache() throws Exception {
+        System.out.println("SharedKeyCache");
+        SharedKeyCache cache = new SharedKeyCache(1, Duration.ofMinutes(1));
+        AsymCryptorDH plainA = new AsymJCEECDHImpl(params);
+        plainA.setKeys(khA);
+        AsymCryptorDH instance1 = new AsymJCEECDHImpl(params, cache);
+        instance1.setKeys(khA);
+        assertEquals(1, cache.getMisses());
+        AsymCryptorDH instance2 = new AsymJCEECDHImpl(params, cache);
+        instance2.setKeys(khA);
+        assertEquals(1, cache.getHits());
+        assertArrayEquals(plainA.calculateSharedKey(), instance2.calculateSharedKey());
+        //other side has its own private key, so it is separate entry; size bound evicts first one
+        AsymCryptorDH instanceB = new AsymJCEECDHImpl(params, cache);
+        instanceB.setKeys(khB);
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+        byte[] plain = "Red fox Jumps over Lazy Dog".getBytes();
+        assertArrayEquals(plain, instanceB.decrypt(instance1.encrypt(plain)));
+        //their public key in place of our private key must not hit cache
+        AsymCryptorDH mallory = new AsymJCEECDHImpl(params, cache);
+        mallory.setKeys(new AsymKeysHolder(kpBob.getPublic(), kpAlice.getPrivate(), kpAlice.getPublic()));
+        assertEquals(3, cache.getMisses());
+        //precomputed fingerprint of our keys gives the same entry
+        byte[] fp = SharedKeyCache.fingerprint("test", kpAlice.getPrivate(), kpAlice.getPublic());
+        byte[] secret = cache.getOrCalculate(fp, kpBob.getPublic(), () -> new byte[]{1, 2, 3});
+        assertArrayEquals(secret, cache.getOrCalculate("test", kpAlice.getPrivate(), kpAlice.getPublic(), kpBob.getPublic(),
+                () -> new byte[]{4, 5, 6}));
+        assertEquals(4, cache.getMisses());
+
+        SharedKeyCache shortLived = new SharedKeyCache(10, Duration.ofMillis(1));
+        new AsymJCEECDHImpl(params, shortLived).setKeys(khA);
+        Thread.sleep(5);
+        new AsymJCEECDHImpl(params, shortLived).setKeys(khA);
+        assertEquals(0, shortLived.getHits());
+        Thread.sleep(5);
+        assertEquals(1, shortLived.purgeExpired());
+        assertEquals(0, shortLived.size());
+    }
+
     /**
      * Test of encryptAsymmetric method, of class EasyCrypt.
      */
@@ -282,6 +516,57 @@ public class NoFilesCryptoTest {
         assertEquals(plain, text);
     }
     
+    /**
+     * Test of decryptInPlace methods of symmetric and DH cryptors
+     */
+    @Test
+    public void testDecryptInPlace() throws Exception {
+        System.out.println("decryptInPlace");
+        byte[] plain = new byte[1000];
+        srand.nextBytes(plain);
+        int off = 7;
+        for (CryptoParams p : new CryptoParams[]{params, CryptoConfig.createPrime256v1ChaCha20Poly1305(), CryptoConfig.createPrime256v1AesGcmSiv()}) {
+            byte[] key = new byte[256 / 8];
+            byte[] salt = new byte[4];
+            srand.nextBytes(key);
+            srand.nextBytes(salt);
+            SymCryptor instance1 = new SymJCEImpl(p);
+            instance1.setSalt(salt);
+            instance1.setKey(key);
+            instance1.setNonce(null);
+            byte[] encrypted = instance1.encrypt(plain);
+            byte[] buf = new byte[off + encrypted.length];
+            System.arraycopy(encrypted, 0, buf, off, encrypted.length);
+
+            SymCryptor instance2 = new SymJCEImpl(p);
+            instance2.setKey(key);
+            instance2.setSalt(salt);
+            int len = instance2.decryptInPlace(buf, off, encrypted.length);
+            assertEquals(plain.length, len);
+            assertArrayEquals(plain, Arrays.copyOfRange(buf, off, off + len));
+
+            System.arraycopy(encrypted, 0, buf, off, encrypted.length);
+            buf[buf.length - 1] ^= 1;
+            SymCryptor instance3 = new SymJCEImpl(p);
+            instance3.setKey(key);
+            instance3.setSalt(salt);
+            assertThrows(CryptoNotValidException.class, () -> instance3.decryptInPlace(buf, off, encrypted.length));
+        }
+
+        AsymCryptorDH instance1 = new AsymJCEECDHImpl(params);
+        instance1.setKeys(khA);
+        byte[] encrypted = instance1.encrypt(plain);
+        AsymCryptorDH instance2 = new AsymJCEECDHImpl(params);
+        instance2.setKeys(khB);
+        byte[] buf = encrypted.clone();
+        int len = instance2.decryptInPlace(buf, 0, buf.length);
+        assertEquals(plain.length, len);
+        assertArrayEquals(plain, Arrays.copyOf(buf, len));
+        encrypted[0] ^= 1;
+        assertThrows(CryptoNotValidException.class, () -> instance2.decryptInPlace(encrypted, 0, encrypted.length));
+        assertThrows(CryptoNotValidException.class, () -> instance2.decryptInPlace(encrypted, 0, 20));
+    }
+
     /**
      * Test of encryptAsymmetricWithAEAData method, of class EasyCrypt.
      */
@@ -363,5 +648,281 @@ public class NoFilesCryptoTest {
         assertArrayEquals(sharedKeyAlice, sharedKeyBob);
     }
 
-    
+    @Test
+    public void testX25519() throws Exception {
+        System.out.println("X25519 ECDH and ECDHE");
+        CryptoParams xp = CryptoConfig.createX25519();
+        CryptoFactory factory = CryptoFactory.newInstance(xp);
+        KeyGenerator kg = factory.getKeyGenerator();
+        //static X25519 keys
+        KeyPair a = kg.generateKeys();
+        KeyPair b = kg.generateKeys();
+        assertEquals(44, a.getPublic().getEncoded().length);
+        //keys are read back by key reader
+        KeyReader kr = new KeyReaderImpl();
+        assertTrue(kr.deserializePublicKey(a.getPublic().getEncoded()) == kg.createPublicKeyFromBytes(a.getPublic().getEncoded()));
+        assertArrayEquals(a.getPrivate().getEncoded(), kr.deserializePrivateKey(a.getPrivate().getEncoded()).getEncoded());
+        AsymCryptorDH instance1 = factory.getAsymCryptorDH();
+        assertTrue(instance1 instanceof AsymJCEX25519Impl);
+        instance1.setKeys(new AsymKeysHolder(a.getPublic(), a.getPrivate(), b.getPublic()));
+        AsymCryptorDH instance2 = factory.getAsymCryptorDH();
+        instance2.setKeys(new AsymKeysHolder(b.getPublic(), b.getPrivate(), a.getPublic()));
+        assertArrayEquals(instance1.calculateSharedKey(), instance2.calculateSharedKey());
+        byte[] plain = "Red fox Jumps over Lazy Dog".getBytes();
+        assertArrayEquals(plain, instance2.decrypt(instance1.encrypt(plain)));
+
+        //Ed25519 identity keys sign ephemeral X25519 keys
+        KeyPair sa = kg.generateSignatureKeys();
+        KeyPair sb = kg.generateSignatureKeys();
+        AsymCryptorDH alice = factory.getAsymCryptorDH();
+        alice.setKeys(new AsymKeysHolder(sa.getPublic(), sa.getPrivate(), sb.getPublic()));
+        AsymCryptorDH bob = factory.getAsymCryptorDH();
+        bob.setKeys(new AsymKeysHolder(sb.getPublic(), sb.getPrivate(), sa.getPublic()));
+        //no static shared key of signature keys
+        assertThrows(CryptoNotValidException.class, () -> alice.calculateSharedKey());
+        assertThrows(CryptoNotValidException.class, () -> alice.encrypt(plain));
+        try (EphemeralKeyPool pool = factory.getEphemeralKeyPool(1)) {
+            bob.setEphemeralKeyPool(pool);
+            byte[] aliceSigned = alice.ecdheStep1();
+            byte[] bobSigned = bob.ecdheStep1();
+            assertArrayEquals(alice.ecdheStep2(bobSigned), bob.ecdheStep2(aliceSigned));
+            bobSigned[bobSigned.length - 1] ^= 1;
+            assertThrows(CryptoNotValidException.class, () -> alice.ecdheStep2(bobSigned));
+        }
+    }
+
+    @Test
+    public void testCalculateSharedKeys() throws Exception {
+        System.out.println("calculateSharedKeys");
+        for (CryptoParams p : new CryptoParams[]{CryptoConfig.createPrime256v1(), CryptoConfig.createX25519()}) {
+            CryptoFactory factory = CryptoFactory.newInstance(p);
+            KeyGenerator kg = factory.getKeyGenerator();
+            KeyPair our = kg.generateKeys();
+            List<PublicKey> theirs = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                theirs.add(kg.generateKeys().getPublic());
+            }
+            AsymCryptorDH batch = factory.getAsymCryptorDH();
+            batch.setKeys(new AsymKeysHolder(our.getPublic(), our.getPrivate(), our.getPublic()));
+            List<byte[]> parallel = batch.calculateSharedKeys(theirs);
+            List<byte[]> sequential = batch.calculateSharedKeys(theirs, null);
+            assertEquals(theirs.size(), parallel.size());
+            for (int i = 0; i < theirs.size(); i++) {
+                AsymCryptorDH single = factory.getAsymCryptorDH();
+                single.setKeys(new AsymKeysHolder(our.getPublic(), our.getPrivate(), theirs.get(i)));
+                byte[] expected = single.calculateSharedKey();
+                assertArrayEquals(expected, parallel.get(i));
+                assertArrayEquals(expected, sequential.get(i));
+            }
+        }
+        //key of other curve fails whole batch
+        CryptoFactory factory = CryptoFactory.newInstance(CryptoConfig.createPrime256v1());
+        KeyPair our = factory.getKeyGenerator().generateKeys();
+        AsymCryptorDH batch = factory.getAsymCryptorDH();
+        batch.setKeys(new AsymKeysHolder(our.getPublic(), our.getPrivate(), our.getPublic()));
+        List<PublicKey> wrong = List.of(our.getPublic(), CryptoFactory.newInstance().getKeyGenerator().generateKeys().getPublic());
+        assertThrows(CryptoNotValidException.class, () -> batch.calculateSharedKeys(wrong));
+    }
+
+    @Test
+    public void testPublicKeyCache() throws Exception {
+        System.out.println("PublicKeyCache");
+        KeyGenerator kg = CryptoFactory.newInstance().getKeyGenerator();
+        byte[] k1 = kg.generateKeys().getPublic().getEncoded();
+        byte[] k2 = kg.generateKeys().getPublic().getEncoded();
+        byte[] k3 = kg.generateKeys().getPublic().getEncoded();
+        PublicKeyCache cache = new PublicKeyCache(2);
+        PublicKey p1 = cache.getPublicKey("ECDSA", k1);
+        assertTrue(p1 == cache.getPublicKey("ECDSA", k1));
+        assertArrayEquals(k1, p1.getEncoded());
+        cache.getPublicKey("ECDSA", k2);
+        cache.getPublicKey("ECDSA", k3);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(0.25, cache.getHitRate(), 1e-9);
+        //k1 is evicted as least recently used
+        assertTrue(p1 != cache.getPublicKey("ECDSA", k1));
+        //point is not on curve
+        byte[] bad = k2.clone();
+        bad[bad.length - 1] ^= 1;
+        assertThrows(InvalidKeySpecException.class, () -> cache.getPublicKey("ECDSA", bad));
+        assertThrows(InvalidKeySpecException.class, () -> cache.getPublicKey("ECDSA", bad));
+        assertEquals(2, cache.size());
+        //default cache is shared by key reader and key generator
+        KeyReader kr = new KeyReaderImpl();
+        assertTrue(kr.deserializePublicKey(k3) == kg.createPublicKeyFromBytes(k3));
+        assertThrows(CryptoNotValidException.class, () -> kr.deserializePublicKey(bad));
+    }
+
+    @Test
+    public void testEnvelope() throws Exception {
+        System.out.println("multi-recipient envelope");
+        byte[] plain = new byte[10000];
+        srand.nextBytes(plain);
+        for (CryptoParams p : new CryptoParams[]{CryptoConfig.createPrime256v1(), CryptoConfig.createX25519()}) {
+            CryptoFactory factory = CryptoFactory.newInstance(p);
+            KeyGenerator kg = factory.getKeyGenerator();
+            List<KeyPair> keys = new ArrayList<>();
+            List<PublicKey> recipients = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                KeyPair kp = kg.generateKeys();
+                keys.add(kp);
+                recipients.add(kp.getPublic());
+            }
+            EnvelopeCryptor instance = factory.getEnvelopeCryptor();
+            byte[] envelope = instance.encrypt(plain, recipients);
+            assertTrue(envelope.length < plain.length + 1500);
+            //header and payload are one AEAD message, limit is checked before key agreement
+            byte[] big = new byte[p.getAeadMaxMsgSize() - 500];
+            assertThrows(CryptoNotValidException.class, () -> instance.encrypt(big, recipients));
+            assertEquals(0, EnvelopeHeader.maxRecipients(91, 60, p.getAeadMaxMsgSize(), p.getAeadMaxMsgSize()));
+            assertEquals(5, EnvelopeHeader.maxRecipients(91, 60, big.length, p.getAeadMaxMsgSize()));
+            assertTrue(EnvelopeHeader.maxRecipients(91, 60, plain.length, p.getAeadMaxMsgSize()) < EnvelopeHeader.MAX_RECIPIENTS);
+            List<byte[]> ids = instance.getRecipientIds(envelope);
+            assertEquals(recipients.size(), ids.size());
+            for (int i = 0; i < keys.size(); i++) {
+                assertArrayEquals(instance.getKeyId(recipients.get(i)), ids.get(i));
+                assertArrayEquals(plain, factory.getEnvelopeCryptor().decrypt(envelope, keys.get(i).getPublic(), keys.get(i).getPrivate()));
+            }
+            KeyPair stranger = kg.generateKeys();
+            assertThrows(CryptoNotValidException.class, () -> instance.decrypt(envelope, stranger.getPublic(), stranger.getPrivate()));
+            //list of recipients is authenticated: entry of recipient 0 is
+            //modified, untouched recipient 9 must fail
+            int entry = indexOf(envelope, ids.get(0));
+            assertTrue(entry > 0);
+            for (int pos : new int[]{entry, entry + EnvelopeHeader.KEY_ID_LEN}) {
+                byte[] modified = envelope.clone();
+                modified[pos] ^= 1;
+                assertThrows(CryptoNotValidException.class, () -> instance.decrypt(modified, keys.get(9).getPublic(), keys.get(9).getPrivate()));
+            }
+            assertThrows(CryptoNotValidException.class, () -> instance.encrypt(plain, List.of()));
+        }
+    }
+
+    @Test
+    public void testKemStream() throws Exception {
+        System.out.println("KEM-DEM public key encrypted stream");
+        byte[] plain = new byte[200000];
+        srand.nextBytes(plain);
+        for (CryptoParams p : new CryptoParams[]{CryptoConfig.createPrime256v1(), CryptoConfig.createX25519()}) {
+            CryptoFactory factory = CryptoFactory.newInstance(p);
+            KeyPair kp = factory.getKeyGenerator().generateKeys();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (OutputStream out = factory.getKemCipherOutputStream(bos, kp.getPublic())) {
+                out.write(plain, 0, 1000);
+                out.write(plain, 1000, plain.length - 1000);
+            }
+            byte[] enc = bos.toByteArray();
+            try (InputStream in = factory.getKemCipherInputStream(new ByteArrayInputStream(enc), kp.getPublic(), kp.getPrivate())) {
+                assertArrayEquals(plain, in.readAllBytes());
+            }
+            //other recipient derives other key
+            KeyPair other = factory.getKeyGenerator().generateKeys();
+            assertThrows(CryptoNotValidException.class, () -> factory.getKemCipherInputStream(new ByteArrayInputStream(enc), other.getPublic(), other.getPrivate()));
+            //KEM header is bound to key
+            int kemLen = enc.length - (int) new SegmentedAEADHeader(SegmentedAEADHeader.DEFAULT_SEGMENT_SIZE, 16, new byte[12]).encryptedSize(plain.length);
+            byte[] modified = enc.clone();
+            modified[kemLen - 1] ^= 1;
+            assertThrows(CryptoNotValidException.class, () -> factory.getKemCipherInputStream(new ByteArrayInputStream(modified), kp.getPublic(), kp.getPrivate()));
+            //IV of stream must be derived one
+            byte[] otherIV = enc.clone();
+            otherIV[kemLen + SegmentedAEADHeader.HEADER_SIZE - 1] ^= 1;
+            assertThrows(CryptoNotValidException.class, () -> factory.getKemCipherInputStream(new ByteArrayInputStream(otherIV), kp.getPublic(), kp.getPrivate()));
+        }
+    }
+
+    @Test
+    public void testSymRatchet() throws Exception {
+        System.out.println("SymRatchet");
+        //RFC 5869 test case 1
+        HKDF hkdf = new HKDF("SHA-256");
+        byte[] prk = hkdf.extract(Hex.decode("000102030405060708090a0b0c"), Hex.decode("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b"));
+        assertArrayEquals(Hex.decode("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865"),
+                hkdf.expand(prk, Hex.decode("f0f1f2f3f4f5f6f7f8f9"), 42));
+
+        AsymCryptorDH dhA = new AsymJCEECDHImpl(params);
+        dhA.setKeys(khA);
+        AsymCryptorDH dhB = new AsymJCEECDHImpl(params);
+        dhB.setKeys(khB);
+        CryptoFactory factory = CryptoFactory.newInstance(params);
+        byte[] pubA = khA.getOurPublicKey().getEncoded();
+        byte[] pubB = khB.getOurPublicKey().getEncoded();
+        SymRatchet alice = factory.getSymRatchet(dhA.calculateSharedKey(), pubA, pubB, 3, Duration.ofHours(1));
+        SymRatchet bob = factory.getSymRatchet(dhB.calculateSharedKey(), pubB, pubA, 3, Duration.ofHours(1));
+        byte[] plain = "Red fox Jumps over Lazy Dog".getBytes();
+        byte[] first = alice.encrypt(plain);
+        byte[] last = null;
+        for (int i = 0; i < 10; i++) {
+            last = alice.encrypt(plain);
+            assertArrayEquals(plain, bob.decrypt(last));
+        }
+        assertEquals(3, alice.getEpoch());
+        assertEquals(3, bob.getEpoch());
+        //epoch 0 is not retained anymore
+        assertThrows(CryptoNotValidException.class, () -> bob.decrypt(first));
+        //reply uses chain of other direction
+        AEADCiphered reply = bob.encryptWithAEAData(plain, "open".getBytes());
+        AEADPlain res = alice.decryptWithAEAData(reply.toBytes());
+        assertArrayEquals(plain, res.decrypted);
+        assertArrayEquals("open".getBytes(), res.plain);
+
+        //forged epoch does not move chain
+        byte[] forged = last.clone();
+        ByteBuffer.wrap(forged).putInt(alice.getEpoch() + 5);
+        assertThrows(CryptoNotValidException.class, () -> bob.decrypt(forged));
+        assertEquals(3, bob.getEpoch());
+        //message of later epoch moves receiver forward
+        alice.advance();
+        byte[] skipped = alice.encrypt(plain);
+        alice.advance();
+        assertArrayEquals(plain, bob.decrypt(alice.encrypt(plain)));
+        assertEquals(5, bob.getEpoch());
+        //late message of skipped epoch is still accepted
+        assertArrayEquals(plain, bob.decrypt(skipped));
+        //message reflected back to its sender is rejected
+        byte[] reflected = alice.encrypt(plain);
+        assertThrows(CryptoNotValidException.class, () -> alice.decrypt(reflected));
+        assertThrows(CryptoNotValidException.class, () -> bob.decryptWithAEAData(reply.toBytes()));
+        assertArrayEquals(plain, bob.decrypt(reflected));
+
+        bob.destroy();
+        assertThrows(CryptoNotValidException.class, () -> bob.encrypt(plain));
+    }
+
+    @Test
+    public void testEphemeralKeyPool() throws Exception {
+        System.out.println("ECDHE with ephemeral key pool");
+        try (EphemeralKeyPool pool = new EphemeralKeyPool(params, 2)) {
+            assertTrue(pool.awaitFull(30, TimeUnit.SECONDS));
+            assertTrue(pool.getLastRefillLagNanos() > 0);
+            AsymCryptorDH instance1 = new AsymJCEECDHImpl(params);
+            instance1.setKeys(khA);
+            instance1.setEphemeralKeyPool(pool);
+            AsymCryptorDH instance2 = new AsymJCEECDHImpl(params);
+            instance2.setKeys(khB);
+            instance2.setEphemeralKeyPool(pool);
+
+            byte[] aliceSignedKey = instance1.ecdheStep1();
+            byte[] bobSignedKey = instance2.ecdheStep1();
+            assertEquals(2, pool.getHits());
+            assertArrayEquals(instance1.ecdheStep2(bobSignedKey), instance2.ecdheStep2(aliceSignedKey));
+            //both ends took different key pairs
+            assertTrue(!Arrays.equals(aliceSignedKey, bobSignedKey));
+            assertTrue(pool.awaitFull(30, TimeUnit.SECONDS));
+            assertTrue(pool.getMaxRefillLagNanos() >= pool.getLastRefillLagNanos());
+            assertEquals(0, pool.getCurrentRefillLagNanos());
+            AsymCryptorDH other = new AsymJCEECDHImpl(CryptoConfig.createPrime256v1());
+            assertThrows(IllegalArgumentException.class, () -> other.setEphemeralKeyPool(pool));
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            if (Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
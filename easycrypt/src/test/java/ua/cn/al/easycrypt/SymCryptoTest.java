@@ -20,11 +20,35 @@ package ua.cn.al.easycrypt;
 import ua.cn.al.easycrypt.dataformat.AEADCiphered;
 import ua.cn.al.easycrypt.dataformat.AEADPlain;
 import ua.cn.al.easycrypt.impl.ecc.SymJCEImpl;
+import ua.cn.al.easycrypt.dataformat.SegmentedAEADHeader;
+import ua.cn.al.easycrypt.stream.ParallelFileEncryptor;
+import ua.cn.al.easycrypt.stream.RandomAccessDecryptor;
+import ua.cn.al.easycrypt.stream.SegmentCipher;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import org.junit.jupiter.api.AfterAll;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import org.junit.jupiter.api.BeforeAll;
@@ -40,6 +64,8 @@ public class SymCryptoTest extends TestBase {
     private static final String KEY_FILE = "testdata/out/encrypt_sym_test_key.bin";
     private static final String OUT_FILE_ENCRYPT_SYM = "testdata/out/encrypt_sym_test.bin";
     private static final String OUT_FILE_ENCRYPT_SYM_AEAD = "testdata/out/encrypt_sym_aead_test.bin";
+    private static final String OUT_FILE_ENCRYPT_SEGMENTED = "testdata/out/encrypt_segmented_test.bin";
+    private static final String OUT_FILE_ENCRYPT_PARALLEL = "testdata/out/encrypt_parallel_test.bin";
     private static final String OPEN_TEXT = "This is test open text. Should be visisble as is";
     private static final SecureRandom srand = new SecureRandom();
     private static final int RANDOM_BYTES_NUMBER = 4096;
@@ -165,4 +191,407 @@ public class SymCryptoTest extends TestBase {
         }
     }
 
+    @Test
+    public void testEncryptByteBuffers() throws CryptoNotValidException {
+        System.out.println("Testing symmetric encryption-decryption with direct buffers and array parts");
+        byte[] plain = new byte[RANDOM_BYTES_NUMBER];
+        srand.nextBytes(plain);
+        byte[] key = new byte[256 / 8];
+        byte[] salt = new byte[4];
+        srand.nextBytes(key);
+        srand.nextBytes(salt);
+
+        SymCryptor instance_e = new SymJCEImpl(params);
+        instance_e.setSalt(salt);
+        instance_e.setNonce(null);
+        instance_e.setKey(key);
+        ByteBuffer src = ByteBuffer.allocateDirect(plain.length);
+        src.put(plain).flip();
+        ByteBuffer encrypted = ByteBuffer.allocateDirect(instance_e.getEncryptedSize(plain.length));
+        int written = instance_e.encrypt(src, encrypted);
+        assertEquals(encrypted.capacity(), written);
+        assertEquals(0, src.remaining());
+        encrypted.flip();
+
+        SymCryptor instance_d = new SymJCEImpl(params);
+        instance_d.setSalt(salt);
+        instance_d.setKey(key);
+        ByteBuffer decrypted = ByteBuffer.allocateDirect(instance_d.getDecryptedSize(written));
+        assertEquals(plain.length, instance_d.decrypt(encrypted, decrypted));
+        byte[] res = new byte[plain.length];
+        decrypted.flip().get(res);
+        assertArrayEquals(plain, res);
+
+        //array parts with offsets, compatible with encrypt(byte[])
+        instance_e.setNonce(null);
+        byte[] out = new byte[instance_e.getEncryptedSize(100) + 10];
+        int len = instance_e.encrypt(plain, 5, 100, out, 10);
+        SymCryptor instance_d2 = new SymJCEImpl(params);
+        instance_d2.setSalt(salt);
+        instance_d2.setKey(key);
+        byte[] plain_decrypted = instance_d2.decrypt(Arrays.copyOfRange(out, 10, 10 + len));
+        assertArrayEquals(Arrays.copyOfRange(plain, 5, 105), plain_decrypted);
+    }
+
+
+    @Test
+    public void testSessionConcurrent() throws Exception {
+        System.out.println("Testing shared symmetric session with many threads");
+        byte[] key = new byte[256 / 8];
+        byte[] salt = new byte[4];
+        srand.nextBytes(key);
+        srand.nextBytes(salt);
+        CryptoFactory factory = CryptoFactory.newInstance(params);
+        SymCryptorSession session = factory.getSymCryptorSession(key, salt);
+        Set<String> nonces = ConcurrentHashMap.newKeySet();
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            tasks.add(() -> {
+                for (int j = 0; j < 50; j++) {
+                    byte[] plain = new byte[1 + srand.nextInt(512)];
+                    srand.nextBytes(plain);
+                    byte[] encrypted = session.encrypt(plain);
+                    nonces.add(Arrays.toString(Arrays.copyOf(encrypted, 12)));
+                    AEADCiphered am = session.encryptWithAEAData(plain, OPEN_TEXT.getBytes());
+                    AEADPlain ap = session.decryptWithAEAData(am.toBytes());
+                    if (!Arrays.equals(plain, session.decrypt(encrypted)) || !Arrays.equals(plain, ap.decrypted)) {
+                        return false;
+                    }
+                }
+                return true;
+            });
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Future<Boolean> f : executor.invokeAll(tasks)) {
+                assertTrue(f.get());
+            }
+        }
+        assertEquals(64 * 50, nonces.size());
+
+        //session messages are compatible with SymCryptor
+        byte[] plain = OPEN_TEXT.getBytes();
+        SymCryptor instance_d = factory.getSymCryptor();
+        instance_d.setSalt(salt);
+        instance_d.setKey(key);
+        assertArrayEquals(plain, instance_d.decrypt(session.encrypt(plain)));
+    }
+
+
+    @Test
+    public void testCounterNonce() throws Exception {
+        System.out.println("Testing counter nonce generator with key usage limit");
+        CryptoParams cp = new CryptoParams.CryptoParamsBuilder()
+                .symCipher("AES/GCM/NoPadding")
+                .gcmAuthTagLenBits(128)
+                .aesIvLen(12)
+                .aesGcmSaltLen(4)
+                .aesGcmNonceLen(8)
+                .symNonceGenerator(CryptoParams.NONCE_COUNTER)
+                .symKeyUsageLimit(8)
+                .build();
+        byte[] key = new byte[128 / 8];
+        byte[] salt = new byte[4];
+        srand.nextBytes(key);
+        srand.nextBytes(salt);
+        SymCryptorSession session = CryptoFactory.newInstance(cp).getSymCryptorSession(key, salt);
+        byte[] plain = OPEN_TEXT.getBytes();
+        long prev = 0;
+        for (int i = 0; i < 8; i++) {
+            byte[] encrypted = session.encrypt(plain);
+            long counter = ByteBuffer.wrap(encrypted, 4, 8).getLong();
+            if (i > 0) {
+                assertEquals(prev + 1, counter);
+            }
+            prev = counter;
+            assertArrayEquals(plain, session.decrypt(encrypted));
+        }
+        assertTrue(session.getNonceGenerator().isRotationRequired());
+        assertThrows(CryptoNotValidException.class, () -> session.encrypt(plain));
+
+        SymCryptor instance = CryptoFactory.newInstance(cp).getSymCryptor();
+        instance.setSalt(salt);
+        instance.setKey(key);
+        instance.setNonce(null);
+        byte[] n1 = instance.getNonce();
+        instance.setNonce(null);
+        assertEquals(ByteBuffer.wrap(n1).getLong() + 1, ByteBuffer.wrap(instance.getNonce()).getLong());
+        assertEquals(2, instance.getNonceGenerator().getUsageCount());
+    }
+
+
+    @Test
+    public void testBatch() throws Exception {
+        System.out.println("Testing symmetric AEAD batch encryption-decryption");
+        byte[] key = new byte[256 / 8];
+        byte[] salt = new byte[4];
+        srand.nextBytes(key);
+        srand.nextBytes(salt);
+        int n = 1000;
+        List<byte[]> plains = new ArrayList<>();
+        List<byte[]> aads = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            byte[] plain = new byte[srand.nextInt(300)];
+            srand.nextBytes(plain);
+            plains.add(plain);
+            aads.add(i % 10 == 0 ? null : ("record " + i).getBytes());
+        }
+        SymCryptor instance_e = CryptoFactory.newInstance(params).getSymCryptor();
+        instance_e.setSalt(salt);
+        instance_e.setKey(key);
+        BatchResult encrypted = instance_e.encryptBatch(plains, aads);
+        assertEquals(n, encrypted.size());
+        assertEquals(0, encrypted.getFailedCount());
+        //null plain text fails alone
+        BatchResult withNull = instance_e.encryptBatch(Arrays.asList(plains.get(0), null), null);
+        assertTrue(withNull.isOk(0));
+        assertTrue(!withNull.isOk(1));
+
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            messages.add(encrypted.get(i));
+        }
+        //corrupt one message, it must fail alone
+        messages.get(7)[messages.get(7).length - 1] ^= 1;
+        SymCryptor instance_d = CryptoFactory.newInstance(params).getSymCryptor();
+        instance_d.setSalt(salt);
+        instance_d.setKey(key);
+        BatchResult decrypted = instance_d.decryptBatch(messages);
+        assertEquals(1, decrypted.getFailedCount());
+        assertTrue(!decrypted.isOk(7));
+        for (int i = 0; i < n; i++) {
+            if (i != 7) {
+                assertArrayEquals(plains.get(i), decrypted.get(i));
+            }
+        }
+        //batch items are regular AEAD messages
+        AEADPlain ap = instance_d.decryptWithAEAData(messages.get(1));
+        assertArrayEquals(plains.get(1), ap.decrypted);
+        assertArrayEquals(aads.get(1), ap.plain);
+        //sequential processing gives the same
+        BatchResult seq = instance_d.decryptBatch(messages.subList(0, 5), null);
+        assertArrayEquals(plains.get(4), seq.get(4));
+        //malformed messages fail alone too, declared sizes must not overflow
+        List<byte[]> malformed = new ArrayList<>(messages.subList(0, 5));
+        byte[] overflow = messages.get(1).clone();
+        ByteBuffer.wrap(overflow).putInt(12, Integer.MAX_VALUE).putInt(16, Integer.MAX_VALUE);
+        malformed.set(1, overflow);
+        malformed.set(2, Arrays.copyOf(messages.get(2), messages.get(2).length - 1));
+        malformed.set(3, new byte[5]);
+        malformed.add(null);
+        BatchResult partial = instance_d.decryptBatch(malformed, null);
+        assertEquals(4, partial.getFailedCount());
+        assertTrue(!partial.isOk(5));
+        assertArrayEquals(plains.get(0), partial.get(0));
+        assertArrayEquals(plains.get(4), partial.get(4));
+        //the same for single messages
+        SymCryptorSession session = CryptoFactory.newInstance(params).getSymCryptorSession(key, salt);
+        assertThrows(CryptoNotValidException.class, () -> instance_d.decryptWithAEAData(overflow));
+        assertThrows(CryptoNotValidException.class, () -> session.decryptWithAEAData(overflow));
+    }
+
+    @Test
+    public void testSegmentedStream() throws Exception {
+        System.out.println("Testing segmented AEAD streams");
+        CryptoFactory factory = CryptoFactory.newInstance(params);
+        byte[] key = new byte[256 / 8];
+        srand.nextBytes(key);
+        int segmentSize = 1024;
+        int tagLen = params.getGcmAuthTagLenBits() / 8;
+        for (int size : new int[]{0, 100, 1024, 3000, 4096}) {
+            byte[] plain = new byte[size];
+            srand.nextBytes(plain);
+            byte[] enc = segmentedEncrypt(factory, key, plain, segmentSize);
+            SegmentedAEADHeader header = new SegmentedAEADHeader(segmentSize, tagLen, new byte[12]);
+            assertEquals(header.encryptedSize(size), enc.length);
+            assertEquals(size, header.plainSize(enc.length));
+            assertArrayEquals(plain, segmentedDecrypt(factory, key, enc));
+        }
+        byte[] plain = new byte[3000];
+        srand.nextBytes(plain);
+        byte[] enc = segmentedEncrypt(factory, key, plain, segmentSize);
+        int es = segmentSize + tagLen;
+        int hs = SegmentedAEADHeader.HEADER_SIZE;
+        //truncated at segment boundary
+        assertThrows(IOException.class, () -> segmentedDecrypt(factory, key, Arrays.copyOf(enc, hs + 2 * es)));
+        //truncated inside of last segment
+        assertThrows(IOException.class, () -> segmentedDecrypt(factory, key, Arrays.copyOf(enc, enc.length - 1)));
+        //appended data
+        assertThrows(IOException.class, () -> segmentedDecrypt(factory, key, Arrays.copyOf(enc, enc.length + es)));
+        //reordered segments
+        byte[] reordered = enc.clone();
+        System.arraycopy(enc, hs, reordered, hs + es, es);
+        System.arraycopy(enc, hs + es, reordered, hs, es);
+        assertThrows(IOException.class, () -> segmentedDecrypt(factory, key, reordered));
+        //modified segment and modified header
+        byte[] modified = enc.clone();
+        modified[hs + es + 10] ^= 1;
+        assertThrows(IOException.class, () -> segmentedDecrypt(factory, key, modified));
+        byte[] wrongHeader = enc.clone();
+        wrongHeader[hs - 1] ^= 1;
+        assertThrows(IOException.class, () -> segmentedDecrypt(factory, key, wrongHeader));
+    }
+
+    @Test
+    public void testRandomAccessDecryptor() throws Exception {
+        System.out.println("Testing random access decryption of segmented AEAD file");
+        CryptoFactory factory = CryptoFactory.newInstance(params);
+        byte[] key = new byte[128 / 8];
+        srand.nextBytes(key);
+        byte[] plain = new byte[10000];
+        srand.nextBytes(plain);
+        Path file = Path.of(OUT_FILE_ENCRYPT_SEGMENTED);
+        byte[] enc = segmentedEncrypt(factory, key, plain, 512);
+        Files.write(file, enc);
+        try (RandomAccessDecryptor rad = factory.getRandomAccessDecryptor(file, key)) {
+            assertEquals(plain.length, rad.size());
+            for (int i = 0; i < 100; i++) {
+                int pos = srand.nextInt(plain.length);
+                int len = srand.nextInt(2000);
+                int end = Math.min(plain.length, pos + len);
+                assertArrayEquals(Arrays.copyOfRange(plain, pos, end), rad.read(pos, len));
+            }
+            assertEquals(-1, rad.read(plain.length, new byte[10], 0, 10));
+        }
+        //smallest cache still gives plain text
+        try (RandomAccessDecryptor rad = new RandomAccessDecryptor(params, file, key, 1)) {
+            assertArrayEquals(Arrays.copyOfRange(plain, 500, 1600), rad.read(500, 1100));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new RandomAccessDecryptor(params, file, key, 0));
+        assertThrows(IllegalArgumentException.class, () -> new RandomAccessDecryptor(params, file, key, -1));
+        //only covering segments are verified
+        enc[SegmentedAEADHeader.HEADER_SIZE + 10] ^= 1;
+        Files.write(file, enc);
+        try (RandomAccessDecryptor rad = factory.getRandomAccessDecryptor(file, key)) {
+            assertArrayEquals(Arrays.copyOfRange(plain, 600, 700), rad.read(600, 100));
+            assertThrows(IOException.class, () -> rad.read(10, 100));
+        }
+    }
+
+    @Test
+    public void testParallelFileEncryptor() throws Exception {
+        System.out.println("Testing parallel file encryption to segmented AEAD format");
+        CryptoFactory factory = CryptoFactory.newInstance(params);
+        byte[] key = new byte[256 / 8];
+        byte[] iv = new byte[12];
+        srand.nextBytes(key);
+        srand.nextBytes(iv);
+        Path out = Path.of(OUT_FILE_ENCRYPT_PARALLEL);
+        for (int size : new int[]{0, 512 * 40, 512 * 40 + 77}) {
+            byte[] plain = new byte[size];
+            srand.nextBytes(plain);
+            Path in = Path.of(PLAIN_FILE + ".par");
+            Files.write(in, plain);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (OutputStream os = factory.getSegmentedCipherOutputStream(bos, iv, key, 512)) {
+                os.write(plain);
+            }
+            ParallelFileEncryptor pfe = new ParallelFileEncryptor(params, key, 512);
+            long encSize;
+            try (ForkJoinPool pool = new ForkJoinPool(4)) {
+                encSize = pfe.encrypt(in, out, iv, pool);
+            }
+            byte[] enc = Files.readAllBytes(out);
+            assertEquals(encSize, enc.length);
+            assertArrayEquals(bos.toByteArray(), enc);
+            pfe.encrypt(in, out, iv, null);
+            assertArrayEquals(enc, Files.readAllBytes(out));
+            assertArrayEquals(plain, segmentedDecrypt(factory, key, enc));
+        }
+    }
+
+    @Test
+    public void testCipherPresets() throws Exception {
+        System.out.println("Testing ChaCha20-Poly1305 and AES-GCM-SIV presets");
+        for (CryptoParams p : new CryptoParams[]{CryptoConfig.createPrime256v1ChaCha20Poly1305(), CryptoConfig.createPrime256v1AesGcmSiv()}) {
+            CryptoFactory factory = CryptoFactory.newInstance(p);
+            byte[] key = factory.getKeyGenerator().generateSymKey();
+            byte[] salt = new byte[4];
+            srand.nextBytes(salt);
+            byte[] plain = new byte[1000];
+            srand.nextBytes(plain);
+
+            SymCryptor instance_e = factory.getSymCryptor();
+            instance_e.setSalt(salt);
+            instance_e.setKey(key);
+            instance_e.setNonce(null);
+            byte[] encrypted = instance_e.encrypt(plain);
+            instance_e.setNonce(null);
+            AEADCiphered aead = instance_e.encryptWithAEAData(plain, OPEN_TEXT.getBytes());
+            SymCryptor instance_d = factory.getSymCryptor();
+            instance_d.setSalt(salt);
+            instance_d.setKey(key);
+            assertArrayEquals(plain, instance_d.decrypt(encrypted));
+            AEADPlain ap = instance_d.decryptWithAEAData(aead.toBytes());
+            assertArrayEquals(plain, ap.decrypted);
+            encrypted[encrypted.length - 1] ^= 1;
+            assertThrows(CryptoNotValidException.class, () -> instance_d.decrypt(encrypted));
+
+            SymCryptorSession session = factory.getSymCryptorSession(key, salt);
+            assertArrayEquals(plain, session.decrypt(session.encrypt(plain)));
+            assertArrayEquals(plain, segmentedDecrypt(factory, key, segmentedEncrypt(factory, key, plain, 256)));
+        }
+        SymCryptor chacha = CryptoFactory.newInstance(CryptoConfig.createPrime256v1ChaCha20Poly1305()).getSymCryptor();
+        assertThrows(IllegalArgumentException.class, () -> chacha.setKey(new byte[16]));
+    }
+
+    @Test
+    public void testSymKeyHandle() throws Exception {
+        System.out.println("Testing prepared symmetric key handle");
+        CryptoFactory factory = CryptoFactory.newInstance(params);
+        byte[] key = new byte[256 / 8];
+        byte[] salt = new byte[4];
+        srand.nextBytes(key);
+        srand.nextBytes(salt);
+        SymKeyHandle handle = factory.getSymKeyHandle(key);
+        //handle holds its own copy of key
+        Arrays.fill(key, (byte) 0);
+        SymCryptor instance_e = factory.getSymCryptor();
+        instance_e.setSalt(salt);
+        instance_e.setKey(handle);
+        instance_e.setNonce(null);
+        byte[] plain = OPEN_TEXT.getBytes();
+        byte[] encrypted = instance_e.encrypt(plain);
+        SymCryptorSession session = factory.getSymCryptorSession(handle, salt);
+        assertArrayEquals(plain, session.decrypt(encrypted));
+        //raw key does not leak by serialization
+        assertThrows(NotSerializableException.class, () -> new ObjectOutputStream(new ByteArrayOutputStream()).writeObject(handle.getSecretKey()));
+
+        handle.destroy();
+        assertTrue(handle.isDestroyed());
+        instance_e.setNonce(null);
+        assertThrows(CryptoNotValidException.class, () -> instance_e.encrypt(plain));
+        assertThrows(CryptoNotValidException.class, () -> session.encrypt(plain));
+        assertThrows(IllegalStateException.class, () -> handle.getSecretKey());
+        SegmentedAEADHeader header = new SegmentedAEADHeader(SegmentedAEADHeader.DEFAULT_SEGMENT_SIZE, 16, new byte[12]);
+        assertThrows(CryptoNotValidException.class, () -> new SegmentCipher(params, header, handle));
+        //handle is bound to symmetric cipher of parameters
+        SymKeyHandle chachaKey = CryptoFactory.newInstance(CryptoConfig.createPrime256v1ChaCha20Poly1305()).getSymKeyHandle(new byte[32]);
+        assertThrows(CryptoNotValidException.class, () -> instance_e.setKey(chachaKey));
+        assertThrows(CryptoNotValidException.class, () -> factory.getSymCryptorSession(chachaKey, salt));
+        assertThrows(CryptoNotValidException.class, () -> instance_e.setKey(handle));
+        assertThrows(CryptoNotValidException.class, () -> factory.getSymCryptorSession(handle, salt));
+        assertThrows(CryptoNotValidException.class, () -> new SegmentCipher(params, header, chachaKey));
+    }
+
+    private static byte[] segmentedEncrypt(CryptoFactory factory, byte[] key, byte[] plain, int segmentSize) throws Exception {
+        byte[] iv = new byte[12];
+        srand.nextBytes(iv);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream os = factory.getSegmentedCipherOutputStream(bos, iv, key, segmentSize)) {
+            //uneven writes to cross segment boundaries
+            int pos = 0;
+            while (pos < plain.length) {
+                int n = Math.min(plain.length - pos, 1 + srand.nextInt(700));
+                os.write(plain, pos, n);
+                pos += n;
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    private static byte[] segmentedDecrypt(CryptoFactory factory, byte[] key, byte[] enc) throws Exception {
+        try (InputStream is = factory.getSegmentedCipherInputStream(new ByteArrayInputStream(enc), key)) {
+            return is.readAllBytes();
+        }
+    }
 }